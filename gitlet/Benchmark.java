@@ -0,0 +1,1421 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/** A benchmarking class whose main program may be invoked as follows:
+ *      java gitlet.Benchmark NAME [SIZE...]
+ *  where NAME selects one of the benchmarks below and each SIZE is a
+ *  problem size to run it on.  Each benchmark builds its own synthetic
+ *  input, so it needs no repository and touches nothing in the working
+ *  directory unless stated otherwise.
+ *  @author Wenhao Pan
+ */
+public class Benchmark {
+
+    /** Run the benchmark named ARGS[0] on the sizes in the rest of ARGS. */
+    public static void main(String... args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java gitlet.Benchmark NAME [SIZE...]");
+            System.exit(1);
+        }
+        long[] sizes = new long[args.length - 1];
+        for (int i = 1; i < args.length; i += 1) {
+            sizes[i - 1] = Long.parseLong(args[i]);
+        }
+        switch (args[0]) {
+        case "split":
+            split(sizes.length == 0
+                    ? new long[] {10000, 100000, 1000000} : sizes);
+            break;
+        case "codec":
+            codec(sizes.length == 0
+                    ? new long[] {1 << 16, 1 << 20, 1 << 24} : sizes);
+            break;
+        case "delta":
+            delta(sizes.length == 0 ? new long[] {1000, 10000} : sizes);
+            break;
+        case "chunk":
+            chunk(sizes.length == 0 ? new long[] {16, 64} : sizes);
+            break;
+        case "add":
+            add(sizes.length == 0 ? new long[] {2000} : sizes);
+            break;
+        case "tree":
+            tree(sizes.length == 0 ? new long[] {200000} : sizes);
+            break;
+        case "diff":
+            diff(sizes.length == 0 ? new long[] {20000, 200000} : sizes);
+            break;
+        case "merge":
+            merge(sizes.length == 0 ? new long[] {20000, 200000} : sizes);
+            break;
+        case "diff3":
+            diff3(sizes.length == 0 ? new long[] {16, 256} : sizes);
+            break;
+        case "commit":
+            commit(sizes.length == 0 ? new long[] {100000} : sizes);
+            break;
+        case "ids":
+            ids(sizes.length == 0 ? new long[] {10000, 100000} : sizes);
+            break;
+        case "find":
+            find(sizes.length == 0 ? new long[] {10000, 100000} : sizes);
+            break;
+        case "log":
+            log(sizes.length == 0 ? new long[] {100000, 1000000} : sizes);
+            break;
+        case "journal":
+            journal(sizes.length == 0 ? new long[] {200} : sizes);
+            break;
+        case "bundle":
+            bundle(sizes.length == 0 ? new long[] {100000} : sizes);
+            break;
+        case "negotiate":
+            negotiate(sizes.length == 0 ? new long[] {10000, 100000}
+                    : sizes);
+            break;
+        case "shallow":
+            shallow(sizes.length == 0 ? new long[] {1000} : sizes);
+            break;
+        case "gc":
+            gc(sizes.length == 0 ? new long[] {1000} : sizes);
+            break;
+        default:
+            System.err.println("No benchmark with that name exists.");
+            System.exit(1);
+        }
+    }
+
+    /** Time MergeBase on synthetic histories with the given numbers of
+     *  COMMITS, built from several branches that repeatedly merge each
+     *  other, and report the mean time and commits visited per search. */
+    static void split(long[] commits) {
+        System.out.printf("%10s %8s %12s %12s%n", "commits", "queries",
+                "ms/query", "visited");
+        for (long n : commits) {
+            Random random = new Random(SEED);
+            HashMap<String, MergeBase.Node> graph = new HashMap<>();
+            String[] heads = new String[LANES];
+            graph.put("c0", new MergeBase.Node(new String[0], 0));
+            for (int lane = 0; lane < LANES; lane += 1) {
+                heads[lane] = "c0";
+            }
+            for (int i = 1; i < n; i += 1) {
+                int lane = random.nextInt(LANES);
+                String id = "c" + i;
+                String[] parents;
+                if (random.nextInt(MERGE_ODDS) == 0) {
+                    int other = random.nextInt(LANES);
+                    parents = other == lane ? new String[] {heads[lane]}
+                        : new String[] {heads[lane], heads[other]};
+                } else {
+                    parents = new String[] {heads[lane]};
+                }
+                graph.put(id, new MergeBase.Node(parents, i));
+                heads[lane] = id;
+            }
+            long visited = 0;
+            long start = System.nanoTime();
+            int queries = 0;
+            for (int a = 0; a < LANES; a += 1) {
+                for (int b = a + 1; b < LANES; b += 1) {
+                    MergeBase base = new MergeBase(graph::get);
+                    base.find(heads[a], heads[b]);
+                    visited += base.loaded();
+                    queries += 1;
+                }
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / queries;
+            System.out.printf("%10d %8d %12.3f %12d%n", n, queries, ms,
+                    visited / queries);
+        }
+    }
+
+    /** Encode and decode synthetic text of each of the given numbers of
+     *  BYTES with every CODECS entry, and report the size of the encoding
+     *  relative to the input and the throughput both ways. */
+    static void codec(long[] bytes) {
+        System.out.printf("%10s %10s %8s %12s %12s%n", "bytes", "codec",
+                "ratio", "enc MB/s", "dec MB/s");
+        for (long n : bytes) {
+            byte[] input = text(new Random(SEED), (int) n);
+            for (String name : CODECS) {
+                Codec codec = Codec.forName(name);
+                try {
+                    ByteArrayOutputStream encoded =
+                        new ByteArrayOutputStream();
+                    long start = System.nanoTime();
+                    codec.encode(new ByteArrayInputStream(input), encoded);
+                    long encoding = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    try (InputStream in = codec.decode(
+                            new ByteArrayInputStream(encoded.toByteArray()))) {
+                        in.transferTo(OutputStream.nullOutputStream());
+                    }
+                    long decoding = System.nanoTime() - start;
+                    System.out.printf("%10d %10s %8.3f %12.1f %12.1f%n", n,
+                            name, (double) encoded.size() / n,
+                            n * 1e3 / encoding, n * 1e3 / decoding);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Store histories with the given numbers of REVISIONS of a 1000-line
+     *  configuration file, each revision changing three lines, once with
+     *  delta storage and once without, in a temporary directory.  Report
+     *  the bytes stored against the bytes of all revisions, and the mean
+     *  times to store a revision and to check out a random one from a
+     *  store opened afresh, as each gitlet command does. */
+    static void delta(long[] revisions) {
+        System.out.printf("%10s %6s %12s %12s %10s %12s%n", "revisions",
+                "delta", "input", "stored", "ms/write", "ms/checkout");
+        for (long n : revisions) {
+            for (int depth : new int[] {ObjectStore.MAX_DELTA_DEPTH, 0}) {
+                try {
+                    deltaHistory((int) n, depth);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Run the delta benchmark for N revisions with a maximum delta
+     *  DEPTH. */
+    private static void deltaHistory(int n, int depth) throws IOException {
+        Random random = new Random(SEED);
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File gitlet = Utils.join(dir, ".gitlet");
+        File working = Utils.join(dir, "config.txt");
+        String[] lines = new String[CONFIG_LINES];
+        for (int i = 0; i < lines.length; i += 1) {
+            lines[i] = "option." + i + " = " + random.nextInt() + "\n";
+        }
+        ObjectStore store = new ObjectStore(gitlet);
+        store.setMaxDeltaDepth(depth);
+        String[] ids = new String[n];
+        long input = 0;
+        long start = System.nanoTime();
+        for (int rev = 0; rev < n; rev += 1) {
+            for (int k = 0; k < 3; k += 1) {
+                int i = random.nextInt(lines.length);
+                lines[i] = "option." + i + " = " + random.nextInt() + "\n";
+            }
+            Utils.writeContents(working, (Object[]) lines);
+            input += working.length();
+            Blob blob = new Blob(working);
+            store.writeBlob(blob, rev == 0 ? null : ids[rev - 1]);
+            ids[rev] = blob.getId();
+        }
+        double write = (System.nanoTime() - start) / 1e6 / n;
+        long stored = 0;
+        for (File file : Utils.join(gitlet, "blobsData").listFiles()) {
+            stored += file.length();
+        }
+        start = System.nanoTime();
+        for (int k = 0; k < CHECKOUTS; k += 1) {
+            new ObjectStore(gitlet).copyBlob(ids[random.nextInt(n)],
+                    working);
+        }
+        double checkout = (System.nanoTime() - start) / 1e6 / CHECKOUTS;
+        System.out.printf("%10d %6s %12d %12d %10.3f %12.3f%n", n,
+                depth > 0, input, stored, write, checkout);
+        for (File file : Utils.join(gitlet, "blobsData").listFiles()) {
+            file.delete();
+        }
+        Utils.join(gitlet, "blobsData").delete();
+        gitlet.delete();
+        working.delete();
+        dir.delete();
+    }
+
+    /** Store VERSIONS versions of random binary datasets of each of the
+     *  given numbers of MEGABYTES in a store in a temporary directory, each
+     *  version overwriting, inserting and deleting a few short runs of
+     *  bytes.  Report the bytes stored against the bytes of all versions,
+     *  and the throughput of storing them. */
+    static void chunk(long[] megabytes) {
+        System.out.printf("%8s %8s %12s %12s %8s %10s%n", "MB", "versions",
+                "input", "stored", "dedup", "MB/s");
+        for (long mb : megabytes) {
+            try {
+                chunkHistory((int) mb);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Run the chunk benchmark on a dataset of MB megabytes. */
+    private static void chunkHistory(int mb) throws IOException {
+        Random random = new Random(SEED);
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File gitlet = Utils.join(dir, ".gitlet");
+        File working = Utils.join(dir, "data.bin");
+        byte[] data = new byte[mb << 20];
+        random.nextBytes(data);
+        ObjectStore store = new ObjectStore(gitlet);
+        long input = 0;
+        long nanos = 0;
+        for (int version = 0; version < VERSIONS; version += 1) {
+            if (version > 0) {
+                data = edit(random, data);
+            }
+            Files.write(working.toPath(), data);
+            input += data.length;
+            long start = System.nanoTime();
+            store.writeBlob(new Blob(working));
+            nanos += System.nanoTime() - start;
+        }
+        long stored = 0;
+        for (String kind : new String[] {"blobsData", "chunksData"}) {
+            for (File file : Utils.join(gitlet, kind).listFiles()) {
+                stored += file.length();
+                file.delete();
+            }
+            Utils.join(gitlet, kind).delete();
+        }
+        System.out.printf("%8d %8d %12d %12d %8.2f %10.1f%n", mb, VERSIONS,
+                input, stored, (double) input / stored,
+                input / 1048576.0 / (nanos / 1e9));
+        gitlet.delete();
+        working.delete();
+        dir.delete();
+    }
+
+    /** Return a copy of DATA with EDITS runs of bytes chosen by RANDOM
+     *  overwritten, inserted or deleted. */
+    private static byte[] edit(Random random, byte[] data) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int pos = 0;
+        int[] at = new int[EDITS];
+        for (int i = 0; i < EDITS; i += 1) {
+            at[i] = random.nextInt(data.length - EDIT_BYTES);
+        }
+        Arrays.sort(at);
+        for (int i = 0; i < EDITS; i += 1) {
+            if (at[i] < pos) {
+                continue;
+            }
+            result.write(data, pos, at[i] - pos);
+            byte[] run = new byte[random.nextInt(EDIT_BYTES) + 1];
+            random.nextBytes(run);
+            switch (i % 3) {
+            case 0:
+                result.write(run, 0, run.length);
+                pos = at[i] + run.length;
+                break;
+            case 1:
+                result.write(run, 0, run.length);
+                pos = at[i];
+                break;
+            default:
+                pos = at[i] + run.length;
+            }
+        }
+        result.write(data, pos, data.length - pos);
+        return result.toByteArray();
+    }
+
+    /** Hash and store the given numbers of FILES of synthetic text, of
+     *  FILE_BYTES each, into a fresh store and index in a temporary
+     *  directory, as add does, with 1, 4 and 16 threads, and report the
+     *  throughput of each. */
+    static void add(long[] files) {
+        System.out.printf("%8s %8s %10s %10s%n", "files", "threads", "ms",
+                "MB/s");
+        for (long n : files) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                ArrayList<String> names = new ArrayList<>();
+                Random random = new Random(SEED);
+                for (int i = 0; i < n; i += 1) {
+                    String name = "f" + i + ".txt";
+                    Files.write(Utils.join(dir, name).toPath(),
+                            text(random, FILE_BYTES));
+                    names.add(name);
+                }
+                for (int threads : new int[] {1, 4, 16}) {
+                    File gitlet = Utils.join(dir, ".gitlet" + threads);
+                    BlobWriter writer = new BlobWriter(new ObjectStore(gitlet),
+                            new Index(Utils.join(dir, "index" + threads)),
+                            threads);
+                    long start = System.nanoTime();
+                    String[] ids = writer.hash(dir, names);
+                    writer.store(dir, names, ids, new String[ids.length]);
+                    double ms = (System.nanoTime() - start) / 1e6;
+                    System.out.printf("%8d %8d %10.1f %10.1f%n", n, threads,
+                            ms, n * FILE_BYTES / 1048576.0 / (ms / 1e3));
+                }
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Store, as trees, synthetic commits of the given numbers of FILES,
+     *  FILES_PER_DIR to a directory in two levels of directories, first
+     *  whole and then with EDITED files changed, as commit does, and
+     *  report the time and the bytes written by each against the bytes of
+     *  the flat map of files every commit held before there were trees.
+     *  Also report the time to rebuild the flat map and to look up one
+     *  file from a store whose cache is cold. */
+    static void tree(long[] files) {
+        System.out.printf("%8s %6s %10s %10s %8s %10s%n", "files", "dirs",
+                "step", "ms", "trees", "KB");
+        for (long n : files) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                File trees = Utils.join(dir, "treesData");
+                ObjectStore store = new ObjectStore(dir);
+                ArrayList<String> paths = new ArrayList<>();
+                HashMap<String, String> map = files(n, paths);
+                long dirs = (n + FILES_PER_DIR - 1) / FILES_PER_DIR;
+                long start = System.nanoTime();
+                byte[] flat = Utils.serialize(map);
+                report(n, dirs, "flat", start, 0, flat.length);
+                start = System.nanoTime();
+                String root = Tree.write(store, map);
+                report(n, dirs, "first", start, count(trees), size(trees));
+                long before = count(trees);
+                long bytes = size(trees);
+                Random random = new Random(SEED);
+                HashMap<String, String> changes = new HashMap<>();
+                for (int i = 0; i < EDITED; i += 1) {
+                    String path = paths.get(random.nextInt(paths.size()));
+                    changes.put(path, Utils.sha1(path, "edited"));
+                }
+                start = System.nanoTime();
+                Tree.update(store, root, changes);
+                report(n, dirs, "edited", start, count(trees) - before,
+                        size(trees) - bytes);
+                start = System.nanoTime();
+                HashMap<String, String> rebuilt = new HashMap<>();
+                Tree.flatten(new ObjectStore(dir), root, "", rebuilt);
+                report(n, dirs, "flatten", start, 0, 0);
+                start = System.nanoTime();
+                Tree.find(new ObjectStore(dir), root, paths.get(0));
+                report(n, dirs, "find", start, 0, 0);
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Compare synthetic commits of the given numbers of FILES, laid out
+     *  as in the tree benchmark, with EDITED files changed between them,
+     *  tree by tree and as flat maps of files, and report the time of
+     *  each.  Trees are compared with a store whose cache is cold. */
+    static void diff(long[] files) {
+        System.out.printf("%8s %12s %12s %8s%n", "files", "trees ms",
+                "flat ms", "changes");
+        for (long n : files) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                ObjectStore store = new ObjectStore(dir);
+                ArrayList<String> paths = new ArrayList<>();
+                HashMap<String, String> first = files(n, paths);
+                String from = Tree.write(store, first);
+                HashMap<String, String> second = new HashMap<>(first);
+                Random random = new Random(SEED);
+                HashMap<String, String> changes = new HashMap<>();
+                for (int i = 0; i < EDITED; i += 1) {
+                    String path = paths.get(random.nextInt(paths.size()));
+                    changes.put(path, Utils.sha1(path, "edited"));
+                }
+                second.putAll(changes);
+                String to = Tree.update(store, from, changes);
+                long start = System.nanoTime();
+                Diff trees = Diff.trees(new ObjectStore(dir), from, to);
+                double treesMs = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                HashMap<String, String> old = new HashMap<>();
+                HashMap<String, String> now = new HashMap<>();
+                ObjectStore cold = new ObjectStore(dir);
+                Tree.flatten(cold, from, "", old);
+                Tree.flatten(cold, to, "", now);
+                Diff.maps(old, now);
+                double flatMs = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%8d %12.1f %12.1f %8d%n", n, treesMs,
+                        flatMs, trees.getPaths().size());
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Classify the files of three-way merges of synthetic commits of the
+     *  given numbers of FILES, laid out as in the tree benchmark, where
+     *  each side changed EDITED files, a few of them the same, and report
+     *  the time taken through trees and by looking at every file of the
+     *  three flat maps, as merge did before.  Both start from a store
+     *  whose cache is cold. */
+    static void merge(long[] files) {
+        System.out.printf("%8s %12s %12s %8s %10s%n", "files", "trees ms",
+                "flat ms", "taken", "conflicts");
+        for (long n : files) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                ObjectStore store = new ObjectStore(dir);
+                ArrayList<String> paths = new ArrayList<>();
+                String split = Tree.write(store, files(n, paths));
+                Random random = new Random(SEED);
+                String[] sides = new String[2];
+                for (int side = 0; side < 2; side += 1) {
+                    HashMap<String, String> changes = new HashMap<>();
+                    for (int i = 0; i < EDITED; i += 1) {
+                        String path = paths.get(i < 2 ? i
+                                : random.nextInt(paths.size()));
+                        changes.put(path, Utils.sha1(path, "side" + side));
+                    }
+                    sides[side] = Tree.update(store, split, changes);
+                }
+                long start = System.nanoTime();
+                ObjectStore cold = new ObjectStore(dir);
+                Merge merge = new Merge(Diff.trees(cold, split, sides[0]),
+                        Diff.trees(cold, split, sides[1]));
+                double treesMs = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                cold = new ObjectStore(dir);
+                ArrayList<HashMap<String, String>> maps = new ArrayList<>();
+                for (String root : new String[] {split, sides[0], sides[1]}) {
+                    HashMap<String, String> map = new HashMap<>();
+                    Tree.flatten(cold, root, "", map);
+                    maps.add(map);
+                }
+                int changed = 0;
+                for (String path : maps.get(0).keySet()) {
+                    String base = maps.get(0).get(path);
+                    if (!base.equals(maps.get(1).get(path))
+                            || !base.equals(maps.get(2).get(path))) {
+                        changed += 1;
+                    }
+                }
+                double flatMs = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%8d %12.1f %12.1f %8d %10d%n", n, treesMs,
+                        flatMs, merge.getTaken().size(),
+                        merge.getConflicts().size());
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Merge, in a temporary directory, three versions of a text file of
+     *  each of the given numbers of MEGABYTES, where each side edited
+     *  EDITS lines, ours in the first half and theirs in the second.
+     *  Report the time taken and the lines left between conflict markers
+     *  by a line merge, and by writing both whole versions between
+     *  conflict markers, as merge did before, along with the peak heap
+     *  used while merging lines. */
+    static void diff3(long[] megabytes) {
+        System.out.printf("%8s %10s %10s %10s %10s %10s %10s%n", "MB",
+                "lines", "lines ms", "left", "heap MB", "whole ms", "left");
+        for (long mb : megabytes) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                File[] versions = {Utils.join(dir, "base"),
+                    Utils.join(dir, "ours"), Utils.join(dir, "theirs")};
+                long lines = writeVersions(versions, mb << 20);
+                LineMerge.Source[] sources = new LineMerge.Source[3];
+                for (int i = 0; i < 3; i += 1) {
+                    File version = versions[i];
+                    sources[i] = () -> new FileInputStream(version);
+                }
+                File merged = Utils.join(dir, "merged");
+                resetPeakHeap();
+                long start = System.nanoTime();
+                LineMerge merge = new LineMerge(sources[0], sources[1],
+                        sources[2]);
+                long heap = peakHeap();
+                try (OutputStream out = new BufferedOutputStream(
+                        new FileOutputStream(merged), Blob.BUFFER_SIZE)) {
+                    merge.write(out);
+                }
+                double linesMs = (System.nanoTime() - start) / 1e6;
+                long left = merge.getConflicts() == 0 ? 0 : lines;
+                start = System.nanoTime();
+                try (OutputStream out = new BufferedOutputStream(
+                        new FileOutputStream(merged), Blob.BUFFER_SIZE)) {
+                    for (int i = 1; i < 3; i += 1) {
+                        out.write(MARKERS[i - 1]);
+                        try (InputStream in = sources[i].open()) {
+                            in.transferTo(out);
+                        }
+                    }
+                    out.write(MARKERS[2]);
+                }
+                double wholeMs = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%8d %10d %10.1f %10d %10.1f %10.1f %10d%n",
+                        mb, lines, linesMs, left, heap / 1048576.0, wholeMs,
+                        2 * lines);
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Write about BYTES bytes of synthetic text to VERSIONS[0], and the
+     *  same with EDITS lines edited in its first half to VERSIONS[1] and
+     *  EDITS lines edited in its second half to VERSIONS[2].  Return the
+     *  number of lines written to each. */
+    private static long writeVersions(File[] versions, long bytes)
+        throws IOException {
+        Random random = new Random(SEED);
+        long lines = bytes / AVERAGE_LINE;
+        long[][] edited = new long[2][EDITS];
+        for (int i = 0; i < EDITS; i += 1) {
+            edited[0][i] = (i + 1) * (lines / 2) / (EDITS + 1);
+            edited[1][i] = lines / 2 + edited[0][i];
+        }
+        OutputStream[] outs = new OutputStream[3];
+        try {
+            for (int i = 0; i < 3; i += 1) {
+                outs[i] = new BufferedOutputStream(
+                        new FileOutputStream(versions[i]), Blob.BUFFER_SIZE);
+            }
+            int[] next = new int[2];
+            for (long n = 0; n < lines; n += 1) {
+                byte[] line = text(random, AVERAGE_LINE);
+                for (int i = 0; i < line.length - 1; i += 1) {
+                    if (line[i] == '\n') {
+                        line[i] = ' ';
+                    }
+                }
+                line[line.length - 1] = '\n';
+                outs[0].write(line);
+                for (int side = 0; side < 2; side += 1) {
+                    if (next[side] < EDITS && edited[side][next[side]] == n) {
+                        next[side] += 1;
+                        outs[side + 1].write(("edited " + n + " on side "
+                                + side + "\n").getBytes(
+                                        StandardCharsets.UTF_8));
+                    } else {
+                        outs[side + 1].write(line);
+                    }
+                }
+            }
+        } finally {
+            for (OutputStream out : outs) {
+                if (out != null) {
+                    out.close();
+                }
+            }
+        }
+        return lines;
+    }
+
+    /** Encode and decode the given numbers of synthetic COMMITS, each
+     *  with a tree, a parent and a message of a few words, with Java
+     *  serialization, as commits were stored before, and with the
+     *  encoding of Commit, decoding the header only, as log does, and
+     *  the message as well.  Each is run once to warm up before it is
+     *  timed, and the mean time per commit and bytes per commit are
+     *  reported. */
+    static void commit(long[] commits) {
+        System.out.printf("%8s %12s %10s %10s %8s%n", "commits", "format",
+                "encode ns", "decode ns", "bytes");
+        for (long n : commits) {
+            Random random = new Random(SEED);
+            Commit[] all = new Commit[(int) n];
+            String parent = null;
+            for (int i = 0; i < n; i += 1) {
+                String message = new String(text(random, 30),
+                        StandardCharsets.UTF_8).replace('\n', ' ');
+                all[i] = new Commit(message, Utils.sha1("tree" + i), parent,
+                        null, new Date(i * 1000L));
+                parent = all[i].getId();
+            }
+            for (String format : new String[] {"serialized", "header",
+                "message"}) {
+                for (int round = 0; round < 2; round += 1) {
+                    long start = System.nanoTime();
+                    byte[][] stored = new byte[all.length][];
+                    long bytes = 0;
+                    for (int i = 0; i < all.length; i += 1) {
+                        stored[i] = format.equals("serialized")
+                            ? Utils.serialize(all[i]) : all[i].encode();
+                        bytes += stored[i].length;
+                    }
+                    long encoded = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    long check = 0;
+                    for (int i = 0; i < all.length; i += 1) {
+                        Commit commit = format.equals("serialized")
+                            ? Utils.deserialize(stored[i], Commit.class)
+                            : Commit.decode(all[i].getId(), stored[i]);
+                        check += commit.getTime().getTime();
+                        if (!format.equals("header")) {
+                            check += commit.getMessage().length();
+                        }
+                    }
+                    long decoded = System.nanoTime() - start;
+                    if (round == 1 && check != 0) {
+                        System.out.printf("%8d %12s %10.0f %10.0f %8d%n", n,
+                                format, (double) encoded / n,
+                                (double) decoded / n, bytes / n);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Resolve abbreviated ids of LOOKUPS commits in stores holding the
+     *  given numbers of COMMITS as loose objects, in a temporary
+     *  directory, by scanning the list of all commit ids, as findCommit
+     *  did before, and through the commit index of a store opened
+     *  afresh for each lookup, as each command does.  Report the mean
+     *  time per lookup of each. */
+    static void ids(long[] commits) {
+        System.out.printf("%8s %12s %12s%n", "commits", "scan ms",
+                "index ms");
+        for (long n : commits) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                File loose = Utils.join(dir, "committedData");
+                loose.mkdirs();
+                String[] ids = new String[(int) n];
+                for (int i = 0; i < n; i += 1) {
+                    ids[i] = Utils.sha1("commit", Integer.toString(i));
+                    Utils.join(loose, ids[i]).createNewFile();
+                }
+                new ObjectStore(dir).findCommits("", 1);
+                Random random = new Random(SEED);
+                long start = System.nanoTime();
+                int found = 0;
+                for (int i = 0; i < LOOKUPS; i += 1) {
+                    String prefix = ids[random.nextInt(ids.length)]
+                        .substring(0, ABBREVIATION);
+                    for (String id : new ObjectStore(dir).commitIds()) {
+                        if (id.startsWith(prefix)) {
+                            found += 1;
+                        }
+                    }
+                }
+                double scanMs = (System.nanoTime() - start) / 1e6 / LOOKUPS;
+                start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i += 1) {
+                    String prefix = ids[random.nextInt(ids.length)]
+                        .substring(0, ABBREVIATION);
+                    found += new ObjectStore(dir).findCommits(prefix, 2)
+                        .size();
+                }
+                double indexMs = (System.nanoTime() - start) / 1e6 / LOOKUPS;
+                if (found >= 2 * LOOKUPS) {
+                    System.out.printf("%8d %12.3f %12.3f%n", n, scanMs,
+                            indexMs);
+                }
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Store the given numbers of COMMITS with synthetic messages in a
+     *  temporary directory, and find the commits with one message by
+     *  reading every commit, as find did before and as its substring
+     *  search still does, and through the message index.  Both start
+     *  from a store opened afresh.  Report the time of each. */
+    static void find(long[] commits) {
+        System.out.printf("%8s %12s %12s %8s%n", "commits", "scan ms",
+                "index ms", "found");
+        for (long n : commits) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                ObjectStore store = new ObjectStore(dir);
+                String tree = Tree.write(store, new HashMap<>());
+                Random random = new Random(SEED);
+                String message = null;
+                for (int i = 0; i < n; i += 1) {
+                    String text = new String(text(random, 30),
+                            StandardCharsets.UTF_8).replace('\n', ' ');
+                    message = i == n / 2 ? text : message;
+                    store.writeCommit(new Commit(text, tree, null, null,
+                            new Date(i * 1000L)));
+                }
+                long start = System.nanoTime();
+                ObjectStore cold = new ObjectStore(dir);
+                int scanned = 0;
+                for (String id : cold.commitIds()) {
+                    if (cold.readCommit(id).getMessage().equals(message)) {
+                        scanned += 1;
+                    }
+                }
+                double scanMs = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                int found = new ObjectStore(dir).findMessage(message).size();
+                double indexMs = (System.nanoTime() - start) / 1e6;
+                if (found != scanned) {
+                    throw new IllegalStateException("index missed commits");
+                }
+                System.out.printf("%8d %12.1f %12.3f %8d%n", n, scanMs,
+                        indexMs, found);
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Store a linear history of each of the given numbers of COMMITS in
+     *  a temporary directory, packing every PACK_BATCH commits.  Time
+     *  printing the first SCREEN commits of log from a store opened afresh,
+     *  as log did before, looking the head up among the ids of every
+     *  commit in the graph, and through a CommitWalk.  Then time printing
+     *  the whole log both ways, with the peak heap used by each. */
+    static void log(long[] commits) {
+        System.out.printf("%8s %10s %10s %10s %10s %10s %10s%n", "commits",
+                "old 1st ms", "1st ms", "old all s", "old MB", "all s",
+                "MB");
+        for (long n : commits) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                ObjectStore store = new ObjectStore(dir);
+                String tree = Tree.write(store, new HashMap<>());
+                String head = null;
+                for (int i = 0; i < n; i += 1) {
+                    Commit commit = new Commit("commit " + i, tree, head,
+                            null, new Date(i * 1000L));
+                    store.writeCommit(commit);
+                    head = commit.getId();
+                    if ((i + 1) % PACK_BATCH == 0) {
+                        store.repack();
+                    }
+                }
+                store = null;
+                Writer out = Writer.nullWriter();
+                double[] old = new double[3];
+                double[] walk = new double[3];
+                for (int limit : new int[] {SCREEN, -1}) {
+                    int at = limit < 0 ? 1 : 0;
+                    resetPeakHeap();
+                    long start = System.nanoTime();
+                    ObjectStore cold = new ObjectStore(dir);
+                    CommitGraph graph = cold.graph();
+                    int count = 0;
+                    for (int pos = graph.index(head);
+                         pos >= 0 && count != limit;
+                         pos = graph.firstParent(pos), count += 1) {
+                        out.write(cold.readCommit(graph.id(pos)).toString());
+                    }
+                    old[at] = (System.nanoTime() - start) / 1e6;
+                    old[2] = peakHeap();
+                    cold = null;
+                    graph = null;
+                    resetPeakHeap();
+                    start = System.nanoTime();
+                    CommitWalk commitWalk = CommitWalk.firstParents(
+                            new ObjectStore(dir), head);
+                    commitWalk.setLimit(limit);
+                    while (commitWalk.hasNext()) {
+                        out.write(commitWalk.next().toString());
+                    }
+                    walk[at] = (System.nanoTime() - start) / 1e6;
+                    walk[2] = peakHeap();
+                }
+                System.out.printf("%8d %10.1f %10.1f %10.2f %10.1f %10.2f "
+                        + "%10.1f%n", n, old[0], walk[0], old[1] / 1e3,
+                        old[2] / 1048576.0, walk[1] / 1e3,
+                        walk[2] / 1048576.0);
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Store synthetic histories with the given numbers of COMMITS,
+     *  built like those of split, in a temporary directory, of which a
+     *  receiver has all but the last DELTA commits.  Find the commits the
+     *  receiver lacks to have the head of one branch by walking first
+     *  parents until a commit it has, as fetch did before, and through a
+     *  Negotiation with the heads the receiver has, from a store opened
+     *  afresh.  Report the commits each finds, the time each takes and
+     *  the commits the Negotiation visits. */
+    static void negotiate(long[] commits) {
+        System.out.printf("%8s %8s %10s %10s %10s %10s %10s%n", "commits",
+                "delta", "old found", "old ms", "found", "visited", "ms");
+        for (long n : commits) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                ObjectStore store = new ObjectStore(dir);
+                String tree = Tree.write(store, new HashMap<>());
+                Random random = new Random(SEED);
+                String[] heads = new String[LANES];
+                String[] haves = null;
+                HashSet<String> received = new HashSet<>();
+                for (int i = 0; i < n; i += 1) {
+                    int lane = random.nextInt(LANES);
+                    int other = random.nextInt(MERGE_ODDS) == 0
+                        ? random.nextInt(LANES) : lane;
+                    Commit commit = new Commit("commit " + i, tree,
+                            heads[lane], other == lane ? null : heads[other],
+                            new Date(i * 1000L));
+                    store.writeCommit(commit);
+                    heads[lane] = commit.getId();
+                    if (i < n - DELTA) {
+                        received.add(commit.getId());
+                    } else if (haves == null) {
+                        haves = heads.clone();
+                        haves[lane] = commit.getParents()[0];
+                    }
+                }
+                long start = System.nanoTime();
+                CommitGraph graph = new ObjectStore(dir).graph();
+                int oldFound = 0;
+                for (int pos = graph.index(heads[0]);
+                     pos >= 0 && !received.contains(graph.id(pos));
+                     pos = graph.firstParent(pos)) {
+                    oldFound += 1;
+                }
+                double oldMs = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                Negotiation negotiation =
+                    new Negotiation(new ObjectStore(dir));
+                negotiation.want(heads[0]);
+                for (String have : haves) {
+                    if (have != null) {
+                        negotiation.have(have);
+                    }
+                }
+                List<String> missing = negotiation.missing();
+                double ms = (System.nanoTime() - start) / 1e6;
+                int lacking = 0;
+                for (String id : missing) {
+                    if (!received.contains(id)) {
+                        lacking += 1;
+                    }
+                }
+                if (lacking != missing.size()) {
+                    throw new IllegalStateException("sent received commits");
+                }
+                System.out.printf("%8d %8d %10d %10.1f %10d %10d %10.1f%n",
+                        n, DELTA, oldFound, oldMs, missing.size(),
+                        negotiation.visited(), ms);
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Store a history of about the given numbers of OBJECTS in a
+     *  temporary directory, each commit adding BUNDLE_FILES small files in
+     *  a new directory, and push all of it to empty remotes beside it:
+     *  one object file at a time, as push did before, and as one Bundle,
+     *  raw and compressed.  Report the time of each and the size of the
+     *  bundles sent. */
+    static void bundle(long[] objects) {
+        System.out.printf("%8s %8s %10s %10s %10s %10s %10s%n", "objects",
+                "commits", "old s", "raw s", "raw MB", "deflate s",
+                "deflate MB");
+        for (long n : objects) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                ObjectStore store = new ObjectStore(Utils.join(dir, "local"));
+                File scratch = Utils.join(dir, "scratch");
+                ArrayList<String> commits = new ArrayList<>();
+                String tree = null;
+                String head = null;
+                for (int i = 0; i < n / (BUNDLE_FILES + 3); i += 1) {
+                    HashMap<String, String> changes = new HashMap<>();
+                    for (int j = 0; j < BUNDLE_FILES; j += 1) {
+                        Utils.writeContents(scratch, "file " + i + " " + j
+                                + "\n");
+                        Blob blob = new Blob(scratch);
+                        store.writeBlob(blob);
+                        changes.put("d" + i + "/f" + j, blob.getId());
+                    }
+                    tree = Tree.update(store, tree, changes);
+                    Commit commit = new Commit("commit " + i, tree, head,
+                            null, new Date(i * 1000L));
+                    store.writeCommit(commit);
+                    head = commit.getId();
+                    commits.add(head);
+                }
+                String[] codecs = {"raw", "deflate"};
+                double[] megabytes = new double[codecs.length];
+                for (int c = 0; c < codecs.length; c += 1) {
+                    Bundle bundle = new Bundle(store, (id, kind) -> false);
+                    for (String id : commits) {
+                        bundle.addCommit(id);
+                    }
+                    bundle.write(scratch, Codec.forName(codecs[c]));
+                    megabytes[c] = scratch.length() / 1048576.0;
+                }
+                long start = System.nanoTime();
+                ObjectStore old = new ObjectStore(Utils.join(dir, "old"));
+                for (String id : commits) {
+                    store.transferCommit(store.readCommit(id), old);
+                }
+                double oldS = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%8d %8d %10.2f", n, commits.size(), oldS);
+                for (int c = 0; c < codecs.length; c += 1) {
+                    store = new ObjectStore(Utils.join(dir, "local"));
+                    store.setBundleCodec(Codec.forName(codecs[c]));
+                    start = System.nanoTime();
+                    store.transferCommits(commits,
+                            new ObjectStore(Utils.join(dir, codecs[c])));
+                    System.out.printf(" %10.2f %10.1f",
+                            (System.nanoTime() - start) / 1e9, megabytes[c]);
+                }
+                System.out.println();
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Store histories of the given numbers of COMMITS in a temporary
+     *  directory, each commit rewriting SHALLOW_CHANGED of SHALLOW_FILES
+     *  files of random text, and fetch the head into empty stores: all
+     *  of history, the head alone, and the head alone without blobs, as
+     *  fetch does, then a checkout of the head fetching its blobs.
+     *  Report the time and the megabytes received by each. */
+    static void shallow(long[] commits) {
+        System.out.printf("%8s %10s %10s %10s %10s %10s %10s %10s%n",
+                "commits", "full s", "full MB", "depth s", "depth MB",
+                "blobless s", "blobless MB", "lazy s");
+        for (long n : commits) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                ObjectStore store = new ObjectStore(Utils.join(dir, "local"));
+                store.setCodec(Codec.RAW);
+                File scratch = Utils.join(dir, "scratch");
+                Random random = new Random(n);
+                String tree = null;
+                String head = null;
+                for (int i = 0; i < n; i += 1) {
+                    HashMap<String, String> changes = new HashMap<>();
+                    for (int j = 0; j < SHALLOW_CHANGED; j += 1) {
+                        Files.write(scratch.toPath(), text(random, 4096));
+                        Blob blob = new Blob(scratch);
+                        store.writeBlob(blob);
+                        changes.put("d" + (j % 8) + "/f"
+                                + random.nextInt(SHALLOW_FILES),
+                                blob.getId());
+                    }
+                    tree = Tree.update(store, tree, changes);
+                    Commit commit = new Commit("commit " + i, tree, head,
+                            null, new Date(i * 1000L));
+                    store.writeCommit(commit);
+                    head = commit.getId();
+                }
+                System.out.printf("%8d", n);
+                String[] ways = {"full", "depth", "blobless"};
+                ObjectStore blobless = null;
+                for (int way = 0; way < ways.length; way += 1) {
+                    store = new ObjectStore(Utils.join(dir, "local"));
+                    File target = Utils.join(dir, ways[way]);
+                    ObjectStore into = new ObjectStore(target);
+                    long start = System.nanoTime();
+                    Negotiation negotiation = new Negotiation(store);
+                    negotiation.setDepth(way == 0 ? 0 : 1);
+                    negotiation.want(head);
+                    List<String> missing = negotiation.missing();
+                    into.graft(negotiation.shallow());
+                    File bundle = store.bundle(missing, into::contains,
+                            way == 2);
+                    into.receive(bundle);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf(" %10.2f %10.1f", seconds,
+                            bundle.length() / 1048576.0);
+                    bundle.delete();
+                    blobless = into;
+                }
+                blobless.addPromisor(Utils.join(dir, "local").getPath());
+                long start = System.nanoTime();
+                HashMap<String, String> files = new HashMap<>();
+                addFiles(blobless, blobless.readCommit(head).getTree(), "",
+                        files);
+                blobless.prefetch(files.values());
+                for (Map.Entry<String, String> file : files.entrySet()) {
+                    blobless.copyBlob(file.getValue(), scratch);
+                }
+                System.out.printf(" %10.2f%n",
+                        (System.nanoTime() - start) / 1e9);
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Add to FILES the blob id of every file below Tree ID of STORE, by
+     *  path, each preceded by PREFIX. */
+    private static void addFiles(ObjectStore store, String id, String prefix,
+                                 Map<String, String> files) {
+        Tree tree = store.readTree(id);
+        for (Map.Entry<String, String> blob : tree.getBlobs().entrySet()) {
+            files.put(prefix + blob.getKey(), blob.getValue());
+        }
+        for (Map.Entry<String, String> sub : tree.getTrees().entrySet()) {
+            addFiles(store, sub.getValue(), prefix + sub.getKey() + "/",
+                    files);
+        }
+    }
+
+    /** Build, in a temporary directory, histories of the given numbers
+     *  of COMMITS that each change a few files of a tree, after adding
+     *  versions of them that are never committed, with every tenth commit
+     *  on a branch that is then dropped.  Report the size of the store,
+     *  the time to mark it from the head on one thread and on one per
+     *  processor, and the time, objects removed and size left by the
+     *  sweep. */
+    static void gc(long[] commits) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%8s %10s %10s %10s %10s %10s %10s %10s%n",
+                "commits", "objects", "MB", "mark 1 s", "mark " + threads
+                + " s", "sweep s", "removed", "MB left");
+        for (long n : commits) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                File gitlet = Utils.join(dir, "store");
+                ObjectStore store = new ObjectStore(gitlet);
+                store.setCodec(Codec.RAW);
+                File scratch = Utils.join(dir, "scratch");
+                Random random = new Random(n);
+                String tree = null;
+                String head = null;
+                for (int i = 0; i < n; i += 1) {
+                    HashMap<String, String> changes = new HashMap<>();
+                    for (int j = 0; j < GC_CHANGED + GC_ABANDONED; j += 1) {
+                        Files.write(scratch.toPath(), text(random, 4096));
+                        Blob blob = new Blob(scratch);
+                        store.writeBlob(blob);
+                        if (j < GC_CHANGED) {
+                            changes.put("d" + (j % 8) + "/f"
+                                    + random.nextInt(SHALLOW_FILES),
+                                    blob.getId());
+                        }
+                    }
+                    String next = Tree.update(store, tree, changes);
+                    Commit commit = new Commit("commit " + i, next, head,
+                            null, new Date(i * 1000L));
+                    store.writeCommit(commit);
+                    if (i % 10 != 9) {
+                        tree = next;
+                        head = commit.getId();
+                    }
+                }
+                int objects = store.repack();
+                System.out.printf("%8d %10d %10.1f", n, objects,
+                        store.diskBytes() / 1048576.0);
+                GarbageCollector collector = null;
+                for (int t : new int[] {1, threads}) {
+                    store = new ObjectStore(gitlet);
+                    collector = new GarbageCollector(store, 0, t);
+                    long start = System.nanoTime();
+                    collector.mark(List.of(head), List.of());
+                    System.out.printf(" %10.2f",
+                            (System.nanoTime() - start) / 1e9);
+                }
+                long start = System.nanoTime();
+                collector.sweep();
+                System.out.printf(" %10.2f %10d %10.1f%n",
+                        (System.nanoTime() - start) / 1e9,
+                        collector.removed(), collector.after() / 1048576.0);
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Save the configuration files of a repository, in a temporary
+     *  directory, each of the given numbers of SAVES times, changing the
+     *  head and one staged file each time, as commands do.  Report the
+     *  mean time per save writing every file in place, as saveAll did
+     *  before, which a crash can leave half done; syncing each file
+     *  written to a temporary file before renaming it over the old one;
+     *  and committing them through a Journal. */
+    static void journal(long[] saves) {
+        System.out.printf("%8s %12s %12s %12s%n", "saves", "in place ms",
+                "synced ms", "journal ms");
+        for (long n : saves) {
+            try {
+                File dir = Files.createTempDirectory("gitlet-bench").toFile();
+                double[] ms = new double[3];
+                for (int way = 0; way < 3; way += 1) {
+                    Journal journal = new Journal(Utils.join(dir, "journal"));
+                    HashMap<String, String> staged = new HashMap<>();
+                    for (int i = 0; i < STAGED; i += 1) {
+                        staged.put("file" + i, Utils.sha1("" + i));
+                    }
+                    long start = System.nanoTime();
+                    for (int i = 0; i < n; i += 1) {
+                        staged.put("file" + (i % STAGED), Utils.sha1("" + i));
+                        HashMap<File, byte[]> configs = new HashMap<>();
+                        configs.put(Utils.join(dir, "head"),
+                                Utils.serialize(Utils.sha1("head" + i)));
+                        configs.put(Utils.join(dir, "stageAdd"),
+                                Utils.serialize(staged));
+                        for (String name : CONFIGS) {
+                            configs.put(Utils.join(dir, name),
+                                    Utils.serialize(name));
+                        }
+                        if (way == 2) {
+                            journal.commit(configs);
+                            continue;
+                        }
+                        for (Map.Entry<File, byte[]> config
+                                 : configs.entrySet()) {
+                            if (way == 0) {
+                                Utils.writeContents(config.getKey(),
+                                        (Object) config.getValue());
+                            } else {
+                                syncedWrite(config.getKey(),
+                                        config.getValue());
+                            }
+                        }
+                    }
+                    ms[way] = (System.nanoTime() - start) / 1e6 / n;
+                }
+                System.out.printf("%8d %12.3f %12.3f %12.3f%n", n, ms[0],
+                        ms[1], ms[2]);
+                delete(dir);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Write BYTES to a temporary file, sync it and rename it over FILE. */
+    private static void syncedWrite(File file, byte[] bytes)
+        throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+            out.getChannel().force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Collect garbage and reset the peak usage of every memory pool. */
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool
+                 : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    /** Return the peak number of bytes used in the heap since the last
+     *  resetPeakHeap. */
+    private static long peakHeap() {
+        long result = 0;
+        for (MemoryPoolMXBean pool
+                 : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                result += pool.getPeakUsage().getUsed();
+            }
+        }
+        return result;
+    }
+
+    /** Return a map from N synthetic paths, FILES_PER_DIR to a directory
+     *  in two levels of directories, to made-up blob ids, adding the paths
+     *  to PATHS in order. */
+    private static HashMap<String, String> files(long n,
+                                                 ArrayList<String> paths) {
+        HashMap<String, String> result = new HashMap<>();
+        long dirs = (n + FILES_PER_DIR - 1) / FILES_PER_DIR;
+        int fanout = (int) Math.ceil(Math.sqrt(dirs));
+        for (int i = 0; i < n; i += 1) {
+            long k = i / FILES_PER_DIR;
+            String path = "d" + (k / fanout) + "/d" + (k % fanout)
+                + "/f" + (i % FILES_PER_DIR) + ".java";
+            result.put(path, Utils.sha1(path));
+            paths.add(path);
+        }
+        return result;
+    }
+
+    /** Print one line of the tree benchmark for N files in DIRS
+     *  directories: the STEP timed since START, and the number of TREES
+     *  and of BYTES written. */
+    private static void report(long n, long dirs, String step, long start,
+                               long trees, long bytes) {
+        System.out.printf("%8d %6d %10s %10.1f %8d %10.1f%n", n, dirs, step,
+                (System.nanoTime() - start) / 1e6, trees, bytes / 1024.0);
+    }
+
+    /** Return the number of files in directory DIR. */
+    private static long count(File dir) {
+        String[] names = dir.list();
+        return names == null ? 0 : names.length;
+    }
+
+    /** Return the number of bytes of the files in directory DIR. */
+    private static long size(File dir) {
+        long result = 0;
+        File[] inside = dir.listFiles();
+        if (inside != null) {
+            for (File each : inside) {
+                result += each.length();
+            }
+        }
+        return result;
+    }
+
+    /** Delete FILE and, if it is a directory, everything in it. */
+    private static void delete(File file) {
+        File[] inside = file.listFiles();
+        if (inside != null) {
+            for (File each : inside) {
+                delete(each);
+            }
+        }
+        file.delete();
+    }
+
+    /** Return N bytes of lines of words drawn by RANDOM from a small
+     *  vocabulary, resembling source code or prose. */
+    static byte[] text(Random random, int n) {
+        StringBuilder result = new StringBuilder(n + WORDS.length);
+        while (result.length() < n) {
+            int words = 1 + random.nextInt(12);
+            for (int i = 0; i < words; i += 1) {
+                result.append(WORDS[random.nextInt(WORDS.length)]);
+                result.append(' ');
+            }
+            result.append(random.nextInt(1000)).append('\n');
+        }
+        result.setLength(n);
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Number of lines of the file of the delta benchmark. */
+    private static final int CONFIG_LINES = 1000;
+
+    /** Number of checkouts timed by the delta benchmark. */
+    private static final int CHECKOUTS = 200;
+
+    /** Number of versions of the dataset of the chunk benchmark. */
+    private static final int VERSIONS = 5;
+
+    /** Number of edits between versions in the chunk benchmark. */
+    private static final int EDITS = 12;
+
+    /** Maximum number of bytes of one edit in the chunk benchmark. */
+    private static final int EDIT_BYTES = 100;
+
+    /** Number of bytes of each file of the add benchmark. */
+    private static final int FILE_BYTES = 1 << 16;
+
+    /** Number of files in each directory of the tree benchmark. */
+    private static final int FILES_PER_DIR = 20;
+
+    /** Number of files changed by the second commit of the tree
+     *  benchmark. */
+    private static final int EDITED = 10;
+
+    /** Codecs compared by the codec benchmark. */
+    private static final String[] CODECS = {
+        "raw", "deflate:1", "deflate:6", "deflate:9",
+    };
+
+    /** Vocabulary of synthetic text. */
+    private static final String[] WORDS = {
+        "the", "commit", "blob", "branch", "merge", "return", "if", "else",
+        "for", "int", "String", "public", "static", "void", "new", "file",
+        "while", "null", "this", "private", "class", "import", "gitlet",
+    };
+
+    /** Number of bytes of each line of the file of the diff3 benchmark. */
+    private static final int AVERAGE_LINE = 40;
+
+    /** Conflict markers written by merge before lines were merged. */
+    private static final byte[][] MARKERS = {
+        ("<<<<<<< HEAD" + System.lineSeparator())
+            .getBytes(StandardCharsets.UTF_8),
+        ("=======" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+        (">>>>>>>" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+    };
+
+    /** Number of abbreviated ids resolved by the ids benchmark. */
+    private static final int LOOKUPS = 50;
+
+    /** Number of commits log prints to fill a screen in the log
+     *  benchmark. */
+    private static final int SCREEN = 25;
+
+    /** Number of commits stored loose before packing them in the log
+     *  benchmark. */
+    private static final int PACK_BATCH = 100000;
+
+    /** Number of files staged in the journal benchmark. */
+    private static final int STAGED = 100;
+
+    /** Names of the configuration files that the journal benchmark saves
+     *  unchanged, besides the head and the staged files. */
+    private static final String[] CONFIGS = {
+        "currBranch", "branches", "remoteInfo", "initCommit", "stageRemove",
+    };
+
+    /** Number of files in the shallow benchmark. */
+    private static final int SHALLOW_FILES = 500;
+
+    /** Number of files each commit rewrites in the shallow benchmark. */
+    private static final int SHALLOW_CHANGED = 20;
+
+    /** Number of files changed by each commit of the gc benchmark. */
+    private static final int GC_CHANGED = 10;
+
+    /** Number of versions added but never committed for each commit of
+     *  the gc benchmark. */
+    private static final int GC_ABANDONED = 5;
+
+    /** Number of files each commit adds in the bundle benchmark. */
+    private static final int BUNDLE_FILES = 997;
+
+    /** Number of commits a receiver lacks in the negotiate benchmark. */
+    private static final int DELTA = 100;
+
+    /** Number of hex digits of an abbreviated id. */
+    private static final int ABBREVIATION = 8;
+
+    /** Seed of the random generator, so that runs are repeatable. */
+    private static final long SEED = 61;
+
+    /** Number of concurrent branches in synthetic histories. */
+    private static final int LANES = 8;
+
+    /** One commit in MERGE_ODDS of a synthetic history is a merge. */
+    private static final int MERGE_ODDS = 4;
+}
@@ -1,10 +1,19 @@
 package gitlet;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
-/** A Blob object is a wrapper of a working file.
+/** A Blob object is a wrapper of a working file.  Its id is the SHA1 of
+ *  the bytes of the file, which are streamed through a fixed-size buffer
+ *  both when hashing and when saving, so a Blob never holds the content
+ *  of its file in memory.
  *  @author Wenhao Pan
  */
 public class Blob implements Serializable {
@@ -14,31 +23,90 @@ public class Blob implements Serializable {
      */
     public Blob(File workingFile) {
         _workingFile = workingFile;
-        _content = Utils.readContentsAsString(workingFile);
-        _id = Utils.sha1(_content);
+        try (InputStream in = new FileInputStream(workingFile)) {
+            _id = hash(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
         if (!BLOBSDATA.exists()) {
             BLOBSDATA.mkdir();
         }
     }
 
-    /** Save this Blob to blobsData directory. */
+    /** A Blob of WORKINGFILE whose id ID is already known, for instance
+     *  from the Index. */
+    public Blob(File workingFile, String id) {
+        _workingFile = workingFile;
+        _id = id;
+    }
+
+    /** Save this Blob to the object store of the repository. */
     public void save() throws IOException {
-        File blob = Utils.join(BLOBSDATA, _id);
-        if (!blob.exists()) {
-            blob.createNewFile();
-        }
-        Utils.writeObject(blob, this);
+        ObjectStore.local().writeBlob(this);
     }
 
-    /** Return _content. */
-    public String getContent() {
-        return _content;
+    /** Save this Blob to the object store of the repository, possibly as
+     *  a delta against the Blob with id BASE, the previous version of the
+     *  same file, or null if there is none. */
+    public void save(String base) throws IOException {
+        ObjectStore.local().writeBlob(this, base);
     }
+
     /** Return _id. */
     public String getId() {
         return _id;
     }
 
+    /** Return the working file referenced by this Blob. */
+    public File getWorkingFile() {
+        return _workingFile;
+    }
+
+    /** Return whether this Blob is large enough to be stored as a
+     *  manifest of content-defined chunks rather than as one object, so
+     *  that versions of a large file share their unchanged chunks. */
+    public boolean isChunked() {
+        return _workingFile.length() >= CHUNKED_BYTES;
+    }
+
+    /** Return the content of a Blob stored before blobs were streamed. */
+    byte[] getLegacyContent() {
+        if (_content == null) {
+            return new byte[0];
+        }
+        return _content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Return the SHA1 id of all bytes read from IN. */
+    static String hash(InputStream in) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            md.update(buffer, 0, n);
+        }
+        return Pack.toHex(md.digest());
+    }
+
+    /** Files of at least this many bytes are stored as manifests. */
+    static final long CHUNKED_BYTES = 1 << 22;
+
+    /** Size of the buffer used to stream file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Serialization version of Blob, kept from the first version so that
+     *  blobs stored as serialized objects can still be read. */
+    private static final long serialVersionUID = 7674379191698148327L;
+
+    /** The classes read from a blob stored as a serialized object. */
+    static final ObjectInputFilter SERIALIZED =
+        ObjectInputFilter.Config.createFilter("gitlet.Blob;"
+            + "java.lang.String;java.io.File;!*");
+
     /** The working directory. */
     private static final File CWD = new File(System.getProperty("user.dir"));
 
@@ -46,10 +114,10 @@ public class Blob implements Serializable {
     private static final File BLOBSDATA = Utils.join(CWD,
             ".gitlet", "blobsData");
 
-    /** the content of _workingFile as a String. */
+    /** The content of a blob stored before blobs were streamed, or null. */
     private String _content;
 
-    /** the SHA1 id of the blob according to _content. */
+    /** the SHA1 id of the blob according to its content. */
     private String _id;
 
     /** The working file in CWD referenced by this Blob. */
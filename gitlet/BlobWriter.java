@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/** A BlobWriter hashes and stores the blobs of many working files at
+ *  once on a work-stealing pool, so that add and commit keep every core
+ *  and the disk busy.  Results are returned in the order of the files
+ *  given, so callers update the staging area in a fixed order whatever
+ *  the order in which the files were processed.
+ *  @author Wenhao Pan
+ */
+class BlobWriter {
+
+    /** A BlobWriter storing into STORE, finding blob ids through INDEX,
+     *  with THREADS threads. */
+    BlobWriter(ObjectStore store, Index index, int threads) {
+        _store = store;
+        _index = index;
+        _threads = threads;
+    }
+
+    /** A BlobWriter storing into STORE, finding blob ids through INDEX,
+     *  with as many threads as the gitlet.threads property says, or one
+     *  per processor. */
+    BlobWriter(ObjectStore store, Index index) {
+        this(store, index, Integer.getInteger(THREADS_PROPERTY,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Return the blob ids of the working files in DIR with the given
+     *  NAMES, in the same order. */
+    String[] hash(File dir, List<String> names) throws IOException {
+        String[] result = new String[names.size()];
+        forEach(_threads, result.length, i ->
+            result[i] = _index.blobId(names.get(i),
+                    Utils.join(dir, names.get(i))));
+        return result;
+    }
+
+    /** Store the blobs with the given IDS of the working files in DIR
+     *  with the given NAMES.  BASES holds, for each file, the id of its
+     *  previous version, or null.  A null id means nothing is stored for
+     *  that file. */
+    void store(File dir, List<String> names, String[] ids, String[] bases)
+        throws IOException {
+        forEach(_threads, ids.length, i -> {
+            if (ids[i] != null) {
+                Blob blob = new Blob(Utils.join(dir, names.get(i)), ids[i]);
+                try {
+                    _store.writeBlob(blob, bases[i]);
+                } catch (IOException excp) {
+                    throw new UncheckedIOException(excp);
+                }
+            }
+        });
+    }
+
+    /** Run ACTION for every integer from 0 to N - 1 on a pool of THREADS
+     *  threads, or on this thread if there is a single thread or a single
+     *  item.  An UncheckedIOException thrown by ACTION is rethrown as its
+     *  cause. */
+    static void forEach(int threads, int n, IntConsumer action)
+        throws IOException {
+        if (threads <= 1 || n <= 1) {
+            try {
+                IntStream.range(0, n).forEach(action);
+            } catch (UncheckedIOException excp) {
+                throw excp.getCause();
+            }
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, n).parallel()
+                    .forEach(action)).get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted.");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Name of the system property choosing the number of threads. */
+    static final String THREADS_PROPERTY = "gitlet.threads";
+
+    /** The store blobs are written to. */
+    private ObjectStore _store;
+
+    /** The index giving the blob ids of working files. */
+    private Index _index;
+
+    /** Number of threads of the pool. */
+    private int _threads;
+}
@@ -0,0 +1,356 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+
+/** A Bundle gathers the objects one ObjectStore sends another for some
+ *  commits into a single file: a header, the objects laid out as a pack
+ *  file, optionally compressed as a whole, and a table of the id, kind
+ *  and offset of each object.  The receiver copies the pack into its pack
+ *  directory with one FileChannel transfer, or decodes it there if it is
+ *  compressed, and indexes it from the table, so neither side writes a
+ *  file per object.  Objects the receiver already has are left out, and
+ *  so is everything below a tree it has.
+ *
+ *  The header is the magic number, the encoding of the Codec of the pack,
+ *  the number of objects and the length of the pack as stored.  A table
+ *  entry is the raw id, the kind and the offset of the object in the
+ *  decoded pack.  Commits are listed in the order they were added, so the
+ *  receiver can index them parents first.
+ *
+ *  A blob-less Bundle carries commits and trees only, for a receiver that
+ *  fetches the blobs it needs later, one batch at a time.
+ *  @author Wenhao Pan
+ */
+public class Bundle {
+
+    /** Something that tells whether the receiver has an object. */
+    public interface Lookup {
+        /** Return whether the object ID of the given KIND is stored. */
+        boolean has(String id, int kind);
+    }
+
+    /** A Bundle of objects of STORE for a receiver that has the objects
+     *  PRESENT tells of. */
+    public Bundle(ObjectStore store, Lookup present) {
+        _store = store;
+        _present = present;
+    }
+
+    /** Return a Lookup for a receiver known only to have the commits of
+     *  STORE with ids COMMITS: it has every Tree and blob they track, and
+     *  no commit or chunk is taken to be there.  Each Tree is read once,
+     *  however many of the commits share it. */
+    public static Lookup within(ObjectStore store, List<String> commits) {
+        HashSet<String> known = new HashSet<>();
+        for (String id : commits) {
+            Commit commit = store.readCommit(id);
+            if (commit.getTree() != null) {
+                addTrees(store, commit.getTree(), known);
+            } else {
+                for (String blob : commit.getBlobs().values()) {
+                    known.add(ObjectStore.BLOB + blob);
+                }
+            }
+        }
+        return (id, kind) -> known.contains(kind + id);
+    }
+
+    /** Add to KNOWN the kind and id of Tree ID of STORE and of every Tree
+     *  and blob below it, unless it is there already. */
+    private static void addTrees(ObjectStore store, String id,
+                                 HashSet<String> known) {
+        if (!known.add(ObjectStore.TREE + id)) {
+            return;
+        }
+        Tree tree = store.readTree(id);
+        for (String blob : tree.getBlobs().values()) {
+            known.add(ObjectStore.BLOB + blob);
+        }
+        for (String sub : tree.getTrees().values()) {
+            addTrees(store, sub, known);
+        }
+    }
+
+    /** Add commit ID with every object it needs that the receiver lacks.
+     *  Commits are added parents first. */
+    public void addCommit(String id) throws IOException {
+        if (!need(id, ObjectStore.COMMIT)) {
+            return;
+        }
+        Commit commit = _store.readCommit(id);
+        if (commit.getTree() != null) {
+            addTree(commit.getTree());
+        } else if (!_blobless) {
+            for (String blob : commit.getBlobs().values()) {
+                addBlob(blob);
+            }
+        }
+        add(id, ObjectStore.COMMIT);
+    }
+
+    /** Leave the blobs of the commits added out if BLOBLESS. */
+    public void setBlobless(boolean blobless) {
+        _blobless = blobless;
+    }
+
+    /** Return the number of objects added. */
+    public int size() {
+        return _entries.size();
+    }
+
+    /** Write the bundle into FILE, compressing the pack with CODEC. */
+    public void write(File file, Codec codec) throws IOException {
+        long[] lengths = new long[_entries.size()];
+        long[] offsets = new long[_entries.size()];
+        long offset = Pack.PACK_HEADER_BYTES;
+        for (int i = 0; i < offsets.length; i += 1) {
+            Pack.Entry entry = _entries.get(i);
+            lengths[i] = _store.storedLength(entry.getId(), entry.getKind());
+            offsets[i] = offset;
+            offset += Pack.ENTRY_HEADER_BYTES + lengths[i];
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel),
+                    Blob.BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeByte(codec.encoding());
+            out.writeInt(_entries.size());
+            out.writeLong(0);
+            try (InputStream pack = pack(lengths)) {
+                codec.encode(pack, out);
+            }
+            out.flush();
+            long length = channel.position() - HEADER_BYTES;
+            for (int i = 0; i < offsets.length; i += 1) {
+                out.write(Pack.toBytes(_entries.get(i).getId()));
+                out.writeByte(_entries.get(i).getKind());
+                out.writeLong(offsets[i]);
+            }
+            out.flush();
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, length),
+                    LENGTH_OFFSET);
+        }
+    }
+
+    /** Unpack the bundle FILE into a new pack in the directory DIR, and
+     *  return it, adding the ids of its commits to COMMITS in the order
+     *  they were added to the bundle. */
+    static Pack unpack(File file, File dir, List<String> commits)
+        throws IOException {
+        dir.mkdirs();
+        File packFile = File.createTempFile("pack-", ".tmp", dir);
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer header = read(in, 0, HEADER_BYTES);
+            Codec codec = Codec.forEncoding(header.get(Integer.BYTES));
+            if (header.getInt(0) != MAGIC || codec == null) {
+                throw Utils.error("Corrupted bundle.");
+            }
+            int count = header.getInt(Integer.BYTES + 1);
+            long length = header.getLong(LENGTH_OFFSET);
+            if (count < 0 || count > Integer.MAX_VALUE / TABLE_ENTRY_BYTES
+                    || length < 0 || in.size() != HEADER_BYTES
+                    + length + (long) count * TABLE_ENTRY_BYTES) {
+                throw Utils.error("Corrupted bundle.");
+            }
+            ByteBuffer table = read(in, HEADER_BYTES + length,
+                    count * TABLE_ENTRY_BYTES);
+            ArrayList<Pack.Entry> entries = new ArrayList<>();
+            long[] offsets = new long[count];
+            byte[] raw = new byte[Pack.ID_BYTES];
+            for (int i = 0; i < count; i += 1) {
+                table.get(raw);
+                entries.add(new Pack.Entry(Pack.toHex(raw), table.get(),
+                        null));
+                offsets[i] = table.getLong();
+            }
+            try (FileChannel pack = FileChannel.open(packFile.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (codec == Codec.RAW) {
+                    for (long done = 0; done < length;) {
+                        long n = in.transferTo(HEADER_BYTES + done,
+                                length - done, pack);
+                        if (n <= 0) {
+                            throw Utils.error("Corrupted bundle.");
+                        }
+                        done += n;
+                    }
+                } else {
+                    in.position(HEADER_BYTES);
+                    codec.decode(new BufferedInputStream(
+                            Channels.newInputStream(in), Blob.BUFFER_SIZE))
+                        .transferTo(Channels.newOutputStream(pack));
+                }
+                pack.force(false);
+                for (int i = 0; i < count; i += 1) {
+                    check(pack, entries.get(i), offsets[i]);
+                }
+            }
+            for (Pack.Entry entry : entries) {
+                if (entry.getKind() == ObjectStore.COMMIT) {
+                    commits.add(entry.getId());
+                }
+            }
+            return Pack.install(dir, packFile, entries, offsets);
+        } catch (IOException | GitletException excp) {
+            packFile.delete();
+            throw excp;
+        }
+    }
+
+    /** Fail unless the decoded PACK holds an object of the kind of ENTRY
+     *  at OFFSET, ending within the pack. */
+    private static void check(FileChannel pack, Pack.Entry entry,
+                              long offset) throws IOException {
+        if (offset < Pack.PACK_HEADER_BYTES
+                || offset > pack.size() - Pack.ENTRY_HEADER_BYTES) {
+            throw Utils.error("Corrupted bundle.");
+        }
+        ByteBuffer header = read(pack, offset, Pack.ENTRY_HEADER_BYTES);
+        long length = header.getLong(1);
+        if (header.get(0) != entry.getKind() || length < 0
+                || length > pack.size() - offset - Pack.ENTRY_HEADER_BYTES) {
+            throw Utils.error("Corrupted bundle.");
+        }
+    }
+
+    /** Return LENGTH bytes of IN from POSITION, failing if it ends
+     *  first. */
+    private static ByteBuffer read(FileChannel in, long position, int length)
+        throws IOException {
+        ByteBuffer result = ByteBuffer.allocate(length);
+        while (result.hasRemaining()) {
+            if (in.read(result, position + result.position()) < 0) {
+                throw Utils.error("Corrupted bundle.");
+            }
+        }
+        return result.flip();
+    }
+
+    /** Add Tree ID with the trees and blobs below it the receiver
+     *  lacks. */
+    private void addTree(String id) throws IOException {
+        if (!need(id, ObjectStore.TREE)) {
+            return;
+        }
+        Tree tree = _store.readTree(id);
+        if (!_blobless) {
+            for (String blob : tree.getBlobs().values()) {
+                addBlob(blob);
+            }
+        }
+        for (String sub : tree.getTrees().values()) {
+            addTree(sub);
+        }
+        add(id, ObjectStore.TREE);
+    }
+
+    /** Add blob ID with the bases it is a delta of or the chunks it lists
+     *  that the receiver lacks. */
+    public void addBlob(String id) throws IOException {
+        if (!need(id, ObjectStore.BLOB)) {
+            return;
+        }
+        for (Pack.Entry part : _store.parts(id)) {
+            if (part.getKind() == ObjectStore.BLOB) {
+                addBlob(part.getId());
+            } else if (need(part.getId(), part.getKind())) {
+                add(part.getId(), part.getKind());
+            }
+        }
+        add(id, ObjectStore.BLOB);
+    }
+
+    /** Return whether the object ID of the given KIND is neither added
+     *  yet nor stored by the receiver, marking it as seen. */
+    private boolean need(String id, int kind) {
+        return _seen.add(kind + id) && !_present.has(id, kind);
+    }
+
+    /** Add the object ID of the given KIND. */
+    private void add(String id, int kind) {
+        _entries.add(new Pack.Entry(id, kind, null));
+    }
+
+    /** Return a stream over the pack of the objects added, whose stored
+     *  lengths are LENGTHS, opening each object only when the one before
+     *  it is done. */
+    private InputStream pack(long[] lengths) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        Pack.writeHeader(new DataOutputStream(header));
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return _next <= 2 * _entries.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                int next = _next;
+                _next += 1;
+                if (next == 0) {
+                    return new ByteArrayInputStream(header.toByteArray());
+                }
+                int i = (next - 1) / 2;
+                Pack.Entry entry = _entries.get(i);
+                if (next % 2 == 0) {
+                    return _store.openStored(entry.getId(), entry.getKind());
+                }
+                return new ByteArrayInputStream(ByteBuffer
+                    .allocate(Pack.ENTRY_HEADER_BYTES)
+                    .put((byte) entry.getKind()).putLong(lengths[i])
+                    .array());
+            }
+
+            /** Index of the next stream: the header of the pack, then
+             *  the header and the bytes of each object in turn. */
+            private int _next;
+        });
+    }
+
+    /** Magic number at the start of a bundle. */
+    private static final int MAGIC = 0x47424e31;
+
+    /** Offset of the length of the pack in the header. */
+    private static final int LENGTH_OFFSET = Integer.BYTES + 1 + Integer.BYTES;
+
+    /** Number of bytes in the header. */
+    private static final int HEADER_BYTES = LENGTH_OFFSET + Long.BYTES;
+
+    /** Number of bytes in each entry of the table. */
+    private static final int TABLE_ENTRY_BYTES = Pack.ID_BYTES + 1 + 8;
+
+    /** The store sending objects. */
+    private ObjectStore _store;
+
+    /** Whether the receiver has an object. */
+    private Lookup _present;
+
+    /** The objects added, in order. */
+    private ArrayList<Pack.Entry> _entries = new ArrayList<>();
+
+    /** Whether the blobs of commits are left out. */
+    private boolean _blobless;
+
+    /** Kind and id of every object considered. */
+    private HashSet<String> _seen = new HashSet<>();
+}
@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** A Chunker splits a stream into content-defined chunks in the manner
+ *  of FastCDC: a gear hash, where each byte shifts the fingerprint left
+ *  and adds a random number chosen by the byte, is run over the data
+ *  and a chunk ends where enough of its high bits are zero.  Since that
+ *  depends only on the last few dozen bytes, an edit moves only the
+ *  boundaries next to it, and the chunks elsewhere in the file stay the
+ *  same from one version to the next.  Chunks are between MIN_BYTES and
+ *  MAX_BYTES long; a stricter mask below AVERAGE_BYTES and a looser one
+ *  above it keep most of them close to AVERAGE_BYTES.
+ *  @author Wenhao Pan
+ */
+class Chunker {
+
+    /** A Chunker over the bytes read from IN. */
+    Chunker(InputStream in) {
+        _in = in;
+        _buffer = new byte[2 * MAX_BYTES];
+    }
+
+    /** Return the next chunk, or null at the end of the stream. */
+    byte[] next() throws IOException {
+        if (_end - _start < MAX_BYTES && !_eof) {
+            System.arraycopy(_buffer, _start, _buffer, 0, _end - _start);
+            _end -= _start;
+            _start = 0;
+            int n = _in.readNBytes(_buffer, _end, _buffer.length - _end);
+            _end += n;
+            _eof = _end < _buffer.length;
+        }
+        if (_start == _end) {
+            return null;
+        }
+        int length = cut(_buffer, _start, Math.min(_end - _start, MAX_BYTES));
+        byte[] result = Arrays.copyOfRange(_buffer, _start, _start + length);
+        _start += length;
+        return result;
+    }
+
+    /** Return the length of the chunk starting at DATA[START], given that
+     *  N bytes are available there. */
+    static int cut(byte[] data, int start, int n) {
+        if (n <= MIN_BYTES) {
+            return n;
+        }
+        long fingerprint = 0;
+        int normal = Math.min(n, AVERAGE_BYTES);
+        int i = MIN_BYTES;
+        for (; i < normal; i += 1) {
+            fingerprint = (fingerprint << 1) + GEAR[data[start + i] & 0xff];
+            if ((fingerprint & STRICT_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            fingerprint = (fingerprint << 1) + GEAR[data[start + i] & 0xff];
+            if ((fingerprint & LOOSE_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+    /** Minimum number of bytes in a chunk other than the last. */
+    static final int MIN_BYTES = 1 << 14;
+
+    /** Number of bytes after which chunks are cut more easily. */
+    static final int AVERAGE_BYTES = 1 << 16;
+
+    /** Maximum number of bytes in a chunk. */
+    static final int MAX_BYTES = 1 << 18;
+
+    /** Mask of the fingerprint bits that must be zero to cut a chunk
+     *  shorter than AVERAGE_BYTES: two more bits than the average needs. */
+    private static final long STRICT_MASK = ((1L << 18) - 1) << 40;
+
+    /** Mask of the fingerprint bits that must be zero to cut a chunk
+     *  longer than AVERAGE_BYTES: two fewer bits than the average needs. */
+    private static final long LOOSE_MASK = ((1L << 14) - 1) << 40;
+
+    /** Random numbers added to the fingerprint for each byte value.  They
+     *  are fixed by the seed, since chunks must be cut the same way by
+     *  every version of gitlet. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** The stream being split. */
+    private InputStream _in;
+
+    /** Bytes read but not yet returned are _buffer[_start .. _end). */
+    private byte[] _buffer;
+
+    /** Start of the bytes not yet returned. */
+    private int _start;
+
+    /** End of the bytes read. */
+    private int _end;
+
+    /** Whether the stream has been read to its end. */
+    private boolean _eof;
+}
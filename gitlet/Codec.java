@@ -0,0 +1,74 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** A Codec turns the bytes of a blob into the bytes stored for it and
+ *  back.  Every stored blob records the encoding number of the Codec that
+ *  wrote it, so a store may hold blobs written by several codecs, and
+ *  blobs are always decoded as a stream.
+ *  @author Wenhao Pan
+ */
+public interface Codec {
+
+    /** Return the encoding number recorded in blobs written by this. */
+    int encoding();
+
+    /** Write the encoding of all bytes read from IN to OUT, leaving OUT
+     *  open. */
+    void encode(InputStream in, OutputStream out) throws IOException;
+
+    /** Return a stream over the bytes whose encoding is read from IN. */
+    InputStream decode(InputStream in) throws IOException;
+
+    /** Return the Codec named NAME, which is "raw", "deflate" or
+     *  "deflate:LEVEL" with LEVEL from 1 (fastest) to 9 (smallest). */
+    static Codec forName(String name) {
+        if (name.equals("raw")) {
+            return RAW;
+        } else if (name.equals("deflate")) {
+            return new DeflateCodec(DeflateCodec.DEFAULT_LEVEL);
+        } else if (name.startsWith("deflate:")) {
+            try {
+                int level = Integer.parseInt(name.substring(8));
+                if (level >= 1 && level <= 9) {
+                    return new DeflateCodec(level);
+                }
+            } catch (NumberFormatException excp) {
+                /* Fall through to the error below. */
+            }
+        }
+        throw Utils.error("No codec named %s.", name);
+    }
+
+    /** Return a Codec able to decode blobs of the given ENCODING, or
+     *  null if there is none. */
+    static Codec forEncoding(int encoding) {
+        if (encoding == RAW.encoding()) {
+            return RAW;
+        } else if (encoding == DeflateCodec.ENCODING) {
+            return new DeflateCodec(DeflateCodec.DEFAULT_LEVEL);
+        }
+        return null;
+    }
+
+    /** The Codec that stores blobs as their own bytes. */
+    Codec RAW = new Codec() {
+        @Override
+        public int encoding() {
+            return 0;
+        }
+
+        @Override
+        public void encode(InputStream in, OutputStream out)
+            throws IOException {
+            in.transferTo(out);
+        }
+
+        @Override
+        public InputStream decode(InputStream in) {
+            return in;
+        }
+    };
+}
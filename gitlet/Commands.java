@@ -1,12 +1,35 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /** Commands class is where we are actually handling all commands
  *  from Main class.
@@ -21,84 +44,142 @@ public class Commands {
         _command = command;
     }
 
-    /** According to different commands passed in Main, we
-     *  handle it differently. */
-    public void processCommand() {
+    /** Run the command, throwing any error instead of exiting.  The locks
+     *  it needs are held until it ends. */
+    public void run() throws IOException {
         try {
-            switch (_command[0]) {
-            case "init":
-                initCommand();
-                break;
-            case "add":
-                addCommand();
-                break;
-            case "commit":
-                commitCommand();
-                break;
-            case "rm":
-                rmCommand();
-                break;
-            case "log":
-                logCommand();
-                break;
-            case "global-log":
-                gLogCommand();
-                break;
-            case "find":
-                findCommand();
-                break;
-            case "status":
-                statusCommand();
-                break;
-            case "checkout":
-                checkoutCommand();
-                break;
-            case "branch":
-                branchCommand();
-                break;
-            case "rm-branch":
-                rmBranchCommand();
-                break;
-            case "reset":
-                resetCommand();
-                break;
-            case "merge":
-                mergeCommand();
-                break;
-            default:
-                remoteCommand();
+            lock();
+            dispatch();
+        } finally {
+            _locks.close();
+            if (_transport != null) {
+                _transport.close();
             }
-        } catch (GitletException | IOException exception) {
-            System.err.println(exception.getMessage());
-            System.exit(0);
+        }
+    }
+
+    /** Take the locks on the parts of the repository the command may
+     *  change.  A command that changes nothing takes none, and reads a
+     *  snapshot of the configuration files instead, so it never waits. */
+    private void lock() {
+        switch (_command[0]) {
+        case "init":
+        case "daemon":
+        case "serve":
+            break;
+        case "log":
+        case "global-log":
+        case "find":
+        case "status":
+        case "diff":
+            _readOnly = true;
+            break;
+        case "add":
+        case "rm":
+            _locks.lock(Locks.STAGE);
+            break;
+        case "branch":
+        case "rm-branch":
+        case "add-remote":
+        case "rm-remote":
+            _locks.lock(Locks.REFS);
+            break;
+        case "repack":
+            _locks.lock(Locks.OBJECTS);
+            break;
+        case "gc":
+            _locks.lock(Locks.REFS);
+            _locks.lock(Locks.STAGE);
+            _locks.lock(Locks.OBJECTS);
+            break;
+        default:
+            _locks.lock(Locks.REFS);
+            _locks.lock(Locks.STAGE);
+        }
+    }
+
+    /** Run the command without taking any lock. */
+    private void dispatch() throws IOException {
+        switch (_command[0]) {
+        case "init":
+            initCommand();
+            break;
+        case "add":
+            addCommand();
+            break;
+        case "commit":
+            commitCommand();
+            break;
+        case "rm":
+            rmCommand();
+            break;
+        case "log":
+            logCommand();
+            break;
+        case "global-log":
+            gLogCommand();
+            break;
+        case "find":
+            findCommand();
+            break;
+        case "status":
+            statusCommand();
+            break;
+        case "checkout":
+            checkoutCommand();
+            break;
+        case "branch":
+            branchCommand();
+            break;
+        case "rm-branch":
+            rmBranchCommand();
+            break;
+        case "reset":
+            resetCommand();
+            break;
+        case "merge":
+            mergeCommand();
+            break;
+        default:
+            remoteCommand();
         }
     }
 
     /** Process all remote commands. */
     public void remoteCommand() throws IOException {
-        try {
-            switch (_command[0]) {
-            case "add-remote":
-                addRemoteCommand();
-                break;
-            case "rm-remote":
-                rmRemoteCommand();
-                break;
-            case "push":
-                pushCommand();
-                break;
-            case "fetch":
-                fetchCommand();
-                break;
-            case "pull":
-                pullCommand();
-                break;
-            default:
-                throw new GitletException("No command with that name exists.");
-            }
-        } catch (GitletException | IOException exception) {
-            System.err.println(exception.getMessage());
-            System.exit(0);
+        switch (_command[0]) {
+        case "add-remote":
+            addRemoteCommand();
+            break;
+        case "rm-remote":
+            rmRemoteCommand();
+            break;
+        case "push":
+            pushCommand();
+            break;
+        case "fetch":
+            fetchCommand();
+            break;
+        case "pull":
+            pullCommand();
+            break;
+        case "repack":
+            repackCommand();
+            break;
+        case "gc":
+            gcCommand();
+            break;
+        case "daemon":
+            daemonCommand();
+            break;
+        case "serve":
+            serveCommand();
+            break;
+        case "diff":
+            diffCommand();
+            break;
+        default:
+            throw new GitletException("No command with that name exists.");
         }
     }
 
@@ -134,127 +215,169 @@ public class Commands {
      *  branch at the given remote. */
     public void pushCommand() throws IOException {
         readAll(); readAllRemote(); checkOperands(3);
-        if (!_rDir.exists()) {
-            throw new GitletException("Remote directory not found.");
-        }
-        if (!_rBranches.containsKey(_rBranch)) {
-            _rBranches.put(_rBranch, _rHead);
-        }
-        ArrayList<String> futureCommits = new ArrayList<>();
-        Commit last = _currCommit;
-        Commit curr = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _currCommit.getFirstParent()), Commit.class);
-        String message = curr.getMessage();
-        Boolean found = false;
-        while (!message.equals("initial commit")) {
-            if (curr.getId().equals(_rBranchHead.getId())) {
-                futureCommits.add(last.getId());
-                found = true;
-                break;
-            }
-            futureCommits.add(curr.getId());
-            String parent = curr.getFirstParent();
-            last = curr;
-            curr = Utils.readObject(Utils.join(COMMITTEDDATA,
-                    parent), Commit.class);
-            message = curr.getMessage();
-        }
-        if (!found) {
+        if (!Negotiation.descends(_store, _head, _rBranchHead)) {
             throw new GitletException("Please pull down remote"
                     + " changes before pushing.");
         }
-        for (String commit: futureCommits) {
-            Commit each = Utils.readObject(Utils.join(COMMITTEDDATA,
-                    commit), Commit.class);
-            HashMap<String, String> blobs = each.getBlobs();
-            for (String id: blobs.values()) {
-                File localBlob = Utils.join(BLOBSDATA, id);
-                Blob lB = Utils.readObject(localBlob, Blob.class);
-                File remoteBlob = Utils.join(_rBlobs, id);
-                if (!remoteBlob.exists()) {
-                    remoteBlob.createNewFile();
-                }
-                Utils.writeObject(remoteBlob, lB);
-            }
-            File remoteCommit = Utils.join(_rCommits, each.getId());
-            Commit lCommit = Utils.readObject(Utils.join(COMMITTEDDATA,
-                    commit), Commit.class);
-            if (!remoteCommit.exists()) {
-                remoteCommit.createNewFile();
-            }
-            Utils.writeObject(remoteCommit, lCommit);
+        Negotiation negotiation = new Negotiation(_store);
+        negotiation.want(_head);
+        negotiation.have(_transport.head());
+        for (String id : _transport.branches().values()) {
+            negotiation.have(id);
         }
-        reset(_head);
+        List<String> missing = negotiation.missing();
+        _transport.push(_store, missing, negotiation.common(), _rBranch,
+                _head);
         saveAll();
-        saveAllRemote();
-    }
-
-    /** Checks out all the files tracked by the given commit
-     *  ID for Remote command. */
-    public void reset(String id) throws IOException {
-        Commit target = findCommit(id, _rCommits);
-        checkUntracked(target, _rDir, _rBranchHead);
-        removeTracked(target, _rDir, _rBranchHead);
-        for (String fileName: target.getBlobs().keySet()) {
-            Blob b = Utils.readObject(Utils.join(_rBlobs,
-                    target.getBlobId(fileName)), Blob.class);
-            File workingFile = Utils.join(_rDir, fileName);
-            if (!workingFile.exists()) {
-                workingFile.createNewFile();
-            }
-            Utils.writeContents(workingFile, b.getContent());
-        }
-        _rHead = target.getId();
-        _rBranches.replace(_rCurrBranch, target.getId());
-        _rStageRemove.clear();
-        _rStageAdd.clear();
+    }
+
+    /** Return the commits a repository whose head is HEAD and whose
+     *  branches are BRANCHES advertises as those it has: its head and the
+     *  head of every branch, remote-tracking branches included. */
+    static List<String> advertised(String head, HHHashMap branches) {
+        ArrayList<String> result = new ArrayList<>();
+        result.add(head);
+        result.addAll(branches.getMap().values());
+        return result;
     }
 
     /** Brings down commits from the remote Gitlet repository
-     *  into the local Gitlet repository. */
+     *  into the local Gitlet repository.  With --depth N, only the N
+     *  commits nearest the remote branch head along each line of history
+     *  are fetched; with --blobless, commits and trees arrive at once and
+     *  each blob is fetched from the remote when first needed. */
     public void fetchCommand() throws IOException {
+        if (_command.length < 3) {
+            throw new GitletException("Incorrect operands.");
+        }
+        int depth = 0;
+        boolean blobless = false;
+        int k = 3;
+        while (k < _command.length) {
+            if (_command[k].equals("--blobless")) {
+                blobless = true;
+                k += 1;
+            } else if (_command[k].equals("--depth")
+                    && k + 1 < _command.length
+                    && _command[k + 1].matches("[1-9]\\d{0,8}")) {
+                depth = Integer.parseInt(_command[k + 1]);
+                k += 2;
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
+        }
         readAll();
         readAllRemote();
-        checkOperands(3);
         String newBranch = _rName + "/" + _rBranch;
         if (!_branches.containsKey(newBranch)) {
             _branches.put(newBranch, _initCommit);
         }
-        String message = _rBranchHead.getMessage();
-        Commit curr = _rBranchHead;
-        List<String> allCommits = Utils.plainFilenamesIn(COMMITTEDDATA);
-        while (!message.equals("initial commit")) {
-            if (allCommits.contains(curr.getId())) {
-                break;
-            }
-            File newC = Utils.join(COMMITTEDDATA, curr.getId());
-            newC.createNewFile();
-            Utils.writeObject(newC, curr);
-            for (String x: curr.getBlobs().keySet()) {
-                File remoteB = Utils.join(_rBlobs, curr.getBlobId(x));
-                Blob rB = Utils.readObject(remoteB, Blob.class);
-                File newB = Utils.join(BLOBSDATA, curr.getBlobId(x));
-                if (!newB.exists()) {
-                    newB.createNewFile();
-                }
-                Utils.writeObject(newB, rB);
-            }
-            curr = Utils.readObject(Utils.join(_rCommits,
-                    curr.getFirstParent()), Commit.class);
-            message = curr.getMessage();
+        if (blobless) {
+            _store.addPromisor(_remoteInfo.get(_rName).getPath());
         }
-        _branches.replace(newBranch, _rBranchHead.getId());
+        _transport.fetch(_rBranchHead, advertised(_head, _branches), _store,
+                depth, blobless);
+        _branches.replace(newBranch, _rBranchHead);
         saveAll();
-        saveAllRemote();
     }
 
     /** Fetches branch [remote name]/[remote branch name] as for the fetch
      *  command, and then merges that fetch into the current branch. */
     public void pullCommand() throws IOException {
+        checkOperands(3);
         fetchCommand();
         mergeC(_rName + "/" + _rBranch);
         saveAll();
-        saveAllRemote();
+    }
+
+    /** Serve the repository to remotes at the socket address given, as
+     *  a Server, until the process is killed. */
+    public void serveCommand() throws IOException {
+        checkOperands(2);
+        try (Server server = new Server(GITLET, _command[1])) {
+            System.out.println("Serving on " + server.address() + ".");
+            System.out.flush();
+            server.serve();
+        }
+    }
+
+    /** Serve the repository from a daemon until it is stopped.  A
+     *  request to stop reaches this only if no daemon is running. */
+    public void daemonCommand() throws IOException {
+        if (_command.length == 2 && _command[1].equals("stop")) {
+            throw new GitletException("No gitlet daemon is running.");
+        }
+        checkOperands(1);
+        new Daemon(GITLET).serve();
+    }
+
+    /** Print the paths of the files that differ between two commits, or
+     *  between a commit, the head commit if none is given, and the working
+     *  directory, each preceded by A if it was added, D if it was deleted
+     *  and M if it was modified.  Working files that are neither tracked
+     *  by the head commit nor staged for addition are not listed. */
+    public void diffCommand() throws IOException {
+        if (_command.length > 3) {
+            checkOperands(3);
+        }
+        readAll();
+        Diff changes;
+        if (_command.length == 3) {
+            changes = Diff.commits(_store, findCommit(_command[1], _store),
+                    findCommit(_command[2], _store));
+        } else {
+            Commit from = _command.length == 2
+                ? findCommit(_command[1], _store) : _currCommit;
+            changes = Diff.working(from, CWD, workingFiles(),
+                    new BlobWriter(_store, _index), _index);
+        }
+        TreeMap<String, String> lines = new TreeMap<>();
+        for (String fileName : changes.getAdded()) {
+            if (_command.length == 3 || _stageAdd.containsKey(fileName)
+                    || _currCommit.checkTrackedName(fileName)) {
+                lines.put(fileName, "A");
+            }
+        }
+        for (String fileName : changes.getRemoved()) {
+            lines.put(fileName, "D");
+        }
+        for (String fileName : changes.getModified()) {
+            lines.put(fileName, "M");
+        }
+        for (Map.Entry<String, String> line : lines.entrySet()) {
+            System.out.println(line.getValue() + " " + line.getKey());
+        }
+        _index.save(CWD);
+    }
+
+    /** Move all loose objects into a pack. */
+    public void repackCommand() throws IOException {
+        checkOperands(1);
+        int moved = _store.repack();
+        System.out.println(String.format("Packed %d objects.", moved));
+    }
+
+    /** Delete the objects that no branch, remote-tracking branch or file
+     *  staged for addition can reach, reporting what was marked and
+     *  removed. */
+    public void gcCommand() throws IOException {
+        checkOperands(1);
+        readAll();
+        ArrayList<String> roots = new ArrayList<>(_branches.getMap().values());
+        roots.add(_head);
+        roots.add(_initCommit);
+        GarbageCollector collector = new GarbageCollector(_store);
+        long start = System.nanoTime();
+        collector.mark(roots, _stageAdd.getMap().values());
+        start = phase("mark", start);
+        System.out.println(String.format("Marked %d commits, %d trees, "
+                + "%d blobs and %d chunks.", collector.commits(),
+                collector.trees(), collector.blobs(), collector.chunks()));
+        collector.sweep();
+        phase("sweep", start);
+        System.out.println(String.format("Removed %d objects; the store "
+                + "went from %d to %d bytes.", collector.removed(),
+                collector.before(), collector.after()));
     }
 
     /** Remove the file either in stage for addition or the current commit. */
@@ -267,14 +390,11 @@ public class Commands {
 
     /** Remove FILENAME in the current branch or commit. */
     public void removeFile(String fileName) {
-        File workingFile = Utils.join(CWD, fileName);
         if (_stageAdd.containsKey(fileName)) {
             _stageAdd.remove(fileName);
         } else if (_currCommit.checkTrackedName(fileName)) {
             _stageRemove.add(fileName);
-            if (workingFile.exists()) {
-                workingFile.delete();
-            }
+            deleteFile(CWD, fileName);
         } else {
             throw new GitletException("No reason to remove the file.");
         }
@@ -298,29 +418,87 @@ public class Commands {
     /** Starting at the current head commit, display information about
      *  each commit backwards along the commit tree until the initial commit,
      *  following the first parent commit links, ignoring any second parents
-     *  found in merge commits. */
-    public void logCommand() {
-        checkOperands(1);
+     *  found in merge commits.  The options of printLog apply. */
+    public void logCommand() throws IOException {
         readAll();
-        String message = _currCommit.getMessage();
-        while (!message.equals("initial commit")) {
-            System.out.println(_currCommit);
-            _currCommit = Utils.readObject(Utils.join(COMMITTEDDATA,
-                    _currCommit.getFirstParent()), Commit.class);
-            message = _currCommit.getMessage();
+        printLog(CommitWalk.firstParents(_store, _head));
+    }
+
+    /** Like log, except displays information about all commits ever made,
+     *  newest first by the order they were stored in.  The options of
+     *  printLog apply. */
+    public void gLogCommand() throws IOException {
+        readAll();
+        printLog(CommitWalk.all(_store));
+    }
+
+    /** Print the commits of WALK, limited by the options after the command
+     *  name: -n LIMIT prints at most LIMIT commits, --since DATE and
+     *  --until DATE skip the commits made before or after DATE, and -- is
+     *  followed by paths one of which a commit printed must change.  The
+     *  commits are printed through a buffer as WALK produces them. */
+    private void printLog(CommitWalk walk) throws IOException {
+        for (int i = 1; i < _command.length; i += 2) {
+            if (_command[i].equals("--") && i + 1 < _command.length) {
+                ArrayList<String> paths = new ArrayList<>();
+                for (String path : Arrays.asList(_command).subList(i + 1,
+                        _command.length)) {
+                    paths.add(path.replaceAll("/+$", ""));
+                }
+                walk.setPaths(paths);
+                break;
+            } else if (i + 1 == _command.length) {
+                throw new GitletException("Incorrect operands.");
+            }
+            switch (_command[i]) {
+            case "-n":
+                walk.setLimit(count(_command[i + 1]));
+                break;
+            case "--since":
+                walk.setSince(date(_command[i + 1]));
+                break;
+            case "--until":
+                walk.setUntil(date(_command[i + 1]));
+                break;
+            default:
+                throw new GitletException("Incorrect operands.");
+            }
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out),
+                LOG_BUFFER);
+        while (walk.hasNext()) {
+            out.write(walk.next().toString());
+            out.write(N);
         }
-        System.out.println(_currCommit);
+        out.flush();
     }
 
-    /** Like log, except displays information about all commits ever made.
-     *  The order of the commits does not matter. */
-    public void gLogCommand() {
-        checkOperands(1);
-        List<String> allCommits = Utils.plainFilenamesIn(COMMITTEDDATA);
-        for (String file: allCommits) {
-            Commit eachCommit = Utils.readObject(
-                    Utils.join(COMMITTEDDATA, file), Commit.class);
-            System.out.println(eachCommit);
+    /** Return the number of commits TEXT gives to -n. */
+    private static int count(String text) {
+        int result;
+        try {
+            result = Integer.parseInt(text);
+        } catch (NumberFormatException excp) {
+            result = -1;
+        }
+        if (result < 0) {
+            throw new GitletException("Incorrect operands.");
+        }
+        return result;
+    }
+
+    /** Return the time in milliseconds of TEXT, a local date such as
+     *  2021-03-14, meaning its start, or date and time such as
+     *  2021-03-14T15:09:26. */
+    private static long date(String text) {
+        try {
+            LocalDateTime time = text.contains("T")
+                ? LocalDateTime.parse(text) : LocalDate.parse(text)
+                .atStartOfDay();
+            return time.atZone(ZoneId.systemDefault()).toInstant()
+                .toEpochMilli();
+        } catch (DateTimeParseException excp) {
+            throw new GitletException("Invalid date.");
         }
     }
 
@@ -334,198 +512,150 @@ public class Commands {
 
     /**  Merges files from the GIVENBRANCH into the current branch. */
     public void mergeC(String givenBranch) throws IOException {
+        long start = System.nanoTime();
         checkExceptMerge(givenBranch);
         Commit splitPoint = findSplit(givenBranch);
-        Commit cBranchHead = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(_currBranch)), Commit.class);
-        Commit gBranchHead = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(givenBranch)), Commit.class);
+        Commit cBranchHead = _store.readCommit(_branches.get(_currBranch));
+        Commit gBranchHead = _store.readCommit(_branches.get(givenBranch));
+        start = phase("split", start);
         if (splitPoint.getId().equals(gBranchHead.getId())) {
             System.out.println("Given branch is an "
                     + "ancestor of the current branch.");
         } else if (splitPoint.getId().equals(cBranchHead.getId())) {
             checkOut3(givenBranch);
+            phase("checkout", start);
             System.out.println("Current branch fast-forwarded.");
         } else {
-            merge(givenBranch);
+            merge(givenBranch, splitPoint, cBranchHead, gBranchHead, start);
         }
     }
 
     /** A helper function for the third case of merge command,
-     *  when the split point is neither the GIVENBRANCH head
-     *  nor current branch head. */
-    public void merge(String givenBranch) throws IOException {
-        Commit split = findSplit(givenBranch);
-        Commit cBranchHead = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(_currBranch)), Commit.class);
-        Commit gBranchHead = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(givenBranch)), Commit.class);
-        List<String> allFiles = Utils.plainFilenamesIn(CWD);
-        for (String fileName: allFiles) {
-            File workingFile = Utils.join(CWD, fileName);
-            String content = Utils.readContentsAsString(workingFile);
-            if (split.checkTrackedName(fileName)
-                    && !gBranchHead.checkTrackedName(fileName)) {
-                Blob splitFile = Utils.readObject(Utils.join(BLOBSDATA,
-                        split.getBlobId(fileName)), Blob.class);
-                if (content.equals(splitFile.getContent())) {
-                    removeFile(fileName);
-                }
+     *  when the split point SPLIT is neither the GIVENBRANCH head GIVEN
+     *  nor the current branch head CURRENT.  Every file changed since
+     *  SPLIT is classified in one pass by blob id, and only the blobs of
+     *  conflicting files are read.  START is when the merge started. */
+    public void merge(String givenBranch, Commit split, Commit current,
+                      Commit given, long start) throws IOException {
+        Merge merge = new Merge(_store, split, current, given);
+        ArrayList<String> blobs = new ArrayList<>(
+                merge.getTaken().values());
+        for (Map.Entry<String, String[]> file
+                 : merge.getConflicts().entrySet()) {
+            if (split.checkTrackedName(file.getKey())) {
+                blobs.add(split.getBlobId(file.getKey()));
             }
-            if (split.checkTrackedName(fileName)
-                    && gBranchHead.checkTrackedName(fileName)
-                    && cBranchHead.checkTrackedName(fileName)) {
-                Blob vSplit = Utils.readObject(Utils.join(BLOBSDATA,
-                        split.getBlobId(fileName)), Blob.class);
-                Blob vGiven = Utils.readObject(Utils.join(BLOBSDATA,
-                        gBranchHead.getBlobId(fileName)), Blob.class);
-                Blob vCurr = Utils.readObject(Utils.join(BLOBSDATA,
-                        cBranchHead.getBlobId(fileName)), Blob.class);
-                if (vCurr.getContent().equals(vSplit.getContent())
-                        && !vGiven.getContent().equals(vSplit.getContent())) {
-                    checkOut2(gBranchHead.getId(), fileName);
-                    add(fileName);
-                }
+            blobs.addAll(Arrays.asList(file.getValue()));
+        }
+        _store.prefetch(blobs);
+        start = phase("classify", start);
+        for (Map.Entry<String, String> file
+                 : merge.getTaken().entrySet()) {
+            String fileName = file.getKey();
+            File workingFile = Utils.join(CWD, fileName);
+            if (file.getValue() != null) {
+                checkOutBlob(file.getValue(), fileName);
+                stage(fileName, file.getValue());
+            } else if (!workingFile.exists() || _index.blobId(fileName,
+                    workingFile).equals(split.getBlobId(fileName))) {
+                removeFile(fileName);
             }
         }
-        for (String blob: gBranchHead.getBlobs().keySet()) {
-            File workingFile = Utils.join(CWD, blob);
-            if (!split.checkTrackedName(blob) && !workingFile.exists()
-                    && !cBranchHead.checkTrackedName(blob)) {
-                checkOut2(gBranchHead.getId(), blob);
-                add(blob);
+        start = phase("apply", start);
+        boolean conflicted = false;
+        for (Map.Entry<String, String[]> file
+                 : merge.getConflicts().entrySet()) {
+            String fileName = file.getKey();
+            String base = split.checkTrackedName(fileName)
+                ? split.getBlobId(fileName) : null;
+            if (!mergeLines(fileName, base, file.getValue()[0],
+                    file.getValue()[1])) {
+                conflicted = true;
             }
         }
-        Boolean conflict = conflict1(givenBranch)
-                || conflict2(givenBranch) || conflict3(givenBranch);
+        start = phase("conflicts", start);
         _command = new String[]{"commit", String.format("Merged %s into %s.",
                 givenBranch, _currBranch)};
         _secondParent = _branches.get(givenBranch);
         commit();
-        if (conflict) {
+        phase("commit", start);
+        if (conflicted) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
-    /** conflict case 1: the contents in the current and GIVENBRANCH
-     *  are changed and different from other.
-     *  Return whether meet a conflict. */
-    public boolean conflict1(String givenBranch) throws IOException {
-        boolean conflict = false;
-        Commit split = findSplit(givenBranch);
-        Commit cBranchHead = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(_currBranch)), Commit.class);
-        Commit gBranchHead = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(givenBranch)), Commit.class);
-        for (String fileName: split.getBlobs().keySet()) {
-            if (cBranchHead.checkTrackedName(fileName)
-                    && gBranchHead.checkTrackedName(fileName)) {
-                Blob inCurrent = Utils.readObject(Utils.join(BLOBSDATA,
-                        cBranchHead.getBlobId(fileName)), Blob.class);
-                Blob inGiven = Utils.readObject(Utils.join(BLOBSDATA,
-                        gBranchHead.getBlobId(fileName)), Blob.class);
-                Blob inSplit = Utils.readObject(Utils.join(BLOBSDATA,
-                        split.getBlobId(fileName)), Blob.class);
-                String contInC = inCurrent.getContent();
-                String contInG = inGiven.getContent();
-                String contInS = inSplit.getContent();
-                if (!contInC.equals(contInS) && !contInG.equals(contInS)
-                        && !contInC.equals(contInG)) {
-                    conflict = true;
-                    File workingFile = Utils.join(CWD, fileName);
-                    String result = "<<<<<<< HEAD" + N + contInC + "======="
-                            + N + contInG + ">>>>>>>" + N;
-                    Utils.writeContents(workingFile, result);
-                    add(fileName);
-                }
-            }
+    /** Report, if the gitlet.timing property is set, the time the phase
+     *  NAME of a command took since START, and return the current time. */
+    private static long phase(String name, long start) {
+        long now = System.nanoTime();
+        if (Boolean.getBoolean(TIMING_PROPERTY)) {
+            System.err.printf("%s: %.1f ms%n", name, (now - start) / 1e6);
         }
-        return conflict;
+        return now;
     }
 
-    /** conflict case 2: the contents of one are changed
-     *  and the other file is deleted. According to GIVENBRANCH.
-     *  Return whether meet a conflict. */
-    public boolean conflict2(String givenBranch) throws IOException {
-        boolean conflict = false;
-        Commit split = findSplit(givenBranch);
-        Commit cBranchHead = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(_currBranch)), Commit.class);
-        Commit gBranchHead = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(givenBranch)), Commit.class);
-        for (String fileName: split.getBlobs().keySet()) {
-            File workingFile = Utils.join(CWD, fileName);
-            String contInC = "";
-            String contInG = "";
-            if (cBranchHead.checkTrackedName(fileName)
-                    && !gBranchHead.checkTrackedName(fileName)) {
-                Blob inCurrent = Utils.readObject(Utils.join(BLOBSDATA,
-                        cBranchHead.getBlobId(fileName)), Blob.class);
-                Blob inSplit = Utils.readObject(Utils.join(BLOBSDATA,
-                        split.getBlobId(fileName)), Blob.class);
-                if (!inCurrent.getContent().equals(inSplit.getContent())) {
-                    conflict = true;
-                    contInC = Utils.readObject(Utils.join(BLOBSDATA,
-                            cBranchHead.getBlobId(fileName)),
-                            Blob.class).getContent();
-                    String result = "<<<<<<< HEAD" + N + contInC + "======="
-                            + N + contInG + ">>>>>>>" + N;
-                    Utils.writeContents(workingFile, result);
-                    add(fileName);
-                }
-            }
-            if (gBranchHead.checkTrackedName(fileName)
-                    && !cBranchHead.checkTrackedName(fileName)) {
-                Blob inGiven = Utils.readObject(Utils.join(BLOBSDATA,
-                        gBranchHead.getBlobId(fileName)), Blob.class);
-                Blob inSplit = Utils.readObject(Utils.join(BLOBSDATA,
-                        split.getBlobId(fileName)), Blob.class);
-                if (!inGiven.getContent().equals(inSplit.getContent())) {
-                    conflict = true;
-                    workingFile.createNewFile();
-                    contInG = Utils.readObject(Utils.join(BLOBSDATA,
-                            gBranchHead.getBlobId(fileName)),
-                            Blob.class).getContent();
-                    String result = "<<<<<<< HEAD" + N + contInC + "======="
-                            + N + contInG + ">>>>>>>" + N;
-                    Utils.writeContents(workingFile, result);
-                    add(fileName);
-                }
-            }
+    /** Merge the blobs CURRENT and GIVEN, either of which is null for a
+     *  deleted file, both made from the blob SPLIT, or from an empty file
+     *  if SPLIT is null, line by line into the working file FILENAME, and
+     *  stage it.  Return whether no conflict is left.  Only the lines
+     *  changed differently on both sides are left between conflict
+     *  markers; a deleted or binary file conflicts as a whole. */
+    public boolean mergeLines(String fileName, String split,
+                              String current, String given)
+        throws IOException {
+        if (current == null || given == null) {
+            writeConflict(fileName, current, given);
+            return false;
+        }
+        LineMerge lines = new LineMerge(source(split), source(current),
+                source(given));
+        if (lines.isBinary()) {
+            writeConflict(fileName, current, given);
+            return false;
         }
-        return conflict;
+        File workingFile = Utils.join(CWD, fileName);
+        workingFile.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(workingFile), Blob.BUFFER_SIZE)) {
+            lines.write(out);
+        }
+        add(fileName);
+        return lines.getConflicts() == 0;
     }
 
-    /** conflict case 3: the file was absent at the split point
-     *  and has different contents in the GIVENBRANCH and current branches.
-     *  Return whether meet a conflict.*/
-    public boolean conflict3(String givenBranch) throws IOException {
-        boolean conflict = false;
-        Commit split = findSplit(givenBranch);
-        Commit cBranchHead = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(_currBranch)), Commit.class);
-        Commit gBranchHead = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(givenBranch)), Commit.class);
-        for (String fileName: cBranchHead.getBlobs().keySet()) {
-            File workingFile = Utils.join(CWD, fileName);
-            if (gBranchHead.checkTrackedName(fileName)
-                    && !split.checkTrackedName(fileName)) {
-                Blob inCurrent = Utils.readObject(Utils.join(BLOBSDATA,
-                        cBranchHead.getBlobId(fileName)), Blob.class);
-                Blob inGiven = Utils.readObject(Utils.join(BLOBSDATA,
-                        gBranchHead.getBlobId(fileName)), Blob.class);
-                String contInC = inCurrent.getContent();
-                String contInG = inGiven.getContent();
-                if (!contInC.equals(contInG)) {
-                    conflict = true;
-                    String result = "<<<<<<< HEAD" + N + contInC + "======="
-                            + N + contInG + ">>>>>>>" + N;
-                    Utils.writeContents(workingFile, result);
-                    add(fileName);
+    /** Return a source of the content of the blob ID in the store, or of
+     *  an empty file if ID is null. */
+    private LineMerge.Source source(String id) {
+        if (id == null) {
+            return InputStream::nullInputStream;
+        }
+        return () -> _store.openBlob(id);
+    }
+
+    /** Write the contents of the blobs CURRENT and GIVEN, either of which
+     *  is null for a deleted file, between conflict markers into the
+     *  working file FILENAME, and stage it.  Both blobs are streamed. */
+    public void writeConflict(String fileName, String current, String given)
+        throws IOException {
+        File workingFile = Utils.join(CWD, fileName);
+        workingFile.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(workingFile), Blob.BUFFER_SIZE)) {
+            out.write(("<<<<<<< HEAD" + N).getBytes(StandardCharsets.UTF_8));
+            if (current != null) {
+                try (InputStream in = _store.openBlob(current)) {
+                    in.transferTo(out);
                 }
             }
+            out.write(("=======" + N).getBytes(StandardCharsets.UTF_8));
+            if (given != null) {
+                try (InputStream in = _store.openBlob(given)) {
+                    in.transferTo(out);
+                }
+            }
+            out.write((">>>>>>>" + N).getBytes(StandardCharsets.UTF_8));
         }
-        return conflict;
+        add(fileName);
     }
 
     /** Check all the failure cases for merge command according to
@@ -544,57 +674,18 @@ public class Commands {
         } else if (_currBranch.equals(givenBranch)) {
             throw new GitletException("Cannot merge a branch with itself.");
         }
-        Commit gCommit = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(givenBranch)), Commit.class);
-        checkUntracked(gCommit, CWD, _currCommit);
+        Commit gCommit = _store.readCommit(_branches.get(givenBranch));
+        checkUntracked(Diff.commits(_store, _currCommit, gCommit), CWD);
     }
 
     /** Return the id of point or latest common ancestor with GIVENBRANCH. */
     public Commit findSplit(String givenBranch) {
-        HashMap<String, Integer> currAncestors =
-                allAncestors(_branches.get(_currBranch), 0);
-        HashMap<String, Integer> givenAncestors =
-                allAncestors(_branches.get(givenBranch), 0);
-        Set<String> commonAncestors = currAncestors.keySet();
-        commonAncestors.retainAll(givenAncestors.keySet());
-        String split = "";
-        int distance = Integer.MAX_VALUE;
-        for (Object ancestor: commonAncestors) {
-            if (currAncestors.get(ancestor) <= distance) {
-                distance = currAncestors.get(ancestor);
-                split = (String) ancestor;
-            }
-        }
-        Commit splitPoint = Utils.readObject(Utils.join(COMMITTEDDATA, split),
-                Commit.class);
-        return splitPoint;
-    }
-
-    /** Return all ancestors of BRANCH commit id as a HashMap<String, Integer>
-     *  which has commit id as key and shortest distance to BRANCH as value.
-     *  K is the count carrier to record the accumulative distance.
-     */
-    public HashMap<String, Integer> allAncestors(String branch, int k) {
-        HashMap<String, Integer> result = new HashMap<>();
-        if (branch == null) {
-            return result;
-        }
-        Commit curr = Utils.readObject(Utils.join(COMMITTEDDATA, branch),
-                Commit.class);
-        if (curr.getMessage().equals("initial commit")) {
-            result.put(branch, k);
-            return result;
-        } else {
-            HashMap<String, Integer> fAncestors =
-                    allAncestors(curr.getFirstParent(), k + 1);
-            HashMap<String, Integer> sAncestors =
-                    allAncestors(curr.getSecondParent(), k + 1);
-            fAncestors.forEach(
-                (key, value) -> sAncestors.merge(key, value,
-                    (v1, v2) -> v1 >= v2 ? v2 : v1));
-            sAncestors.put(branch, k);
-            return sAncestors;
+        if (_mergeBase == null) {
+            _mergeBase = new MergeBase(_store.graph()::node);
         }
+        String split = _mergeBase.find(_branches.get(_currBranch),
+                _branches.get(givenBranch));
+        return _store.readCommit(split);
     }
 
     /** Checks out all the files tracked by the given commit. */
@@ -602,18 +693,8 @@ public class Commands {
         readAll();
         checkOperands(2);
         String id = _command[1];
-        Commit target = findCommit(id, COMMITTEDDATA);
-        checkUntracked(target, CWD, _currCommit);
-        removeTracked(target, CWD, _currCommit);
-        for (String fileName: target.getBlobs().keySet()) {
-            Blob b = Utils.readObject(Utils.join(BLOBSDATA,
-                    target.getBlobId(fileName)), Blob.class);
-            File workingFile = Utils.join(CWD, fileName);
-            if (!workingFile.exists()) {
-                workingFile.createNewFile();
-            }
-            Utils.writeContents(workingFile, b.getContent());
-        }
+        Commit target = findCommit(id, _store);
+        checkOutCommit(target);
         _head = target.getId();
         _branches.replace(_currBranch, target.getId());
         _stageRemove.clear();
@@ -627,7 +708,7 @@ public class Commands {
      *  with a *. Also displays what files have been staged for addition or
      *  removal.
      *  "Modified but not staged" and "Untracked Files". */
-    public void statusCommand() {
+    public void statusCommand() throws IOException {
         checkOperands(1); readAll();
         System.out.println("=== Branches ===");
         String[] branches = _branches.keySet().toArray(new String[]{});
@@ -656,37 +737,29 @@ public class Commands {
     }
 
     /** Extra credits part of the status command. */
-    public void extraStatus() {
-        List<String> allFiles = Utils.plainFilenamesIn(CWD);
+    public void extraStatus() throws IOException {
+        Diff working = Diff.working(_currCommit, CWD, workingFiles(),
+                new BlobWriter(_store, _index), _index);
         System.out.println("\n" + "=== Modifications "
                 + "Not Staged For Commit ===");
         ArrayList<String> modifiedFiles = new ArrayList<>();
-        for (String fileName: allFiles) {
-            String cont = Utils.readContentsAsString(Utils.join(CWD, fileName));
-            if (_currCommit.checkTrackedName(fileName)) {
-                File blobInCommit = Utils.join(BLOBSDATA,
-                        _currCommit.getBlobId(fileName));
-                if (!Utils.readObject(blobInCommit,
-                        Blob.class).getContent().equals(cont)
-                        && !_stageAdd.containsKey(fileName)) {
-                    modifiedFiles.add(fileName + " (modified)");
-                }
-            } else if (_stageAdd.containsKey(fileName)) {
-                Blob blobInAdd = Utils.readObject(Utils.join(BLOBSDATA,
-                        _stageAdd.get(fileName)), Blob.class);
-                if (!blobInAdd.getContent().equals(cont)) {
-                    modifiedFiles.add(fileName + " (modified)");
-                }
+        for (String fileName: working.getModified()) {
+            if (!_stageAdd.containsKey(fileName)) {
+                modifiedFiles.add(fileName + " (modified)");
             }
         }
         for (String fileName: _stageAdd.keySet()) {
-            if (!Utils.join(CWD, fileName).exists()) {
+            File workingFile = Utils.join(CWD, fileName);
+            if (!workingFile.exists()) {
                 modifiedFiles.add(fileName + " (deleted)");
+            } else if (!_currCommit.checkTrackedName(fileName)
+                    && !_stageAdd.get(fileName)
+                    .equals(working.newId(fileName))) {
+                modifiedFiles.add(fileName + " (modified)");
             }
         }
-        for (String fileName: _currCommit.getBlobs().keySet()) {
-            if (!_stageRemove.contains(fileName)
-                    && !Utils.join(CWD, fileName).exists()) {
+        for (String fileName: working.getRemoved()) {
+            if (!_stageRemove.contains(fileName)) {
                 modifiedFiles.add(fileName + " (deleted)");
             }
         }
@@ -696,30 +769,47 @@ public class Commands {
             System.out.println(elem);
         }
         System.out.println("\n" + "=== Untracked Files ===");
-        for (String fileName: allFiles) {
-            if (!_stageAdd.containsKey(fileName)
-                    && !_currCommit.checkTrackedName(fileName)) {
+        for (String fileName: working.getAdded()) {
+            if (!_stageAdd.containsKey(fileName)) {
                 System.out.println(fileName);
             }
         }
     }
 
-    /** Prints out the ids of all commits that have the given commit message,
-     *  one per line. If there are multiple such commits, it prints the ids
-     *  out on separate lines. */
+    /** Prints out the ids of all commits that have the given commit
+     *  message, one per line, found through the message index.  With
+     *  --contains TEXT or --regex PATTERN, prints those whose message
+     *  contains TEXT or a match of PATTERN instead, reading every commit
+     *  in turn and printing each as it is found. */
     public void findCommand() {
-        checkOperands(2);
+        if (_command.length != 3 || !_command[1].equals("--contains")
+                && !_command[1].equals("--regex")) {
+            checkOperands(2);
+        }
         readAll();
         Boolean flag = false;
-        String message = _command[1];
-        List<String> allCommits = Utils.plainFilenamesIn(COMMITTEDDATA);
-        for (String file: allCommits) {
-            Commit eachCommit = Utils.readObject(
-                    Utils.join(COMMITTEDDATA, file), Commit.class);
-            if (eachCommit.getMessage().equals(message)) {
-                System.out.println(eachCommit.getId());
+        if (_command.length == 2) {
+            for (String id : _store.findMessage(_command[1])) {
+                System.out.println(id);
                 flag = true;
             }
+        } else {
+            Predicate<String> matches;
+            if (_command[1].equals("--regex")) {
+                try {
+                    matches = Pattern.compile(_command[2]).asPredicate();
+                } catch (PatternSyntaxException excp) {
+                    throw new GitletException("Invalid regular expression.");
+                }
+            } else {
+                matches = message -> message.contains(_command[2]);
+            }
+            for (String id : _store.commitIds()) {
+                if (matches.test(_store.readCommit(id).getMessage())) {
+                    System.out.println(id);
+                    flag = true;
+                }
+            }
         }
         if (!flag) {
             throw new GitletException("Found no commit with that message.");
@@ -752,30 +842,26 @@ public class Commands {
             throw new GitletException("File does not exist in that commit.");
         }
         String blobName = _currCommit.getBlobId(fileName);
-        Blob fileInCommit = Utils.readObject(
-                Utils.join(BLOBSDATA, blobName), Blob.class);
-        File workingFile = Utils.join(CWD, fileName);
-        if (!workingFile.exists()) {
-            workingFile.createNewFile();
-        }
-        Utils.writeContents(workingFile, fileInCommit.getContent());
+        checkOutBlob(blobName, fileName);
     }
 
     /** Takes the version of the FILENAME as it exists in the commit with
      *  the given ID, and puts it in the working directory. */
     public void checkOut2(String id, String fileName) throws IOException {
-        Commit target = findCommit(id, COMMITTEDDATA);
+        Commit target = findCommit(id, _store);
         if (!target.checkTrackedName(fileName)) {
             throw new GitletException("File does not exist in that commit.");
         }
         String blobName = target.getBlobId(fileName);
-        Blob fileInCommit = Utils.readObject(
-                Utils.join(BLOBSDATA, blobName), Blob.class);
+        checkOutBlob(blobName, fileName);
+    }
+
+    /** Write the content of the blob with the given ID to the working file
+     *  FILENAME and record it in the index. */
+    public void checkOutBlob(String id, String fileName) {
         File workingFile = Utils.join(CWD, fileName);
-        if (!workingFile.exists()) {
-            workingFile.createNewFile();
-        }
-        Utils.writeContents(workingFile, fileInCommit.getContent());
+        _store.copyBlob(id, workingFile);
+        _index.update(fileName, workingFile, id);
     }
 
     /** Takes all files in the commit at the head of TARGETBRANCH,
@@ -788,22 +874,44 @@ public class Commands {
             throw new GitletException("No need to "
                     + "checkout the current branch.");
         }
-        Commit target = Utils.readObject(Utils.join(COMMITTEDDATA,
-                _branches.get(targetBranch)), Commit.class);
-        checkUntracked(target, CWD, _currCommit);
-        removeTracked(target, CWD, _currCommit);
+        Commit target = _store.readCommit(_branches.get(targetBranch));
+        checkOutCommit(target);
         _currBranch = targetBranch;
         _head = _branches.get(targetBranch);
         _stageAdd.clear();
         _stageRemove.clear();
-        for (String fileName: target.getBlobs().keySet()) {
-            Blob b = Utils.readObject(Utils.join(BLOBSDATA,
-                    target.getBlobId(fileName)), Blob.class);
-            File workingFile = Utils.join(CWD, fileName);
-            if (!workingFile.exists()) {
-                workingFile.createNewFile();
+    }
+
+    /** Make the working files those of commit TARGET, which the current
+     *  commit is replaced by: write the files that differ between the two
+     *  commits, delete those TARGET does not track, and restore those
+     *  changed in the working directory since the current commit.  Files
+     *  that are the same in both commits and in the working directory are
+     *  not touched. */
+    public void checkOutCommit(Commit target) throws IOException {
+        Diff changes = Diff.commits(_store, _currCommit, target);
+        checkUntracked(changes, CWD);
+        Diff dirty = Diff.working(_currCommit, CWD, workingFiles(),
+                new BlobWriter(_store, _index), _index);
+        ArrayList<String> blobs = new ArrayList<>();
+        for (String fileName : changes.getPaths()) {
+            blobs.add(changes.newId(fileName));
+        }
+        for (String fileName : dirty.getPaths()) {
+            blobs.add(dirty.oldId(fileName));
+        }
+        _store.prefetch(blobs);
+        removeTracked(changes, CWD);
+        for (String fileName : changes.getPaths()) {
+            if (changes.newId(fileName) != null) {
+                checkOutBlob(changes.newId(fileName), fileName);
+            }
+        }
+        for (String fileName : dirty.getPaths()) {
+            if (!changes.contains(fileName)
+                    && dirty.oldId(fileName) != null) {
+                checkOutBlob(dirty.oldId(fileName), fileName);
             }
-            Utils.writeContents(workingFile, b.getContent());
         }
     }
 
@@ -836,25 +944,34 @@ public class Commands {
         if (_stageAdd.isEmpty() && _stageRemove.isEmpty()) {
             throw new GitletException("No changes added to the commit.");
         }
-        HashMap<String, String> currTracked = _currCommit.getBlobs();
+        HashMap<String, String> currTracked =
+            new HashMap<>(_currCommit.getBlobs());
         currTracked.putAll(_stageAdd.getMap());
         for (String fileName: _stageRemove.getArrayList()) {
             currTracked.remove(fileName);
         }
+        ArrayList<String> names = new ArrayList<>();
         for (String fileName: currTracked.keySet()) {
-            File workingFile = Utils.join(CWD, fileName);
-            if (!workingFile.exists()) {
-                currTracked.remove(fileName);
+            if (Utils.join(CWD, fileName).isFile()) {
+                names.add(fileName);
             }
-            Blob fileInCommit = Utils.readObject(Utils.join(BLOBSDATA,
-                    currTracked.get(fileName)), Blob.class);
-            if (!Utils.readContentsAsString(workingFile).equals(
-                    fileInCommit.getContent())) {
-                Blob newFile = new Blob(workingFile);
-                newFile.save();
-                currTracked.replace(fileName, newFile.getId());
+        }
+        currTracked.keySet().retainAll(names);
+        Collections.sort(names);
+        BlobWriter writer = new BlobWriter(_store, _index);
+        String[] ids = writer.hash(CWD, names);
+        String[] changed = new String[ids.length];
+        String[] bases = new String[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            if (!ids[i].equals(currTracked.get(names.get(i)))) {
+                changed[i] = ids[i];
+                bases[i] = currTracked.get(names.get(i));
             }
         }
+        writer.store(CWD, names, changed, bases);
+        for (int i = 0; i < ids.length; i += 1) {
+            currTracked.replace(names.get(i), ids[i]);
+        }
         _stageRemove.clear();
         _stageAdd.clear();
         Commit newCommit = new Commit(_command[1],
@@ -864,16 +981,64 @@ public class Commands {
         _branches.replace(_currBranch, _head);
     }
 
-    /** Add the working file to staging area so that we can track it by next
-     *  new commit. */
+    /** Add the working files named by the operands, which may be glob
+     *  patterns, to staging area so that we can track them by next new
+     *  commit.  The files are hashed and stored in parallel. */
     public void addCommand() throws IOException {
-        checkOperands(2);
+        if (_command.length < 2) {
+            checkOperands(2);
+        }
         readAll();
-        String fileName = _command[1];
-        add(fileName);
+        List<String> names = matchFiles(
+                Arrays.copyOfRange(_command, 1, _command.length));
+        BlobWriter writer = new BlobWriter(_store, _index);
+        String[] ids = writer.hash(CWD, names);
+        String[] bases = new String[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            bases[i] = stage(names.get(i), ids[i]);
+        }
+        writer.store(CWD, names, ids, bases);
         saveAll();
     }
 
+    /** Return the sorted names of the working files named by PATTERNS,
+     *  each a file name, a directory, standing for every file below it, or
+     *  a glob pattern such as *.txt or src/**.java. */
+    public List<String> matchFiles(String... patterns) {
+        TreeSet<String> result = new TreeSet<>();
+        List<String> allFiles = workingFiles();
+        for (String pattern : patterns) {
+            if (Utils.join(CWD, pattern).isFile()) {
+                result.add(pattern);
+                continue;
+            }
+            boolean found = false;
+            if (Utils.join(CWD, pattern).isDirectory()) {
+                String prefix = pattern.equals(".") ? ""
+                    : pattern.replaceAll("/+$", "") + "/";
+                for (String fileName : allFiles) {
+                    if (fileName.startsWith(prefix)) {
+                        result.add(fileName);
+                        found = true;
+                    }
+                }
+            } else if (pattern.matches(".*[*?\\[{].*")) {
+                PathMatcher matcher =
+                    FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+                for (String fileName : allFiles) {
+                    if (matcher.matches(Paths.get(fileName))) {
+                        result.add(fileName);
+                        found = true;
+                    }
+                }
+            }
+            if (!found) {
+                throw new GitletException("File does not exist.");
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
     /** Add FILENAME to staging area so that we can track it by next
      *  new commit. */
     public void add(String fileName) throws IOException {
@@ -881,31 +1046,34 @@ public class Commands {
         if (!addFile.exists()) {
             throw new GitletException("File does not exist.");
         }
-        Blob addBlob = new Blob(addFile);
+        Blob addBlob = new Blob(addFile, _index.blobId(fileName, addFile));
+        addBlob.save(stage(fileName, addBlob.getId()));
+    }
+
+    /** Stage the working file FILENAME whose blob id is ID, and return
+     *  the id of the version of the file in the current commit, or null if
+     *  it is untracked. */
+    public String stage(String fileName, String id) {
         if (_stageAdd.containsKey(fileName)) {
-            _stageAdd.replace(fileName, addBlob.getId());
+            _stageAdd.replace(fileName, id);
         } else if (_currCommit.checkTrackedName(fileName)) {
-            File workingFile = Utils.join(BLOBSDATA,
-                    _currCommit.getBlobId(fileName));
-            Blob fileInCommit = Utils.readObject(workingFile, Blob.class);
-            if (fileInCommit.getId().equals(addBlob.getId())) {
+            if (_currCommit.getBlobId(fileName).equals(id)) {
                 if (_stageAdd.containsKey(fileName)) {
                     _stageAdd.remove(fileName);
                 } else if (_stageRemove.contains(fileName)) {
                     _stageRemove.remove(fileName);
                 }
             } else {
-                Blob newFile = new Blob(workingFile);
-                newFile.save();
-                _stageAdd.put(fileName, newFile.getId());
+                _stageAdd.put(fileName, id);
             }
         } else {
-            _stageAdd.put(fileName, addBlob.getId());
+            _stageAdd.put(fileName, id);
         }
         if (_stageRemove.contains(fileName)) {
             _stageRemove.remove(fileName);
         }
-        addBlob.save();
+        return _currCommit.checkTrackedName(fileName)
+            ? _currCommit.getBlobId(fileName) : null;
     }
 
     /** Creates a new Gitlet version-control system in the current directory. */
@@ -930,49 +1098,74 @@ public class Commands {
         saveAll();
     }
 
-    /** Return the target commit according to commit ID in COMMITS. */
-    public Commit findCommit(String id, File commits) {
-        List<String> allCommits = Utils.plainFilenamesIn(commits);
-        Boolean found = false;
-        String target = "";
-        for (String commit: allCommits) {
-            if (commit.indexOf(id) == 0) {
-                if (found) {
-                    throw new GitletException("Repeated commit id.");
-                }
-                found = true;
-                target = commit;
-            }
-        }
-        if (!found) {
+    /** Return the target commit according to commit ID, which may be
+     *  abbreviated, in STORE. */
+    public Commit findCommit(String id, ObjectStore store) {
+        List<String> found = store.findCommits(id, 2);
+        if (found.size() > 1) {
+            throw new GitletException("Repeated commit id.");
+        } else if (found.isEmpty()) {
             throw new GitletException("No commit with that id exists.");
         }
-        Commit fCommit = Utils.readObject(Utils.join(commits,
-                target), Commit.class);
-        return fCommit;
+        return store.readCommit(found.get(0));
     }
 
-    /** Check if a file in DIR is untracked in the CURRENT
-     *  and would be overwritten by the given commit TARGET. */
-    public void checkUntracked(Commit target, File dir, Commit current) {
-        List<String> allFiles = Utils.plainFilenamesIn(dir);
-        for (String fileName: allFiles) {
-            if (!current.checkTrackedName(fileName)
-                    && target.checkTrackedName(fileName)) {
+    /** Check if a file in DIR is untracked in the current commit
+     *  and would be overwritten by the target commit, CHANGES being the
+     *  differences from the one to the other. */
+    public static void checkUntracked(Diff changes, File dir) {
+        for (String fileName: changes.getAdded()) {
+            if (Utils.join(dir, fileName).isFile()) {
                 throw new GitletException("There is an untracked file"
                         + "in the way delete it, or add and commit it first.");
             }
         }
     }
 
-    /** Removes tracked files that are not present in TARGET commit
-     *  but tracked in CURRENT commit in DIR directory. */
-    public void removeTracked(Commit target, File dir, Commit current) {
-        List<String> allFiles = Utils.plainFilenamesIn(CWD);
-        for (String fileName: allFiles) {
-            if (current.checkTrackedName(fileName)
-                    && !target.checkTrackedName(fileName)) {
-                Utils.join(dir, fileName).delete();
+    /** Removes tracked files that are not present in the target commit
+     *  but tracked in the current commit in DIR directory, CHANGES being
+     *  the differences from the one to the other. */
+    public static void removeTracked(Diff changes, File dir) {
+        for (String fileName: changes.getRemoved()) {
+            deleteFile(dir, fileName);
+        }
+    }
+
+    /** Delete the file FILENAME in DIR if it exists, and then each
+     *  directory above it, up to DIR, that is left empty. */
+    public static void deleteFile(File dir, String fileName) {
+        File file = Utils.join(dir, fileName);
+        file.delete();
+        for (File parent = file.getParentFile(); parent != null
+                 && !parent.equals(dir) && parent.delete();
+             parent = parent.getParentFile()) {
+            continue;
+        }
+    }
+
+    /** Return the sorted paths of all plain files below the working
+     *  directory, outside .gitlet, with / between directory names. */
+    public static List<String> workingFiles() {
+        ArrayList<String> result = new ArrayList<>();
+        addFiles(CWD, "", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Add to FILES the paths of the plain files below DIR, preceded by
+     *  PREFIX, skipping the .gitlet directory. */
+    private static void addFiles(File dir, String prefix,
+                                 List<String> files) {
+        File[] inside = dir.listFiles();
+        if (inside == null) {
+            return;
+        }
+        for (File each : inside) {
+            if (each.isFile()) {
+                files.add(prefix + each.getName());
+            } else if (each.isDirectory()
+                    && !each.getName().equals(".gitlet")) {
+                addFiles(each, prefix + each.getName() + "/", files);
             }
         }
     }
@@ -1009,73 +1202,75 @@ public class Commands {
         Utils.join(STAGEAREA, "stageRemove").createNewFile();
     }
 
-    /** Read in all configuration files in remote directory. */
-    public void readAllRemote() {
+    /** Open the Transport to the remote named by the command, and read
+     *  the head of the branch it names. */
+    public void readAllRemote() throws IOException {
         _rName = _command[1];
         _rBranch = _command[2];
-        _rDir = _remoteInfo.get(_rName);
-        _rConfig = Utils.join(_rDir, "config");
-        _rCommits = Utils.join(_rDir, "committedData");
-        _rBlobs = Utils.join(_rDir, "blobsData");
-        _rStage = Utils.join(_rConfig, "stageArea");
-        if (!_rDir.exists()) {
+        File address = _remoteInfo.get(_rName);
+        if (address == null) {
             throw new GitletException("Remote directory not found.");
         }
-        _rBranches = Utils.readObject(Utils.join(_rConfig, "branches"),
-                HHHashMap.class);
-        if (!_rBranches.containsKey(_rBranch)) {
+        if (_transport == null) {
+            _transport = Transport.open(address);
+        }
+        _rBranchHead = _transport.branches().get(_rBranch);
+        if (_rBranchHead == null) {
             throw new GitletException("That remote does not have that branch.");
         }
-        _rBranchHead = Utils.readObject(Utils.join(_rCommits,
-                _rBranches.get(_rBranch)), Commit.class);
-        _rHead = Utils.readObject(Utils.join(_rConfig, "head"), String.class);
-        _rCurrCommit = Utils.readObject(Utils.join(_rCommits, _rHead),
-                Commit.class);
-        _rCurrBranch = Utils.readObject(Utils.join(_rConfig, "currBranch"),
-                String.class);
-        _rStageAdd = Utils.readObject(Utils.join(_rStage, "stageAdd"),
-                HHHashMap.class);
-        _rStageRemove = Utils.readObject(Utils.join(_rStage, "stageRemove"),
-                AAArrayList.class);
-
     }
+
     /** Read in all configuration files. */
     public void readAll() {
-        _head = Utils.readObject(Utils.join(CONFIG, "head"), String.class);
-        _currCommit = Utils.readObject(Utils.join(COMMITTEDDATA, _head),
-                Commit.class);
-        _currBranch = Utils.readObject(Utils.join(CONFIG, "currBranch"),
+        Map<File, byte[]> snapshot = null;
+        if (_readOnly) {
+            snapshot = _journal.snapshot(CONFIG_FILES);
+        } else {
+            _journal.recover();
+        }
+        _head = readConfig(snapshot, Utils.join(CONFIG, "head"),
                 String.class);
-        _branches = Utils.readObject(Utils.join(CONFIG, "branches"),
+        _currCommit = _store.readCommit(_head);
+        _currBranch = readConfig(snapshot, Utils.join(CONFIG, "currBranch"),
+                String.class);
+        _branches = readConfig(snapshot, Utils.join(CONFIG, "branches"),
                 HHHashMap.class);
-        _remoteInfo = Utils.readObject(Utils.join(CONFIG, "remoteInfo"),
+        _remoteInfo = readConfig(snapshot, Utils.join(CONFIG, "remoteInfo"),
                 RemoteMap.class);
-        _stageAdd = Utils.readObject(Utils.join(STAGEAREA, "stageAdd"),
+        _stageAdd = readConfig(snapshot, Utils.join(STAGEAREA, "stageAdd"),
                 HHHashMap.class);
-        _stageRemove = Utils.readObject(Utils.join(STAGEAREA, "stageRemove"),
-               AAArrayList.class);
-        _initCommit = Utils.readObject(Utils.join(CONFIG, "initCommit"),
+        _stageRemove = readConfig(snapshot,
+                Utils.join(STAGEAREA, "stageRemove"), AAArrayList.class);
+        _initCommit = readConfig(snapshot, Utils.join(CONFIG, "initCommit"),
                 String.class);
     }
 
-    /** Save all configuration files. */
-    public void saveAll() {
-        Utils.writeObject(Utils.join(CONFIG, "head"), _head);
-        Utils.writeObject(Utils.join(CONFIG, "currBranch"), _currBranch);
-        Utils.writeObject(Utils.join(CONFIG, "branches"), _branches);
-        Utils.writeObject(Utils.join(CONFIG, "remoteInfo"), _remoteInfo);
-        Utils.writeObject(Utils.join(CONFIG, "initCommit"), _initCommit);
-        Utils.writeObject(Utils.join(STAGEAREA, "stageAdd"), _stageAdd);
-        Utils.writeObject(Utils.join(STAGEAREA, "stageRemove"), _stageRemove);
+    /** Return the configuration object of class TYPE in FILE, taken from
+     *  SNAPSHOT unless it is null, and remember its serialized form so
+     *  that saveAll writes it only if it changed. */
+    private <T extends Serializable> T readConfig(Map<File, byte[]> snapshot,
+                                                  File file, Class<T> type) {
+        T result = snapshot == null ? Daemon.readConfig(file, type)
+            : Utils.deserialize(snapshot.get(file), type);
+        _read.put(file, Utils.serialize(result));
+        return result;
     }
 
-    /** Save all configuration files in Remote. */
-    public void saveAllRemote() {
-        Utils.writeObject(Utils.join(_rConfig, "head"), _rHead);
-        Utils.writeObject(Utils.join(_rConfig, "currBranch"), _rCurrBranch);
-        Utils.writeObject(Utils.join(_rConfig, "branches"), _rBranches);
-        Utils.writeObject(Utils.join(_rStage, "stageAdd"), _rStageAdd);
-        Utils.writeObject(Utils.join(_rStage, "stageRemove"), _rStageRemove);
+    /** Save all configuration files. */
+    public void saveAll() {
+        LinkedHashMap<File, Serializable> configs = new LinkedHashMap<>();
+        configs.put(Utils.join(CONFIG, "head"), _head);
+        configs.put(Utils.join(CONFIG, "currBranch"), _currBranch);
+        configs.put(Utils.join(CONFIG, "branches"), _branches);
+        configs.put(Utils.join(CONFIG, "remoteInfo"), _remoteInfo);
+        configs.put(Utils.join(CONFIG, "initCommit"), _initCommit);
+        configs.put(Utils.join(STAGEAREA, "stageAdd"), _stageAdd);
+        configs.put(Utils.join(STAGEAREA, "stageRemove"), _stageRemove);
+        configs.entrySet().removeIf(config -> Arrays.equals(
+                _read.get(config.getKey()),
+                Utils.serialize(config.getValue())));
+        Daemon.writeConfigs(_journal, configs);
+        _index.save(CWD);
     }
 
     /** The working directory. */
@@ -1090,6 +1285,14 @@ public class Commands {
     /** The repository of all configurations like head, currBranch. */
     private static final File STAGEAREA = Utils.join(CONFIG, "stageArea");
 
+    /** The configuration files read by readAll. */
+    private static final List<File> CONFIG_FILES = List.of(
+            Utils.join(CONFIG, "head"), Utils.join(CONFIG, "currBranch"),
+            Utils.join(CONFIG, "branches"), Utils.join(CONFIG, "remoteInfo"),
+            Utils.join(STAGEAREA, "stageAdd"),
+            Utils.join(STAGEAREA, "stageRemove"),
+            Utils.join(CONFIG, "initCommit"));
+
     /** The directory where stores all Commit objects. */
     private static final File COMMITTEDDATA = Utils.join(GITLET,
             "committedData");
@@ -1097,8 +1300,27 @@ public class Commands {
     /** The repository of all Blobs. */
     private static final File BLOBSDATA = Utils.join(GITLET, "blobsData");
 
-    /** head commit of remote branch. */
-    private Commit _rBranchHead;
+    /** The object store of this repository. */
+    private ObjectStore _store = ObjectStore.local();
+
+    /** The index of the stat data and blob ids of working files. */
+    private Index _index = new Index(Utils.join(GITLET, "index"));
+
+    /** The journal through which configuration files are saved. */
+    private Journal _journal = new Journal(Utils.join(GITLET, "journal"));
+
+    /** The locks held on parts of this repository. */
+    private Locks _locks = new Locks(GITLET);
+
+    /** Whether the command changes nothing, so that it reads a snapshot
+     *  of the configuration files without locking. */
+    private boolean _readOnly;
+
+    /** The serialized configuration objects read, by file. */
+    private HashMap<File, byte[]> _read = new HashMap<>();
+
+    /** The id of the head commit of the remote branch. */
+    private String _rBranchHead;
 
     /** Stores remote login information.
      *  Remote names are keys. Remote path are values. */
@@ -1130,44 +1352,14 @@ public class Commands {
         return _command;
     }
 
-    /** remote stage area. */
-    private File _rStage;
-
     /** Remote name. */
     private String _rName;
 
     /** Remote branch name. */
     private String _rBranch;
 
-    /** Remote working directory. */
-    private File _rDir;
-
-    /** Remote configuation directory. */
-    private File _rConfig;
-
-    /** Remote commits directory. */
-    private File _rCommits;
-
-    /** Remote blobs directory. */
-    private File _rBlobs;
-
-    /** Remote current branch. */
-    private String _rCurrBranch;
-
-    /** Remote current commit. */
-    private Commit _rCurrCommit;
-
-    /** Remote stage for removal. */
-    private AAArrayList _rStageRemove;
-
-    /** Remote stage for addition. */
-    private HHHashMap _rStageAdd;
-
-    /** Remote branches. */
-    private HHHashMap _rBranches;
-
-    /** Remote head. */
-    private String _rHead;
+    /** The transport to the remote, or null. */
+    private Transport _transport;
 
     /** The command passed in Main class. */
     private String[] _command;
@@ -1175,9 +1367,19 @@ public class Commands {
     /** Start a new line. */
     private static final String N = System.lineSeparator();
 
+    /** Number of characters of output log and global-log buffer. */
+    private static final int LOG_BUFFER = 1 << 16;
+
+    /** Name of the system property asking for the time of each phase of
+     *  a merge. */
+    static final String TIMING_PROPERTY = "gitlet.timing";
+
     /** A file separator in the path. */
     private static final String S = System.getProperty("file.separator");
 
+    /** The split point finder, caching the parent links it has loaded. */
+    private MergeBase _mergeBase;
+
     /** The id of second parent for merge. */
     private String _secondParent;
 
@@ -1,28 +1,53 @@
 package gitlet;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputFilter;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Date;
+import java.util.TreeMap;
 import java.io.File;
 
 /** A Commit object consists of a log message, timestamp, a mapping of
  *  file names to blob references, a parent reference, and (for merges)
  *  a second parent reference.
- *  A Commit is saved to a file in name of the its SHA1 id.
+ *  A Commit is saved to a file in name of the its SHA1 id.  The files
+ *  are saved as the id of the Tree of the working directory; commits
+ *  saved before there were trees hold the mapping itself, and are still
+ *  read.  The mapping of a commit read from a store is rebuilt from its
+ *  trees only when it is needed.
+ *
+ *  A commit is stored in a versioned binary encoding whose SHA1 is its
+ *  id: a fixed header holding the tree, the parents and the time, then
+ *  the log message, then, for a commit without a tree, the mapping.
+ *  Reading a commit decodes the header only; the message and mapping
+ *  are decoded on first use, so walking the history costs no string or
+ *  map allocation.  Commits stored with Java serialization before this
+ *  encoding existed are still read, allowing only the classes a Commit
+ *  holds, and repack rewrites them in it under their old ids.
  *  @author Wenhao Pan
  */
 public class Commit implements Serializable {
 
-    /** The constructor that takes in the metadata of a commit.
+    /** The constructor that takes in the metadata of a commit, storing
+     *  the trees of its files in the object store of the repository.
      * @param message the log message.
-     * @param blobs key is the name of the file, val is the SHA1 id of the blob.
+     * @param blobs key is the path of the file, val is the SHA1 id of the
+     *              blob.
      * @param fParent SHA1 id of the first parent commit.
      * @param sParent SHA1 id of the second parent commit
      */
     public Commit(String message, HashMap<String, String> blobs, String
-                  fParent, String sParent) {
+                  fParent, String sParent) throws IOException {
         _message = message;
         _firstParent = fParent;
         _secondParent = sParent;
@@ -31,34 +56,210 @@ public class Commit implements Serializable {
         if (!COMMITTEDDATA.exists()) {
             COMMITTEDDATA.mkdir();
         }
-        _id = Utils.sha1(Utils.serialize(_blobs), Utils.serialize(_firstParent),
-                Utils.serialize(_secondParent), Utils.serialize(_message),
-                Utils.serialize(_time));
+        ObjectStore store = ObjectStore.local();
+        Commit parent = fParent == null ? null : store.readCommit(fParent);
+        if (parent == null || parent.getTree() == null) {
+            _tree = Tree.write(store, _blobs);
+        } else {
+            HashMap<String, String> changes = new HashMap<>();
+            for (String name : parent.getBlobs().keySet()) {
+                if (!_blobs.containsKey(name)) {
+                    changes.put(name, null);
+                }
+            }
+            for (Map.Entry<String, String> file : _blobs.entrySet()) {
+                if (!file.getValue().equals(
+                        parent.getBlobs().get(file.getKey()))) {
+                    changes.put(file.getKey(), file.getValue());
+                }
+            }
+            _tree = Tree.update(store, parent.getTree(), changes);
+        }
+        _id = hash();
+    }
+
+    /** A commit with the log MESSAGE of the files whose Tree is TREE,
+     *  with first parent FPARENT and second parent SPARENT, either of
+     *  which may be null, made at TIME.  Nothing is stored. */
+    Commit(String message, String tree, String fParent, String sParent,
+           Date time) {
+        _message = message;
+        _tree = tree;
+        _firstParent = fParent;
+        _secondParent = sParent;
+        _time = time;
+        _id = hash();
+    }
+
+    /** A commit whose fields are filled in by decode. */
+    private Commit() {
+    }
+
+    /** Return the SHA1 id of this commit. */
+    private String hash() {
+        return Utils.sha1(encode());
+    }
+
+    /** Return the bytes this commit is stored as. */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            String[] parents = getParents();
+            out.writeInt(COMMIT_MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeByte(parents.length);
+            out.writeByte(_tree == null ? 0 : HAS_TREE);
+            if (_tree != null) {
+                out.write(Pack.toBytes(_tree));
+            }
+            for (String parent : parents) {
+                out.write(Pack.toBytes(parent));
+            }
+            out.writeLong(_time.getTime());
+            byte[] message = getMessage().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(message.length);
+            out.write(message);
+            if (_tree == null) {
+                out.writeInt(getBlobs().size());
+                for (Map.Entry<String, String> file
+                         : new TreeMap<>(getBlobs()).entrySet()) {
+                    out.writeUTF(file.getKey());
+                    out.write(Pack.toBytes(file.getValue()));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the commit with the given ID whose stored bytes are BYTES,
+     *  decoding only its header, or deserializing it if it was stored
+     *  before commits had their own encoding. */
+    static Commit decode(String id, byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (bytes.length < Integer.BYTES || in.getInt() != COMMIT_MAGIC) {
+            return Utils.deserialize(bytes, Commit.class, SERIALIZED);
+        }
+        if (in.get() != FORMAT_VERSION) {
+            throw Utils.error("Unknown commit format.");
+        }
+        int parents = in.get();
+        boolean hasTree = (in.get() & HAS_TREE) != 0;
+        Commit result = new Commit();
+        result._id = id;
+        result._tree = hasTree ? readId(in) : null;
+        result._firstParent = parents > 0 ? readId(in) : null;
+        result._secondParent = parents > 1 ? readId(in) : null;
+        result._time = new Date(in.getLong());
+        result._encoded = bytes;
+        result._body = in.position();
+        return result;
+    }
+
+    /** Return whether BYTES are the stored bytes of a commit whose id is
+     *  ID: their SHA1, or, for a commit without a tree stored before
+     *  commits had their own encoding, the SHA1 of its serialized
+     *  fields. */
+    static boolean hasId(String id, byte[] bytes) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            if (bytes.length >= Integer.BYTES && in.getInt() == COMMIT_MAGIC
+                    && Utils.sha1(bytes).equals(id)) {
+                return true;
+            }
+            Commit commit = decode(id, bytes);
+            return commit._tree == null && id.equals(Utils.sha1(
+                    Utils.serialize(commit.getBlobs()),
+                    Utils.serialize(commit._firstParent),
+                    Utils.serialize(commit._secondParent),
+                    Utils.serialize(commit.getMessage()),
+                    Utils.serialize(commit._time)));
+        } catch (GitletException | IllegalArgumentException
+                 | BufferUnderflowException excp) {
+            return false;
+        }
+    }
+
+    /** Return the hexadecimal id of the next Pack.ID_BYTES bytes of IN. */
+    private static String readId(ByteBuffer in) {
+        byte[] id = new byte[Pack.ID_BYTES];
+        in.get(id);
+        return Pack.toHex(id);
+    }
+
+    /** Decode the message, and the mapping of a commit without a tree,
+     *  from the stored bytes of a commit read by decode, if that is not
+     *  done yet. */
+    private synchronized void decodeBody() {
+        if (_encoded == null) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(_encoded, _body,
+                        _encoded.length - _body))) {
+            byte[] message = new byte[in.readInt()];
+            in.readFully(message);
+            _message = new String(message, StandardCharsets.UTF_8);
+            if (_tree == null) {
+                HashMap<String, String> blobs = new HashMap<>();
+                for (int count = in.readInt(); count > 0; count -= 1) {
+                    String name = in.readUTF();
+                    blobs.put(name,
+                            Pack.toHex(in.readNBytes(Pack.ID_BYTES)));
+                }
+                _blobs = blobs;
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Corrupted commit %s.", _id);
+        }
+        _encoded = null;
     }
 
     /** Return the id or the file name of the blob according to NAME. */
     public String getBlobId(String name) {
-        if (!checkTrackedName(name)) {
+        String result = findBlob(name);
+        if (result == null) {
             throw new GitletException("No such tracked file in the commit.");
         }
-        return _blobs.get(name);
+        return result;
     }
 
     /** Return if the file NAME is tracked by the commit. */
     public boolean checkTrackedName(String name) {
-        return _blobs.containsKey(name);
+        return findBlob(name) != null;
     }
 
     /** Return if the blob ID is tracked by the commit. */
     public boolean checkTrackedId(String id) {
-        return _blobs.containsValue(id);
+        return getBlobs().containsValue(id);
+    }
+
+    /** Return the id of the blob of file NAME, or null if the commit does
+     *  not track it, reading only the trees on its path if the mapping of
+     *  all files has not been rebuilt. */
+    private String findBlob(String name) {
+        if (_blobs != null || _tree == null) {
+            return getBlobs().get(name);
+        }
+        return Tree.find(store(), _tree, name);
+    }
+
+    /** Remember that this commit was read from STORE, where its trees
+     *  are. */
+    void setStore(ObjectStore store) {
+        _store = store;
     }
 
-    /** Save this commit to committedData directory. */
+    /** Return the store holding the trees of this commit. */
+    private ObjectStore store() {
+        return _store != null ? _store : ObjectStore.local();
+    }
+
+    /** Save this commit to the object store of the repository. */
     public void save() throws IOException {
-        File commit = Utils.join(COMMITTEDDATA, _id);
-        commit.createNewFile();
-        Utils.writeObject(commit, this);
+        ObjectStore.local().writeCommit(this);
     }
 
     @Override
@@ -70,10 +271,11 @@ public class Commit implements Serializable {
             merge = String.format("Merge: %s %s", _firstParent.substring(0, 7),
                     _secondParent.substring(0, 7));
             return String.format("===" + N + "commit %s" + N + "%s"
-                    + N + "%s" + N + "%s" + N, _id, merge, date, _message);
+                    + N + "%s" + N + "%s" + N, _id, merge, date,
+                    getMessage());
         }
         return String.format("===" + N + "commit %s" + N
-                + "%s" + N + "%s" + N, _id, date, _message);
+                + "%s" + N + "%s" + N, _id, date, getMessage());
     }
     /** Start a new line. */
     private static final String N = System.lineSeparator();
@@ -81,16 +283,27 @@ public class Commit implements Serializable {
     /** Set the _time to January 1, 1970 00:00:00 GMT for initial commit. */
     public void initTime() {
         _time.setTime(0);
-        _id = Utils.sha1(Utils.serialize(_blobs), Utils.serialize(_firstParent),
-                Utils.serialize(_secondParent), Utils.serialize(_message),
-                Utils.serialize(_time));
+        _id = hash();
     }
 
-    /** A getter method that returns _blobs. */
-    public HashMap<String, String> getBlobs() {
+    /** Return the mapping of the path of every file of the commit to the
+     *  id of its blob, rebuilding it from the trees on first use. */
+    public synchronized HashMap<String, String> getBlobs() {
+        decodeBody();
+        if (_blobs == null) {
+            HashMap<String, String> blobs = new HashMap<>();
+            Tree.flatten(store(), _tree, "", blobs);
+            _blobs = blobs;
+        }
         return _blobs;
     }
 
+    /** Return the id of the Tree of the commit, or null for a commit
+     *  saved before there were trees. */
+    public String getTree() {
+        return _tree;
+    }
+
     /** A getter method that returns _firstParent. */
     public String getFirstParent() {
         return _firstParent;
@@ -101,8 +314,21 @@ public class Commit implements Serializable {
         return _secondParent;
     }
 
+    /** Return the ids of the parents of this commit, first parent first. */
+    public String[] getParents() {
+        if (_firstParent == null) {
+            return new String[0];
+        } else if (_secondParent == null) {
+            return new String[] {_firstParent};
+        }
+        return new String[] {_firstParent, _secondParent};
+    }
+
     /** A getter method that returns __message. */
     public String getMessage() {
+        if (_message == null) {
+            decodeBody();
+        }
         return _message;
     }
 
@@ -116,6 +342,25 @@ public class Commit implements Serializable {
         return _time;
     }
 
+    /** Serialization version of Commit, kept from the first version so that
+     *  commits stored before it changed can still be read. */
+    private static final long serialVersionUID = -8311386477456040323L;
+
+    /** The classes read from a commit stored with Java serialization. */
+    private static final ObjectInputFilter SERIALIZED =
+        ObjectInputFilter.Config.createFilter("gitlet.Commit;"
+            + "java.util.HashMap;java.util.Map$Entry;java.lang.String;"
+            + "java.util.Date;!*");
+
+    /** Magic number at the start of a stored commit. */
+    private static final int COMMIT_MAGIC = 0x47434d54;
+
+    /** Version of the encoding of stored commits. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Flag set in the header of a stored commit that has a tree. */
+    private static final int HAS_TREE = 1;
+
     /** The working directory. */
     private static final File CWD = new File(System.getProperty("user.dir"));
 
@@ -124,9 +369,17 @@ public class Commit implements Serializable {
             ".gitlet", "committedData");
 
     /** A HashMap with key of the file name,
-     * and values of SHA1 (pointer) to the blobs.*/
+     * and values of SHA1 (pointer) to the blobs, or null until it is
+     * rebuilt from _tree.*/
     private HashMap<String, String> _blobs;
 
+    /** The SHA1 id of the Tree of the working directory, or null for a
+     *  commit saved before there were trees. */
+    private String _tree;
+
+    /** The store this commit was read from, or null for a new commit. */
+    private transient ObjectStore _store;
+
     /** The first parent commit. */
     private String _firstParent;
 
@@ -141,4 +394,11 @@ public class Commit implements Serializable {
 
     /** An Date object represents the time when the commit is created. */
     private Date _time;
+
+    /** The stored bytes of a commit read by decode until its message is
+     *  decoded from them, or null. */
+    private transient byte[] _encoded;
+
+    /** Position in _encoded of the message. */
+    private transient int _body;
 }
@@ -0,0 +1,433 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+
+/** A CommitGraph is a sidecar of the commits of one ObjectStore that
+ *  holds, for every commit, its parent links as integer positions, its
+ *  generation number and its timestamp, so that history walks need not
+ *  deserialize any Commit.  The file is a header followed by fixed-size
+ *  records in the order the commits were added, parents before children,
+ *  and is memory-mapped when read.  A commit missing from the file, for
+ *  instance one written before the file existed, is added the first time
+ *  it is looked up.  A shallow commit, fetched without its parents, is
+ *  recorded as having none.
+ *
+ *  Commands that only read the repository add commits too, so records
+ *  are appended under a lock on commit-graph.lock, after reading any
+ *  records another process appended since the file was mapped, and only
+ *  for commits still missing.  A graph built from nothing is written to
+ *  a temporary file and renamed into place, so that no reader maps a
+ *  file without its header.
+ *  @author Wenhao Pan
+ */
+public class CommitGraph {
+
+    /** A CommitGraph kept in FILE for the commits of STORE. */
+    public CommitGraph(File file, ObjectStore store) {
+        _file = file;
+        _store = store;
+    }
+
+    /** Return the position of commit ID, adding it and its missing
+     *  ancestors from the store if needed. */
+    public int index(String id) {
+        Integer result = positions().get(id);
+        if (result == null) {
+            ensure(id);
+            result = _positions.get(id);
+        }
+        return result;
+    }
+
+    /** Return the position of commit ID like index, but without reading
+     *  the ids of all commits when they are not read yet: the records are
+     *  searched from the most recently added, where heads usually are. */
+    public int locate(String id) {
+        if (_positions != null) {
+            return index(id);
+        }
+        open();
+        ByteBuffer target = ByteBuffer.wrap(Pack.toBytes(id));
+        long lead = target.getLong(0);
+        for (int pos = size() - 1; pos >= 0; pos -= 1) {
+            ByteBuffer rec = record(pos);
+            if (rec.getLong(0) == lead
+                    && rec.slice(0, ID_BYTES).equals(target)) {
+                return pos;
+            }
+        }
+        return index(id);
+    }
+
+    /** Return whether commit ID is already in the graph. */
+    public boolean contains(String id) {
+        return positions().containsKey(id);
+    }
+
+    /** Return the number of commits in the graph. */
+    public int size() {
+        open();
+        return _mapped + _pending.size();
+    }
+
+    /** Return the id of the commit at position POS. */
+    public String id(int pos) {
+        byte[] raw = new byte[ID_BYTES];
+        record(pos).get(0, raw);
+        return Pack.toHex(raw);
+    }
+
+    /** Return the positions of the parents of the commit at POS,
+     *  first parent first. */
+    public int[] parents(int pos) {
+        ByteBuffer rec = record(pos);
+        int first = rec.getInt(ID_BYTES);
+        int second = rec.getInt(ID_BYTES + 4);
+        if (first < 0) {
+            return new int[0];
+        } else if (second < 0) {
+            return new int[] {first};
+        }
+        return new int[] {first, second};
+    }
+
+    /** Return the position of the first parent of the commit at POS,
+     *  or -1 for the initial commit. */
+    public int firstParent(int pos) {
+        return record(pos).getInt(ID_BYTES);
+    }
+
+    /** Return the generation number of the commit at POS: 1 for a commit
+     *  without parents, otherwise one more than that of its parents. */
+    public int generation(int pos) {
+        return record(pos).getInt(ID_BYTES + 8);
+    }
+
+    /** Return the timestamp in milliseconds of the commit at POS. */
+    public long time(int pos) {
+        return record(pos).getLong(ID_BYTES + 12);
+    }
+
+    /** Return the MergeBase Node of commit ID, ordered by generation. */
+    public MergeBase.Node node(String id) {
+        int pos = index(id);
+        int[] parents = parents(pos);
+        String[] ids = new String[parents.length];
+        for (int i = 0; i < parents.length; i += 1) {
+            ids[i] = id(parents[i]);
+        }
+        return new MergeBase.Node(ids, generation(pos));
+    }
+
+    /** Add COMMIT if all of its parents are known, so that the graph
+     *  stays up to date as commits are saved. */
+    void add(Commit commit) {
+        if (positions().containsKey(commit.getId())) {
+            return;
+        }
+        for (String parent : _store.parents(commit)) {
+            if (!_positions.containsKey(parent)
+                    && !_store.hasCommit(parent)) {
+                return;
+            }
+        }
+        ensure(commit.getId());
+    }
+
+    /** Delete the file, after any process appending to it is done, so
+     *  that the graph is built again when next used. */
+    void delete() {
+        synchronized (CommitGraph.class) {
+            FileChannel lock = lock();
+            try {
+                _file.delete();
+            } finally {
+                close(lock);
+            }
+        }
+    }
+
+    /** Read the records another process appended to the file since it
+     *  was mapped, or the whole file again if it was replaced or
+     *  deleted since. */
+    void refresh() {
+        if (_pending == null || !_pending.isEmpty()) {
+            return;
+        }
+        Object key = fileKey();
+        long mapped = HEADER_BYTES + (long) _mapped * RECORD_BYTES;
+        if (!Objects.equals(key, _key)
+                || key != null && _file.length() < mapped) {
+            _pending = null;
+            _positions = null;
+            _map = null;
+            _mapped = 0;
+            open();
+        } else if (key != null
+                   && _file.length() >= mapped + RECORD_BYTES) {
+            int old = _mapped;
+            _map = map();
+            _mapped = (_map.capacity() - HEADER_BYTES) / RECORD_BYTES;
+            if (_positions != null) {
+                for (int pos = old; pos < _mapped; pos += 1) {
+                    _positions.put(id(pos), pos);
+                }
+            }
+        }
+    }
+
+    /** Add commit ID and all of its ancestors missing from the graph,
+     *  reading them from the store, parents before children, holding the
+     *  lock on the file. */
+    private void ensure(String id) {
+        synchronized (CommitGraph.class) {
+            FileChannel lock = lock();
+            try {
+                refresh();
+                positions();
+                collect(id);
+                flush();
+            } finally {
+                close(lock);
+            }
+        }
+    }
+
+    /** Append records for commit ID and all of its ancestors missing from
+     *  the graph, parents before children. */
+    private void collect(String id) {
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        HashMap<String, String[]> read = new HashMap<>();
+        HashMap<String, Long> times = new HashMap<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            if (_positions.containsKey(top)) {
+                stack.pop();
+                continue;
+            }
+            if (!read.containsKey(top)) {
+                Commit commit = _store.readCommit(top);
+                read.put(top, _store.parents(commit));
+                times.put(top, commit.getTime().getTime());
+            }
+            boolean ready = true;
+            for (String parent : read.get(top)) {
+                if (!_positions.containsKey(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                append(top, read.remove(top), times.remove(top));
+            }
+        }
+    }
+
+    /** Append a record for commit ID with PARENTS and TIME. */
+    private void append(String id, String[] parents, long time) {
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_BYTES);
+        rec.put(Pack.toBytes(id));
+        int generation = 1;
+        for (int i = 0; i < 2; i += 1) {
+            int pos = i < parents.length ? _positions.get(parents[i]) : -1;
+            rec.putInt(pos);
+            if (pos >= 0) {
+                generation = Math.max(generation, generation(pos) + 1);
+            }
+        }
+        rec.putInt(generation);
+        rec.putLong(time);
+        _positions.put(id, size());
+        _pending.add(rec);
+    }
+
+    /** Write all pending records to the end of the file, or to a new
+     *  file renamed into place if there is none. */
+    private void flush() {
+        if (_pending.isEmpty()) {
+            return;
+        }
+        boolean fresh = _mapped == 0;
+        File temp = null;
+        try {
+            if (fresh) {
+                temp = File.createTempFile("commit-graph-", ".tmp",
+                        _file.getParentFile());
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(fresh
+                        ? new FileOutputStream(temp)
+                        : new FileOutputStream(_file, true)))) {
+                if (fresh) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                }
+                for (ByteBuffer rec : _pending) {
+                    out.write(rec.array());
+                }
+            }
+            if (fresh) {
+                Files.move(temp.toPath(), _file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+            throw Utils.error("Cannot write commit graph.");
+        }
+        _map = null;
+        _key = fileKey();
+        _mapped += _pending.size();
+        _pending.clear();
+    }
+
+    /** Return the record at position POS. */
+    private ByteBuffer record(int pos) {
+        open();
+        if (pos >= _mapped) {
+            return _pending.get(pos - _mapped);
+        }
+        if (_map == null) {
+            _map = map();
+        }
+        return _map.slice(HEADER_BYTES + pos * RECORD_BYTES, RECORD_BYTES);
+    }
+
+    /** Map the file on first use. */
+    private void open() {
+        if (_pending != null) {
+            return;
+        }
+        _pending = new ArrayList<>();
+        _key = fileKey();
+        if (_key == null) {
+            return;
+        }
+        _map = map();
+        if (_map.capacity() < HEADER_BYTES || _map.getInt(0) != MAGIC) {
+            _pending = null;
+            throw Utils.error("Corrupted commit graph.");
+        }
+        _mapped = (_map.capacity() - HEADER_BYTES) / RECORD_BYTES;
+    }
+
+    /** Return the positions of all commits by id, reading them from the
+     *  file on first use. */
+    private HashMap<String, Integer> positions() {
+        open();
+        if (_positions == null) {
+            HashMap<String, Integer> positions = new HashMap<>();
+            for (int pos = 0; pos < size(); pos += 1) {
+                positions.put(id(pos), pos);
+            }
+            _positions = positions;
+        }
+        return _positions;
+    }
+
+    /** Return the key identifying the file, which changes when the file
+     *  is replaced, or null if there is no file. */
+    private Object fileKey() {
+        try {
+            return Files.readAttributes(_file.toPath(),
+                    BasicFileAttributes.class).fileKey();
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Return a channel holding the lock on commit-graph.lock, taken
+     *  while records are appended or the file is deleted. */
+    private FileChannel lock() {
+        FileChannel result = null;
+        try {
+            result = FileChannel.open(Paths.get(_file.getPath() + ".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            result.lock();
+            return result;
+        } catch (IOException excp) {
+            close(result);
+            throw Utils.error("Cannot lock commit graph.");
+        }
+    }
+
+    /** Close CHANNEL, if any, releasing its lock. */
+    private static void close(FileChannel channel) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException excp) {
+            /* The lock goes with the channel either way. */
+        }
+    }
+
+    /** Return the file mapped into memory. */
+    private MappedByteBuffer map() {
+        try (RandomAccessFile raf = new RandomAccessFile(_file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read commit graph.");
+        }
+    }
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47434731;
+
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Number of bytes in the header. */
+    private static final int HEADER_BYTES = 8;
+
+    /** Number of raw bytes in a SHA1 id. */
+    private static final int ID_BYTES = 20;
+
+    /** Number of bytes in a record: id, two parents, generation, time. */
+    private static final int RECORD_BYTES = ID_BYTES + 4 + 4 + 4 + 8;
+
+    /** The file holding the graph. */
+    private File _file;
+
+    /** The store holding the commits. */
+    private ObjectStore _store;
+
+    /** Key of the file when it was mapped, or null if there was none. */
+    private Object _key;
+
+    /** The mapped file, or null if it must be mapped again. */
+    private MappedByteBuffer _map;
+
+    /** Number of records in the file. */
+    private int _mapped;
+
+    /** Records added but not yet written to the file, or null before the
+     *  file is mapped. */
+    private ArrayList<ByteBuffer> _pending;
+
+    /** Positions of all commits, by id, or null before loading. */
+    private HashMap<String, Integer> _positions;
+}
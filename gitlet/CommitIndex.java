@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/** A CommitIndex is a sidecar of the commits of one ObjectStore that
+ *  lists their ids, so that the commits whose ids start with a given
+ *  abbreviation are found by a binary search instead of by listing every
+ *  stored commit.  It is a SortedIndex whose records are the raw ids,
+ *  with a 256-entry fan-out table on the first byte of the id after the
+ *  header.  A missing file is built by listing the store, and so is a
+ *  stale one when an abbreviation matches no id in it, so commits stored
+ *  without going through the index are still found.
+ *  @author Wenhao Pan
+ */
+public class CommitIndex extends SortedIndex {
+
+    /** A CommitIndex kept in FILE for the commits of STORE. */
+    public CommitIndex(File file, ObjectStore store) {
+        super(file, "commit index", MAGIC, VERSION, RECORDS_START,
+                ID_BYTES);
+        _store = store;
+    }
+
+    /** Return the ids of at most LIMIT stored commits that start with
+     *  PREFIX, in sorted order. */
+    public synchronized List<String> find(String prefix, int limit) {
+        if (prefix.length() > Utils.UID_LENGTH || !isHex(prefix)) {
+            return new ArrayList<>();
+        }
+        load();
+        List<String> result = search(prefix, limit);
+        if (result.isEmpty() && fromFile()) {
+            rebuild(build());
+            result = search(prefix, limit);
+        }
+        return result;
+    }
+
+    /** Return the number of commits in the index. */
+    public synchronized int size() {
+        load();
+        return sorted() + tail().size();
+    }
+
+    /** Record that commit ID was stored. */
+    public synchronized void add(String id) {
+        load();
+        if (search(id, 1).isEmpty()) {
+            append(Pack.toBytes(id));
+        }
+    }
+
+    @Override
+    List<byte[]> build() {
+        ArrayList<byte[]> result = new ArrayList<>();
+        for (String id : _store.commitIds()) {
+            if (id.length() == Utils.UID_LENGTH && isHex(id)) {
+                result.add(Pack.toBytes(id));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    void writeHeader(DataOutputStream out, List<byte[]> sorted)
+        throws IOException {
+        int[] fanout = new int[FANOUT];
+        for (byte[] id : sorted) {
+            fanout[id[0] & 0xff] += 1;
+        }
+        for (int i = 0; i < FANOUT; i += 1) {
+            if (i > 0) {
+                fanout[i] += fanout[i - 1];
+            }
+            out.writeInt(fanout[i]);
+        }
+    }
+
+    /** Return the ids of at most LIMIT commits in the index that start
+     *  with PREFIX, in sorted order. */
+    private List<String> search(String prefix, int limit) {
+        TreeSet<String> found = new TreeSet<>();
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < Utils.UID_LENGTH) {
+            padded.append('0');
+        }
+        byte[] target = Pack.toBytes(padded.toString());
+        int first = target[0] & 0xff;
+        int hi = sorted();
+        int lo = first == 0 || hi == 0 ? 0
+            : Math.min(Math.max(headerInt(FANOUT_START + 4 * first - 4), 0),
+                       hi);
+        byte[] probe = new byte[ID_BYTES];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            record(mid).get(0, probe);
+            if (Arrays.compareUnsigned(probe, target) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int pos = lo; pos < sorted() && found.size() < limit;
+             pos += 1) {
+            record(pos).get(0, probe);
+            String id = Pack.toHex(probe);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            found.add(id);
+        }
+        for (byte[] raw : tail()) {
+            String id = Pack.toHex(raw);
+            if (id.startsWith(prefix)) {
+                found.add(id);
+            }
+        }
+        ArrayList<String> result = new ArrayList<>(found);
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    /** Return whether TEXT consists of lower-case hex digits only. */
+    private static boolean isHex(String text) {
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47434944;
+
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Number of entries in the fan-out table. */
+    private static final int FANOUT = 256;
+
+    /** Byte offset of the fan-out table: after magic, version and the
+     *  number of sorted ids. */
+    private static final int FANOUT_START = 12;
+
+    /** Byte offset of the first id. */
+    private static final int RECORDS_START = FANOUT_START + 4 * FANOUT;
+
+    /** Number of raw bytes in a SHA1 id. */
+    private static final int ID_BYTES = 20;
+
+    /** The store holding the commits. */
+    private ObjectStore _store;
+}
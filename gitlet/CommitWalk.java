@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/** A CommitWalk produces commits of one ObjectStore lazily, one at a time,
+ *  by following the positions of its CommitGraph, so that printing the
+ *  first commits of a long history reads only those commits and memory
+ *  use does not grow with the history.  Limits on time are checked
+ *  against the timestamps of the graph, so commits outside them are
+ *  never read.  A filter on paths keeps the commits that change one of
+ *  the paths from their first parent, reading only the Trees on them.
+ *  The limits are set before the first commit is asked for.
+ *  @author Wenhao Pan
+ */
+public class CommitWalk implements Iterator<Commit> {
+
+    /** A walk over the commits of STORE at the position START of its
+     *  graph and the ones before it, following first parents only if
+     *  FIRSTPARENTS, else every earlier position. */
+    private CommitWalk(ObjectStore store, int start, boolean firstParents) {
+        _store = store;
+        _graph = store.graph();
+        _pos = start;
+        _firstParents = firstParents;
+    }
+
+    /** Return a walk over the commits of STORE from commit HEAD back to
+     *  the initial commit, following first parents, as log prints them. */
+    static CommitWalk firstParents(ObjectStore store, String head) {
+        return new CommitWalk(store, store.graph().locate(head), true);
+    }
+
+    /** Return a walk over every commit of STORE, most recently added to
+     *  its graph first, so that a commit comes before its parents. */
+    static CommitWalk all(ObjectStore store) {
+        store.completeGraph();
+        return new CommitWalk(store, store.graph().size() - 1, false);
+    }
+
+    /** Produce at most LIMIT commits. */
+    public void setLimit(int limit) {
+        _limit = limit;
+    }
+
+    /** Skip commits made before TIME, in milliseconds. */
+    public void setSince(long time) {
+        _since = time;
+    }
+
+    /** Skip commits made after TIME, in milliseconds. */
+    public void setUntil(long time) {
+        _until = time;
+    }
+
+    /** Skip commits that change none of the files or directories PATHS,
+     *  given relative to the working directory. */
+    public void setPaths(List<String> paths) {
+        _paths = new ArrayList<>(paths);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!_ready) {
+            advance();
+            _ready = true;
+        }
+        return _next != null;
+    }
+
+    @Override
+    public Commit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        _ready = false;
+        return _next;
+    }
+
+    /** Set _next to the next commit that passes every filter, or to null
+     *  if there is none. */
+    private void advance() {
+        _next = null;
+        while (_pos >= 0 && _limit != 0) {
+            int pos = _pos;
+            _pos = _firstParents ? _graph.firstParent(pos) : pos - 1;
+            long time = _graph.time(pos);
+            if (time < _since || time > _until) {
+                continue;
+            }
+            Commit commit = _store.readCommit(_graph.id(pos));
+            if (_paths.isEmpty() || changes(commit, _graph.firstParent(pos))) {
+                _next = commit;
+                _limit -= 1;
+                return;
+            }
+        }
+    }
+
+    /** Return whether COMMIT changes one of _paths from the commit at
+     *  position PARENT of the graph, or has one of them if PARENT is -1. */
+    private boolean changes(Commit commit, int parent) {
+        Commit before = parent < 0 ? null
+            : _store.readCommit(_graph.id(parent));
+        for (String path : _paths) {
+            String now = entry(commit, path);
+            String then = before == null ? null : entry(before, path);
+            if (now == null ? then != null : !now.equals(then)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the id of the blob or Tree at PATH in COMMIT, or null if it
+     *  has none.  Commits saved before there were trees have files only. */
+    private String entry(Commit commit, String path) {
+        if (commit.getTree() == null) {
+            return commit.getBlobs().get(path);
+        }
+        return Tree.entry(_store, commit.getTree(), path);
+    }
+
+    /** The store holding the commits. */
+    private ObjectStore _store;
+
+    /** The graph of _store. */
+    private CommitGraph _graph;
+
+    /** Whether to follow first parents rather than every position. */
+    private boolean _firstParents;
+
+    /** Position of the next commit to consider, or -1 at the end. */
+    private int _pos;
+
+    /** Number of commits still to produce, or -1 for no limit. */
+    private int _limit = -1;
+
+    /** Earliest time of a commit produced, in milliseconds. */
+    private long _since = Long.MIN_VALUE;
+
+    /** Latest time of a commit produced, in milliseconds. */
+    private long _until = Long.MAX_VALUE;
+
+    /** Paths one of which a commit produced must change, or empty for
+     *  no filter. */
+    private ArrayList<String> _paths = new ArrayList<>();
+
+    /** The next commit to produce, once _ready. */
+    private Commit _next;
+
+    /** Whether _next is computed. */
+    private boolean _ready;
+}
@@ -0,0 +1,326 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A Daemon runs gitlet commands for one repository inside a single
+ *  long-running JVM, so that commands pay neither JVM startup nor the
+ *  loading of the object store, commit graph and configuration files.
+ *
+ *  The daemon listens on the Unix-domain socket .gitlet/daemon.sock.  A
+ *  request is the arguments of a command, each followed by a NUL byte,
+ *  ended by a newline; the reply is everything the command prints, after
+ *  which the daemon closes the connection.  The reply is a sequence of
+ *  frames, each a byte naming the stream, OUT or ERR, the int length of
+ *  the frame and that many bytes, so that a client prints errors to its
+ *  standard error as the command would without the daemon.  Main sends
+ *  its arguments to the daemon whenever the socket exists, so clients
+ *  need not change, and any program that can write to a socket can be a
+ *  client.  A command run with a gitlet.* system property, such as
+ *  gitlet.codec or gitlet.timing, runs in its own JVM instead, since
+ *  the daemon would not see the property.
+ *
+ *  Commands run one at a time, so they never interleave, and every
+ *  command writes its changes to disk before its reply is complete, as
+ *  it would without the daemon.  The daemon holds a lock on
+ *  .gitlet/daemon.lock so that only one runs per repository.  While it
+ *  runs, configuration objects are kept in memory and read again only if
+ *  their file changed; they are dropped whenever a command fails.  The
+ *  object store is kept too, and before each command reads again the
+ *  commit graph, indexes and packs that other processes changed, such as
+ *  a push through gitlet serve or from another repository.
+ *  @author Wenhao Pan
+ */
+public class Daemon {
+
+    /** A Daemon for the repository directory GITLET. */
+    public Daemon(File gitlet) {
+        _socket = Utils.join(gitlet, "daemon.sock");
+        _lock = Utils.join(gitlet, "daemon.lock");
+    }
+
+    /** Serve requests until a client asks the daemon to stop. */
+    public void serve() throws IOException {
+        try (FileChannel lockChannel = FileChannel.open(_lock.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock held = lockChannel.tryLock()) {
+            if (held == null) {
+                throw Utils.error(RUNNING.trim());
+            }
+            Files.deleteIfExists(_socket.toPath());
+            _kept = new HashMap<>();
+            try (ServerSocketChannel server =
+                     ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+                server.bind(UnixDomainSocketAddress.of(_socket.toPath()));
+                _server = server;
+                while (server.isOpen()) {
+                    SocketChannel client;
+                    try {
+                        client = server.accept();
+                    } catch (AsynchronousCloseException excp) {
+                        break;
+                    }
+                    Thread handler = new Thread(() -> handle(client));
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } finally {
+                _kept = null;
+                Files.deleteIfExists(_socket.toPath());
+            }
+        }
+    }
+
+    /** Send the command ARGS to the daemon of the repository directory
+     *  GITLET and copy what it prints to OUT and its errors to ERR.
+     *  Return false, having sent nothing, if no daemon is listening or
+     *  a gitlet.* system property is set. */
+    public static boolean send(File gitlet, OutputStream out,
+                               OutputStream err, String... args) {
+        File socket = Utils.join(gitlet, "daemon.sock");
+        if (!socket.exists() || System.getProperties().stringPropertyNames()
+                .stream().anyMatch(name -> name.startsWith("gitlet."))) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(
+                    UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (channel) {
+            OutputStream request = Channels.newOutputStream(channel);
+            for (String arg : args) {
+                request.write(arg.getBytes(StandardCharsets.UTF_8));
+                request.write(0);
+            }
+            request.write('\n');
+            request.flush();
+            DataInputStream reply = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            for (int stream = reply.read(); stream >= 0;
+                 stream = reply.read()) {
+                int length = reply.readInt();
+                if (length < 0 || length > MAX_FRAME_BYTES
+                        || stream != OUT && stream != ERR) {
+                    throw new IOException("Bad reply.");
+                }
+                (stream == OUT ? out : err).write(reply.readNBytes(length));
+            }
+            out.flush();
+            err.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Lost connection to the gitlet daemon.");
+        }
+        return true;
+    }
+
+    /** Return the configuration object of class TYPE stored in FILE,
+     *  reusing the copy kept in memory while a daemon runs if FILE has
+     *  not changed since it was read or written. */
+    static <T extends Serializable> T readConfig(File file, Class<T> type) {
+        if (_kept == null) {
+            return Utils.readObject(file, type);
+        }
+        Kept kept = _kept.get(file);
+        if (kept == null || !kept.matches(file)) {
+            kept = new Kept(Utils.readObject(file, type), file);
+            _kept.put(file, kept);
+        }
+        return type.cast(kept._value);
+    }
+
+    /** Write each configuration object of CONFIGS to its file, as one
+     *  transaction of JOURNAL, keeping them in memory while a daemon
+     *  runs. */
+    static void writeConfigs(Journal journal,
+                             Map<File, Serializable> configs) {
+        LinkedHashMap<File, byte[]> updates = new LinkedHashMap<>();
+        for (Map.Entry<File, Serializable> config : configs.entrySet()) {
+            updates.put(config.getKey(), Utils.serialize(config.getValue()));
+        }
+        journal.commit(updates);
+        if (_kept != null) {
+            for (Map.Entry<File, Serializable> config : configs.entrySet()) {
+                _kept.put(config.getKey(),
+                        new Kept(config.getValue(), config.getKey()));
+            }
+        }
+    }
+
+    /** Read the request of CLIENT, run it, and write back its output. */
+    private void handle(SocketChannel client) {
+        try (client) {
+            String[] args = readRequest(Channels.newInputStream(client));
+            DataOutputStream reply = new DataOutputStream(
+                    Channels.newOutputStream(client));
+            PrintStream out = frames(reply, OUT);
+            PrintStream err = frames(reply, ERR);
+            synchronized (this) {
+                if (args.length == 0 || !args[0].equals("daemon")) {
+                    run(args, out, err);
+                } else if (args.length == 2 && args[1].equals("stop")) {
+                    out.print(STOPPED);
+                    _server.close();
+                } else {
+                    out.print(RUNNING);
+                }
+            }
+            out.flush();
+            err.flush();
+        } catch (IOException excp) {
+            /* The client went away; there is nobody to tell. */
+        }
+    }
+
+    /** Run the command ARGS, printing what it prints to OUT and its
+     *  errors to ERR. */
+    private void run(String[] args, PrintStream out, PrintStream err) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(out);
+        System.setErr(err);
+        try {
+            ObjectStore.local().refresh();
+            Main.run(args);
+        } catch (GitletException | IOException excp) {
+            err.println(excp.getMessage());
+            _kept.clear();
+        } catch (RuntimeException excp) {
+            err.println(excp);
+            _kept.clear();
+        } finally {
+            out.flush();
+            err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+    /** Return a stream printing to REPLY as frames of the stream
+     *  numbered STREAM, one per line or buffer full. */
+    private static PrintStream frames(DataOutputStream reply, int stream) {
+        OutputStream frames = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+                throws IOException {
+                if (len > 0) {
+                    synchronized (reply) {
+                        reply.writeByte(stream);
+                        reply.writeInt(len);
+                        reply.write(b, off, len);
+                    }
+                }
+            }
+        };
+        return new PrintStream(new BufferedOutputStream(frames,
+                MAX_FRAME_BYTES), true, StandardCharsets.UTF_8);
+    }
+
+    /** Return the arguments of the request read from IN. */
+    private static String[] readRequest(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c < 0 || bytes.size() >= MAX_REQUEST_BYTES) {
+                throw new IOException("Bad request.");
+            }
+            bytes.write(c);
+        }
+        String request = bytes.toString(StandardCharsets.UTF_8);
+        if (request.isEmpty()) {
+            return new String[0];
+        }
+        if (request.endsWith("\0")) {
+            request = request.substring(0, request.length() - 1);
+        }
+        return request.split("\0", -1);
+    }
+
+    /** A configuration object kept in memory with the stat data of the
+     *  file it was read from or written to. */
+    private static class Kept {
+
+        /** Keep VALUE, just read from or written to FILE. */
+        Kept(Object value, File file) {
+            _value = value;
+            _modified = file.lastModified();
+            _length = file.length();
+        }
+
+        /** Return whether FILE has not changed since this was kept. */
+        boolean matches(File file) {
+            return file.lastModified() == _modified
+                && file.length() == _length;
+        }
+
+        /** The configuration object. */
+        private Object _value;
+
+        /** Modification time of the file in milliseconds. */
+        private long _modified;
+
+        /** Length of the file in bytes. */
+        private long _length;
+    }
+
+    /** Reply to a request to stop the daemon. */
+    private static final String STOPPED = "Daemon stopped.\n";
+
+    /** Reply to a request to start a daemon where one runs. */
+    private static final String RUNNING =
+        "A gitlet daemon is already running.\n";
+
+    /** Number of the stream of a reply that the command prints to. */
+    static final int OUT = 1;
+
+    /** Number of the stream of a reply that errors are printed to. */
+    static final int ERR = 2;
+
+    /** Maximum number of bytes in a frame of a reply. */
+    private static final int MAX_FRAME_BYTES = 1 << 16;
+
+    /** Maximum number of bytes in a request. */
+    private static final int MAX_REQUEST_BYTES = 1 << 20;
+
+    /** Configuration objects kept in memory by file, or null unless a
+     *  daemon is running in this JVM. */
+    private static HashMap<File, Kept> _kept;
+
+    /** The socket clients connect to. */
+    private File _socket;
+
+    /** The file locked while the daemon runs. */
+    private File _lock;
+
+    /** The channel accepting clients, once serving. */
+    private ServerSocketChannel _server;
+}
@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** A Codec that compresses blobs with the Deflate algorithm of the JDK
+ *  at a chosen compression level.  Blobs written at any level are
+ *  decoded alike.
+ *  @author Wenhao Pan
+ */
+public class DeflateCodec implements Codec {
+
+    /** A DeflateCodec compressing at LEVEL, from 1 to 9. */
+    public DeflateCodec(int level) {
+        _level = level;
+    }
+
+    @Override
+    public int encoding() {
+        return ENCODING;
+    }
+
+    @Override
+    public void encode(InputStream in, OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(_level);
+        try {
+            DeflaterOutputStream deflated =
+                new DeflaterOutputStream(out, deflater, Blob.BUFFER_SIZE);
+            in.transferTo(deflated);
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public InputStream decode(InputStream in) {
+        return new InflaterInputStream(in, new Inflater(), Blob.BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                inf.end();
+                super.close();
+            }
+        };
+    }
+
+    /** Return the compression level of this codec. */
+    public int getLevel() {
+        return _level;
+    }
+
+    /** Encoding number of blobs written by a DeflateCodec. */
+    static final int ENCODING = 1;
+
+    /** Compression level used unless another is chosen. */
+    static final int DEFAULT_LEVEL = 6;
+
+    /** The compression level, from 1 to 9. */
+    private int _level;
+}
@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** A Delta describes one byte array, the target, as a sequence of copies
+ *  of ranges of another, the source, and of inserted bytes.  A delta is
+ *  the length of the target followed by its operations: COPY with the
+ *  offset and length of a range of the source, or INSERT with a length
+ *  and that many bytes.  Matches are found by indexing the source in
+ *  blocks of BLOCK bytes and sliding a rolling hash over the target.
+ *  @author Wenhao Pan
+ */
+class Delta {
+
+    /** Return a delta turning SOURCE into TARGET. */
+    static byte[] create(byte[] source, byte[] target) {
+        int size = Integer.highestOneBit(Math.max(1,
+                source.length / BLOCK) * 2 - 1) * 2;
+        int shift = Integer.numberOfLeadingZeros(size) + 1;
+        int[] table = new int[size];
+        for (int i = 0; i + BLOCK <= source.length; i += BLOCK) {
+            table[slot(hash(source, i), shift)] = i + 1;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(target.length);
+            int pending = 0;
+            int pos = 0;
+            int h = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (pos + BLOCK <= target.length) {
+                int from = table[slot(h, shift)] - 1;
+                if (from >= 0 && same(source, from, target, pos)) {
+                    int start = pos;
+                    while (from > 0 && start > pending
+                            && source[from - 1] == target[start - 1]) {
+                        from -= 1;
+                        start -= 1;
+                    }
+                    int length = pos + BLOCK - start;
+                    while (from + length < source.length
+                            && start + length < target.length
+                            && source[from + length]
+                            == target[start + length]) {
+                        length += 1;
+                    }
+                    insert(out, target, pending, start);
+                    out.writeByte(COPY);
+                    out.writeInt(from);
+                    out.writeInt(length);
+                    pos = start + length;
+                    pending = pos;
+                    if (pos + BLOCK <= target.length) {
+                        h = hash(target, pos);
+                    }
+                } else {
+                    if (pos + BLOCK < target.length) {
+                        h = (h - (target[pos] & 0xff) * POWER) * PRIME
+                            + (target[pos + BLOCK] & 0xff);
+                    }
+                    pos += 1;
+                }
+            }
+            insert(out, target, pending, target.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the target of the delta read from DELTA, applied to
+     *  SOURCE. */
+    static byte[] apply(byte[] source, InputStream delta) throws IOException {
+        DataInputStream in = new DataInputStream(delta);
+        byte[] result = new byte[in.readInt()];
+        int pos = 0;
+        while (pos < result.length) {
+            int op = in.readByte();
+            int from = op == COPY ? in.readInt() : 0;
+            int length = in.readInt();
+            if (length < 0 || length > result.length - pos) {
+                throw Utils.error("Corrupted delta.");
+            }
+            if (op == COPY) {
+                if (from < 0 || from > source.length - length) {
+                    throw Utils.error("Corrupted delta.");
+                }
+                System.arraycopy(source, from, result, pos, length);
+            } else if (op == INSERT) {
+                in.readFully(result, pos, length);
+            } else {
+                throw Utils.error("Corrupted delta.");
+            }
+            pos += length;
+        }
+        return result;
+    }
+
+    /** Write an INSERT of TARGET[FROM .. TO) to OUT unless it is empty. */
+    private static void insert(DataOutputStream out, byte[] target,
+                               int from, int to) throws IOException {
+        if (from < to) {
+            out.writeByte(INSERT);
+            out.writeInt(to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Return the hash of the BLOCK bytes of DATA starting at POS. */
+    private static int hash(byte[] data, int pos) {
+        int result = 0;
+        for (int i = pos; i < pos + BLOCK; i += 1) {
+            result = result * PRIME + (data[i] & 0xff);
+        }
+        return result;
+    }
+
+    /** Return the slot of hash H in a table indexed by its top bits,
+     *  dropping SHIFT of them. */
+    private static int slot(int h, int shift) {
+        return (h * 0x9e3779b9) >>> shift;
+    }
+
+    /** Return whether the BLOCK bytes of SOURCE at FROM equal those of
+     *  TARGET at POS. */
+    private static boolean same(byte[] source, int from,
+                                byte[] target, int pos) {
+        for (int i = 0; i < BLOCK; i += 1) {
+            if (source[from + i] != target[pos + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Operation copying a range of the source. */
+    private static final int COPY = 0;
+
+    /** Operation inserting literal bytes. */
+    private static final int INSERT = 1;
+
+    /** Number of bytes in the blocks of the source that are indexed. */
+    private static final int BLOCK = 16;
+
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+
+    /** PRIME to the power BLOCK - 1, modulo 2 to the 32. */
+    private static final int POWER;
+
+    static {
+        int power = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            power *= PRIME;
+        }
+        POWER = power;
+    }
+}
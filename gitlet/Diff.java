@@ -0,0 +1,218 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+/** A Diff lists the paths whose blob ids differ between two versions of
+ *  the files of a repository, each a commit or the working directory,
+ *  with the blob id each version has, or null where the path is absent.
+ *  No blob content is ever read.  Two commits with trees are compared
+ *  tree by tree, and a directory with the same tree in both is skipped
+ *  without being read, so the cost is that of the changed directories
+ *  rather than of every file.  The working directory is compared through
+ *  the Index, so an unchanged file costs a stat.
+ *  @author Wenhao Pan
+ */
+public class Diff {
+
+    /** An empty Diff. */
+    private Diff() {
+        _changes = new TreeMap<>();
+    }
+
+    /** Return the differences from commit FROM to commit TO, both read
+     *  from STORE. */
+    static Diff commits(ObjectStore store, Commit from, Commit to) {
+        if (from.getTree() != null && to.getTree() != null) {
+            return trees(store, from.getTree(), to.getTree());
+        }
+        return maps(from.getBlobs(), to.getBlobs());
+    }
+
+    /** Return the differences from the Tree FROM to the Tree TO in STORE,
+     *  either of which may be null for an empty directory. */
+    static Diff trees(ObjectStore store, String from, String to) {
+        Diff result = new Diff();
+        result.addTrees(store, from, to, "");
+        return result;
+    }
+
+    /** Return the differences from FROM to TO, which map paths to blob
+     *  ids. */
+    static Diff maps(Map<String, String> from, Map<String, String> to) {
+        Diff result = new Diff();
+        for (Map.Entry<String, String> file : from.entrySet()) {
+            result.add(file.getKey(), file.getValue(),
+                    to.get(file.getKey()));
+        }
+        for (Map.Entry<String, String> file : to.entrySet()) {
+            if (!from.containsKey(file.getKey())) {
+                result.add(file.getKey(), null, file.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** Return the differences from COMMIT to the working directory DIR,
+     *  whose plain files are FILES, finding the blob ids of its files
+     *  with WRITER and INDEX.  Files COMMIT does not track are listed
+     *  with a new id that is only computed when it is asked for. */
+    static Diff working(Commit commit, File dir, List<String> files,
+                        BlobWriter writer, Index index) throws IOException {
+        Diff result = new Diff();
+        result._dir = dir;
+        result._index = index;
+        HashSet<String> present = new HashSet<>(files);
+        ArrayList<String> tracked = new ArrayList<>();
+        for (Map.Entry<String, String> file : commit.getBlobs().entrySet()) {
+            if (present.contains(file.getKey())) {
+                tracked.add(file.getKey());
+            } else {
+                result.add(file.getKey(), file.getValue(), null);
+            }
+        }
+        Collections.sort(tracked);
+        String[] ids = writer.hash(dir, tracked);
+        for (int i = 0; i < ids.length; i += 1) {
+            result.add(tracked.get(i), commit.getBlobId(tracked.get(i)),
+                    ids[i]);
+        }
+        result._unhashed = new HashSet<>();
+        for (String file : files) {
+            if (!commit.checkTrackedName(file)) {
+                result._changes.put(file, new String[2]);
+                result._unhashed.add(file);
+            }
+        }
+        return result;
+    }
+
+    /** Return the paths that differ, in order. */
+    public SortedSet<String> getPaths() {
+        return Collections.unmodifiableSortedSet(_changes.navigableKeySet());
+    }
+
+    /** Return whether PATH differs. */
+    public boolean contains(String path) {
+        return _changes.containsKey(path);
+    }
+
+    /** Return whether no path differs. */
+    public boolean isEmpty() {
+        return _changes.isEmpty();
+    }
+
+    /** Return the blob id of PATH in the first version, or null if it is
+     *  absent there or does not differ. */
+    public String oldId(String path) {
+        String[] change = _changes.get(path);
+        return change == null ? null : change[0];
+    }
+
+    /** Return the blob id of PATH in the second version, or null if it is
+     *  absent there or does not differ. */
+    public String newId(String path) {
+        String[] change = _changes.get(path);
+        if (change == null) {
+            return null;
+        } else if (_unhashed != null && _unhashed.remove(path)) {
+            change[1] = _index.blobId(path, Utils.join(_dir, path));
+        }
+        return change[1];
+    }
+
+    /** Return the paths that are only in the second version, in order. */
+    public List<String> getAdded() {
+        return select(false, true);
+    }
+
+    /** Return the paths that are only in the first version, in order. */
+    public List<String> getRemoved() {
+        return select(true, false);
+    }
+
+    /** Return the paths that are in both versions with different blob
+     *  ids, in order. */
+    public List<String> getModified() {
+        return select(true, true);
+    }
+
+    /** Return the paths that are in the first version exactly if OLD and
+     *  in the second exactly if NEW, in order. */
+    private List<String> select(boolean old, boolean now) {
+        ArrayList<String> result = new ArrayList<>();
+        for (Map.Entry<String, String[]> change : _changes.entrySet()) {
+            boolean inNew = change.getValue()[1] != null
+                || _unhashed != null && _unhashed.contains(change.getKey());
+            if ((change.getValue()[0] != null) == old && inNew == now) {
+                result.add(change.getKey());
+            }
+        }
+        return result;
+    }
+
+    /** Record that PATH has blob id OLD in the first version and NOW in
+     *  the second, either null if it is absent, unless they are equal. */
+    private void add(String path, String old, String now) {
+        if (old == null ? now != null : !old.equals(now)) {
+            _changes.put(path, new String[] {old, now});
+        }
+    }
+
+    /** Add the differences from the Tree FROM to the Tree TO in STORE,
+     *  either of which may be null, for paths preceded by PREFIX. */
+    private void addTrees(ObjectStore store, String from, String to,
+                          String prefix) {
+        if (from == null ? to == null : from.equals(to)) {
+            return;
+        }
+        Map<String, String> noFiles = Collections.emptyMap();
+        Tree old = from == null ? null : store.readTree(from);
+        Tree now = to == null ? null : store.readTree(to);
+        Map<String, String> oldBlobs = old == null ? noFiles : old.getBlobs();
+        Map<String, String> newBlobs = now == null ? noFiles : now.getBlobs();
+        Map<String, String> oldTrees = old == null ? noFiles : old.getTrees();
+        Map<String, String> newTrees = now == null ? noFiles : now.getTrees();
+        for (Map.Entry<String, String> file : oldBlobs.entrySet()) {
+            add(prefix + file.getKey(), file.getValue(),
+                    newBlobs.get(file.getKey()));
+        }
+        for (Map.Entry<String, String> file : newBlobs.entrySet()) {
+            if (!oldBlobs.containsKey(file.getKey())) {
+                add(prefix + file.getKey(), null, file.getValue());
+            }
+        }
+        for (Map.Entry<String, String> dir : oldTrees.entrySet()) {
+            addTrees(store, dir.getValue(), newTrees.get(dir.getKey()),
+                    prefix + dir.getKey() + "/");
+        }
+        for (Map.Entry<String, String> dir : newTrees.entrySet()) {
+            if (!oldTrees.containsKey(dir.getKey())) {
+                addTrees(store, null, dir.getValue(),
+                        prefix + dir.getKey() + "/");
+            }
+        }
+    }
+
+    /** The blob ids of the first and second versions of each path that
+     *  differs, by path. */
+    private TreeMap<String, String[]> _changes;
+
+    /** Paths only in the working directory whose new id is not computed
+     *  yet, or null if the second version is not a working directory. */
+    private Set<String> _unhashed;
+
+    /** The working directory of the second version, or null. */
+    private File _dir;
+
+    /** The index giving the blob ids of the files of _dir, or null. */
+    private Index _index;
+}
@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A GarbageCollector frees the space an ObjectStore spends on objects
+ *  nothing refers to any more: versions added and then replaced, blobs
+ *  written again by add for unchanged files, the history of deleted
+ *  branches.  It first marks every object reachable from the commits and
+ *  blobs it is given, walking the commit graph from those commits and
+ *  then the trees of the commits found on a pool of threads, each tree
+ *  and blob once however many commits share it.  It then sweeps the
+ *  store, which moves the marked objects into one pack and deletes the
+ *  rest.  Objects written less than a grace period ago are kept marked
+ *  or not, since a command that takes no lock may have written them for
+ *  a commit it has not made yet.
+ *  @author Wenhao Pan
+ */
+class GarbageCollector {
+
+    /** A GarbageCollector for STORE keeping every object written less
+     *  than GRACE milliseconds ago, and marking with THREADS threads. */
+    GarbageCollector(ObjectStore store, long grace, int threads) {
+        _store = store;
+        _grace = grace;
+        _threads = threads;
+    }
+
+    /** A GarbageCollector for STORE with the grace period in seconds
+     *  the gitlet.gcGrace property says, two weeks by default, and as
+     *  many threads as the gitlet.threads property says, or one per
+     *  processor. */
+    GarbageCollector(ObjectStore store) {
+        this(store, Long.getLong(GRACE_PROPERTY, DEFAULT_GRACE) * 1000,
+                Integer.getInteger(BlobWriter.THREADS_PROPERTY,
+                        Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Mark the stored COMMITS and all of their ancestors, with every
+     *  tree and blob they need, and the BLOBS with the objects they are
+     *  read from.  Null ids are ignored. */
+    void mark(Collection<String> commits, Collection<String> blobs)
+        throws IOException {
+        CommitGraph graph = _store.graph();
+        BitSet seen = new BitSet();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (String id : commits) {
+            if (id != null && _store.hasCommit(id)) {
+                int pos = graph.index(id);
+                if (!seen.get(pos)) {
+                    seen.set(pos);
+                    queue.add(pos);
+                }
+            }
+        }
+        while (!queue.isEmpty()) {
+            for (int parent : graph.parents(queue.remove())) {
+                if (!seen.get(parent)) {
+                    seen.set(parent);
+                    queue.add(parent);
+                }
+            }
+        }
+        String[] ids = seen.stream().mapToObj(graph::id)
+            .toArray(String[]::new);
+        for (String id : ids) {
+            _commits.add(id);
+        }
+        BlobWriter.forEach(_threads, ids.length, i -> {
+            try {
+                markCommit(ids[i]);
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        });
+        for (String id : blobs) {
+            if (id != null) {
+                markBlob(id);
+            }
+        }
+    }
+
+    /** Delete every object of the store that is not marked and was
+     *  written before the grace period, and move the others into one
+     *  pack. */
+    void sweep() throws IOException {
+        _before = _store.diskBytes();
+        _removed = _store.prune(this::isMarked,
+                System.currentTimeMillis() - _grace);
+        _after = _store.diskBytes();
+    }
+
+    /** Return whether the object ID of the given KIND is marked. */
+    boolean isMarked(String id, int kind) {
+        switch (kind) {
+        case ObjectStore.COMMIT:
+            return _commits.contains(id);
+        case ObjectStore.TREE:
+            return _trees.contains(id);
+        case ObjectStore.BLOB:
+            return _blobs.contains(id);
+        default:
+            return _chunks.contains(id);
+        }
+    }
+
+    /** Mark the tree of commit ID, or the blobs of a commit saved before
+     *  there were trees. */
+    private void markCommit(String id) throws IOException {
+        Commit commit = _store.readCommit(id);
+        if (commit.getTree() != null) {
+            markTree(commit.getTree());
+        } else {
+            for (String blob : commit.getBlobs().values()) {
+                markBlob(blob);
+            }
+        }
+    }
+
+    /** Mark tree ID with its blobs and subtrees, unless it is marked. */
+    private void markTree(String id) throws IOException {
+        if (!_trees.add(id)) {
+            return;
+        }
+        Tree tree = _store.readTree(id);
+        for (String blob : tree.getBlobs().values()) {
+            markBlob(blob);
+        }
+        for (String sub : tree.getTrees().values()) {
+            markTree(sub);
+        }
+    }
+
+    /** Mark blob ID with its delta base or chunks, unless it is marked.
+     *  A blob left out by a blob-less fetch is marked without being
+     *  fetched. */
+    private void markBlob(String id) throws IOException {
+        if (!_blobs.add(id) || !_store.contains(id, ObjectStore.BLOB)) {
+            return;
+        }
+        for (Pack.Entry part : _store.parts(id)) {
+            if (part.getKind() == ObjectStore.BLOB) {
+                markBlob(part.getId());
+            } else {
+                _chunks.add(part.getId());
+            }
+        }
+    }
+
+    /** Return the number of commits marked. */
+    int commits() {
+        return _commits.size();
+    }
+
+    /** Return the number of trees marked. */
+    int trees() {
+        return _trees.size();
+    }
+
+    /** Return the number of blobs marked. */
+    int blobs() {
+        return _blobs.size();
+    }
+
+    /** Return the number of chunks marked. */
+    int chunks() {
+        return _chunks.size();
+    }
+
+    /** Return the number of objects the sweep deleted. */
+    int removed() {
+        return _removed;
+    }
+
+    /** Return the number of bytes the store took before the sweep. */
+    long before() {
+        return _before;
+    }
+
+    /** Return the number of bytes the store takes after the sweep, which
+     *  may be more for a small store, since packs have indexes. */
+    long after() {
+        return _after;
+    }
+
+    /** Name of the system property choosing the grace period in
+     *  seconds. */
+    static final String GRACE_PROPERTY = "gitlet.gcGrace";
+
+    /** Default grace period in seconds: two weeks. */
+    static final long DEFAULT_GRACE = 14 * 24 * 60 * 60;
+
+    /** The store collected. */
+    private ObjectStore _store;
+
+    /** Grace period in milliseconds. */
+    private long _grace;
+
+    /** Number of threads marking trees. */
+    private int _threads;
+
+    /** Ids of the marked commits. */
+    private Set<String> _commits = ConcurrentHashMap.newKeySet();
+
+    /** Ids of the marked trees. */
+    private Set<String> _trees = ConcurrentHashMap.newKeySet();
+
+    /** Ids of the marked blobs. */
+    private Set<String> _blobs = ConcurrentHashMap.newKeySet();
+
+    /** Ids of the marked chunks. */
+    private Set<String> _chunks = ConcurrentHashMap.newKeySet();
+
+    /** Number of objects the sweep deleted. */
+    private int _removed;
+
+    /** Number of bytes the store took before the sweep. */
+    private long _before;
+
+    /** Number of bytes the store takes after the sweep. */
+    private long _after;
+}
@@ -0,0 +1,218 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/** An Index remembers, for working files whose blob id has been computed,
+ *  the size, modification time and inode the file had at the time, so
+ *  that the id of a file whose stat data has not changed since is known
+ *  without reading the file.  A file modified within RACY_NANOS before
+ *  its id was computed may have changed again within the resolution of
+ *  its timestamp, so such racily clean entries are not trusted and the
+ *  file is hashed again.  The index is only a cache: a missing or
+ *  unreadable file simply makes every file be hashed.  Blob ids may be
+ *  looked up from several threads at once.
+ *  @author Wenhao Pan
+ */
+public class Index {
+
+    /** An Index kept in FILE. */
+    public Index(File file) {
+        _file = file;
+    }
+
+    /** Return the blob id of working file FILE, known in the index as
+     *  NAME, hashing the file only if its stat data changed or its entry
+     *  is racily clean. */
+    public String blobId(String name, File file) {
+        load();
+        long[] stat = stat(file);
+        Entry entry = _entries.get(name);
+        if (entry != null && entry.matches(stat)
+                && entry._mtime + RACY_NANOS < entry._checked) {
+            return entry._id;
+        }
+        long checked = now();
+        String id = new Blob(file).getId();
+        _entries.put(name, new Entry(stat, checked, id));
+        _dirty = true;
+        return id;
+    }
+
+    /** Record that working file FILE, known in the index as NAME, was
+     *  just written with the content of blob ID. */
+    public void update(String name, File file, String id) {
+        load();
+        _entries.put(name, new Entry(stat(file), now(), id));
+        _dirty = true;
+    }
+
+    /** Write the index back to its file if it changed, dropping entries
+     *  of files that no longer exist in DIR. */
+    public void save(File dir) {
+        if (!_dirty) {
+            return;
+        }
+        _entries.keySet().removeIf(name -> !Utils.join(dir, name).isFile());
+        File temp;
+        try {
+            temp = File.createTempFile("index-", null,
+                    _file.getAbsoluteFile().getParentFile());
+        } catch (IOException excp) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, Entry> each : _entries.entrySet()) {
+                Entry entry = each.getValue();
+                out.writeUTF(each.getKey());
+                out.writeLong(entry._size);
+                out.writeLong(entry._mtime);
+                out.writeLong(entry._inode);
+                out.writeLong(entry._checked);
+                out.write(Pack.toBytes(entry._id));
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), _file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+        }
+        _dirty = false;
+    }
+
+    /** Read the entries of the index file on first use. */
+    private synchronized void load() {
+        if (_entries != null) {
+            return;
+        }
+        _entries = new ConcurrentHashMap<>();
+        if (!_file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(_file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            for (int count = in.readInt(); count > 0; count -= 1) {
+                String name = in.readUTF();
+                long[] stat = {in.readLong(), in.readLong(), in.readLong()};
+                long checked = in.readLong();
+                String id = Pack.toHex(in.readNBytes(Pack.ID_BYTES));
+                _entries.put(name, new Entry(stat, checked, id));
+            }
+        } catch (IOException excp) {
+            _entries.clear();
+        }
+    }
+
+    /** Return the size, modification time in nanoseconds and inode number
+     *  of FILE, the inode being 0 where the file system has none. */
+    private static long[] stat(File file) {
+        Map<String, Object> attrs;
+        try {
+            if (_unix) {
+                try {
+                    attrs = Files.readAttributes(file.toPath(),
+                            "unix:size,lastModifiedTime,ino");
+                } catch (UnsupportedOperationException excp) {
+                    _unix = false;
+                    return stat(file);
+                }
+            } else {
+                attrs = Files.readAttributes(file.toPath(),
+                        "size,lastModifiedTime");
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        long mtime = ((FileTime) attrs.get("lastModifiedTime"))
+                .to(TimeUnit.NANOSECONDS);
+        Object inode = attrs.get("ino");
+        return new long[] {(Long) attrs.get("size"), mtime,
+            inode == null ? 0 : (Long) inode};
+    }
+
+    /** Return the current time in nanoseconds since the epoch. */
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+    /** The stat data and blob id of one working file. */
+    private static class Entry {
+
+        /** An entry for a file with STAT data, as returned by stat, whose
+         *  blob id ID was computed at time CHECKED. */
+        Entry(long[] stat, long checked, String id) {
+            _size = stat[0];
+            _mtime = stat[1];
+            _inode = stat[2];
+            _checked = checked;
+            _id = id;
+        }
+
+        /** Return whether STAT is the stat data of this entry. */
+        boolean matches(long[] stat) {
+            return _size == stat[0] && _mtime == stat[1]
+                && _inode == stat[2];
+        }
+
+        /** Size of the file in bytes. */
+        private long _size;
+
+        /** Modification time of the file in nanoseconds. */
+        private long _mtime;
+
+        /** Inode number of the file, or 0. */
+        private long _inode;
+
+        /** Time in nanoseconds at which the blob id was computed. */
+        private long _checked;
+
+        /** The blob id of the file. */
+        private String _id;
+    }
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47494458;
+
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** An entry whose file was modified less than this many nanoseconds
+     *  before its id was computed is racily clean. */
+    static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** Whether the file system is believed to provide unix attributes. */
+    private static boolean _unix = true;
+
+    /** The file holding the index. */
+    private File _file;
+
+    /** Entries by working file name, or null before loading. */
+    private ConcurrentHashMap<String, Entry> _entries;
+
+    /** Whether the entries changed since they were loaded or saved. */
+    private volatile boolean _dirty;
+}
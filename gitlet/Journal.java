@@ -0,0 +1,326 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/** A Journal makes each save of the configuration files of a repository
+ *  a single transaction that survives a crash at any point.  A
+ *  transaction appends one record holding the new contents of every
+ *  changed file to the journal file and syncs it to disk; that sync is
+ *  the commit point, and the only one a transaction pays for.  The files
+ *  are then replaced through a temporary file and an atomic rename,
+ *  without syncing them.
+ *
+ *  Recovery, run before the files are read, compares every file with
+ *  its latest contents in the journal and rewrites those that differ, so
+ *  a transaction cut short by the process dying, or files lost by the
+ *  system crashing before it wrote them out, are completed from the
+ *  journal; a record cut short before its sync finished fails its
+ *  checksum and is dropped, leaving the files as they were.  Once the
+ *  journal grows past CHECKPOINT_BYTES, the files it names and their
+ *  directories are synced together and the journal is emptied.
+ *
+ *  Writing the journal and recovering from it are done holding a lock
+ *  on a file beside it, so one process never recovers a file from an
+ *  older record while another replaces it.  Readers take no lock: a
+ *  snapshot reads files a transaction may be replacing from the journal
+ *  instead.
+ *
+ *  A record is its length, the number of files, each file as its path
+ *  relative to the directory of the journal, its length and its bytes,
+ *  and then the CRC32 of everything after the length.
+ *  @author Wenhao Pan
+ */
+public class Journal {
+
+    /** A Journal kept in FILE for configuration files below its
+     *  directory. */
+    public Journal(File file) {
+        _file = file;
+        _dir = file.getAbsoluteFile().getParentFile().toPath();
+    }
+
+    /** Replace the contents of every file in UPDATES with its bytes, as
+     *  one transaction.  Files whose contents are unchanged are left
+     *  alone, and nothing is written if none changed. */
+    public synchronized void commit(Map<File, byte[]> updates) {
+        HashMap<Path, byte[]> changed = new HashMap<>();
+        for (Map.Entry<File, byte[]> update : updates.entrySet()) {
+            Path path = update.getKey().getAbsoluteFile().toPath();
+            if (!sameContents(path, update.getValue())) {
+                changed.put(path, update.getValue());
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        try {
+            FileChannel lock = lock();
+            try (FileChannel journal = FileChannel.open(_file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                journal.write(ByteBuffer.wrap(record(changed)));
+                journal.force(false);
+                for (Map.Entry<Path, byte[]> update : changed.entrySet()) {
+                    replace(update.getKey(), update.getValue());
+                }
+                if (_file.length() > CHECKPOINT_BYTES) {
+                    checkpoint();
+                }
+            } finally {
+                lock.close();
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write journal.");
+        }
+    }
+
+    /** Bring every file named in the journal up to its latest contents
+     *  there, dropping a record cut short at the end of the journal. */
+    public synchronized void recover() {
+        if (!_file.exists() || _file.length() == 0) {
+            return;
+        }
+        try {
+            FileChannel lock = lock();
+            try {
+                for (Map.Entry<Path, byte[]> latest
+                         : read(true).entrySet()) {
+                    if (!sameContents(latest.getKey(), latest.getValue())) {
+                        replace(latest.getKey(), latest.getValue());
+                    }
+                }
+            } finally {
+                lock.close();
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write journal.");
+        }
+    }
+
+    /** Return the contents of each of FILES as of the last transaction
+     *  committed, without waiting for a transaction in progress or
+     *  writing anything.  Files written by a transaction that committed
+     *  but may not have replaced them yet are read from the journal, and
+     *  all are read again if a transaction commits meanwhile, so the
+     *  contents returned are consistent with each other. */
+    public Map<File, byte[]> snapshot(List<File> files) {
+        while (true) {
+            Object stamp = stamp();
+            HashMap<Path, byte[]> latest = _file.exists() ? read(false)
+                : new HashMap<>();
+            HashMap<File, byte[]> result = new HashMap<>();
+            for (File file : files) {
+                Path path = file.getAbsoluteFile().toPath();
+                byte[] bytes = latest.get(path);
+                try {
+                    result.put(file, bytes != null ? bytes
+                            : Files.readAllBytes(path));
+                } catch (IOException excp) {
+                    throw Utils.error("Cannot read %s.", file.getName());
+                }
+            }
+            if (stamp.equals(stamp())) {
+                return result;
+            }
+        }
+    }
+
+    /** Return a value that changes whenever a record is added to the
+     *  journal or it is emptied: its length and modification time. */
+    private Object stamp() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(
+                    _file.toPath(), BasicFileAttributes.class);
+            return List.of(attributes.size(),
+                    attributes.lastModifiedTime());
+        } catch (IOException excp) {
+            return List.of();
+        }
+    }
+
+    /** Return a channel holding the lock on the journal, which is taken
+     *  while it is written or files are recovered from it. */
+    private FileChannel lock() throws IOException {
+        FileChannel result = FileChannel.open(
+                Paths.get(_file.getPath() + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            result.lock();
+        } catch (IOException excp) {
+            result.close();
+            throw excp;
+        }
+        return result;
+    }
+
+    /** Sync every file named in the journal and their directories, and
+     *  empty the journal, whose records are then no longer needed. */
+    private void checkpoint() {
+        HashSet<Path> dirs = new HashSet<>();
+        for (Path path : read(true).keySet()) {
+            sync(path);
+            dirs.add(path.getParent());
+        }
+        for (Path dir : dirs) {
+            sync(dir);
+        }
+        try (FileChannel journal = FileChannel.open(_file.toPath(),
+                StandardOpenOption.WRITE)) {
+            journal.truncate(0);
+            journal.force(true);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write journal.");
+        }
+    }
+
+    /** Return the latest contents of every file named in the complete
+     *  records of the journal, by absolute path, truncating the journal
+     *  before a record cut short if REPAIR. */
+    private HashMap<Path, byte[]> read(boolean repair) {
+        HashMap<Path, byte[]> result = new HashMap<>();
+        ByteBuffer in;
+        try {
+            in = ByteBuffer.wrap(Files.readAllBytes(_file.toPath()));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read journal.");
+        }
+        while (in.remaining() > 0) {
+            int start = in.position();
+            if (!readRecord(in, result)) {
+                if (!repair) {
+                    break;
+                }
+                try (FileChannel journal = FileChannel.open(_file.toPath(),
+                        StandardOpenOption.WRITE)) {
+                    journal.truncate(start);
+                } catch (IOException excp) {
+                    throw Utils.error("Cannot write journal.");
+                }
+                break;
+            }
+        }
+        return result;
+    }
+
+    /** Read the record at the position of IN into CONTENTS, by absolute
+     *  path, and return true, or return false leaving CONTENTS alone if
+     *  the record is incomplete or fails its checksum. */
+    private boolean readRecord(ByteBuffer in, HashMap<Path, byte[]> contents) {
+        if (in.remaining() < Integer.BYTES) {
+            return false;
+        }
+        int length = in.getInt();
+        if (length < Integer.BYTES
+                || in.remaining() < (long) length + Long.BYTES) {
+            return false;
+        }
+        ByteBuffer body = in.slice(in.position(), length);
+        in.position(in.position() + length);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if (crc.getValue() != in.getLong()) {
+            return false;
+        }
+        HashMap<Path, byte[]> files = new HashMap<>();
+        try {
+            for (int count = body.getInt(); count > 0; count -= 1) {
+                byte[] name = new byte[body.getInt()];
+                body.get(name);
+                byte[] bytes = new byte[body.getInt()];
+                body.get(bytes);
+                files.put(_dir.resolve(new String(name,
+                        StandardCharsets.UTF_8)), bytes);
+            }
+        } catch (RuntimeException excp) {
+            return false;
+        }
+        contents.putAll(files);
+        return true;
+    }
+
+    /** Return the record of a transaction writing the CHANGED files. */
+    private byte[] record(Map<Path, byte[]> changed) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            out.writeInt(changed.size());
+            for (Map.Entry<Path, byte[]> update : changed.entrySet()) {
+                byte[] name = _dir.relativize(update.getKey()).toString()
+                    .getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeInt(update.getValue().length);
+                out.write(update.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] bytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return ByteBuffer.allocate(Integer.BYTES + bytes.length + Long.BYTES)
+            .putInt(bytes.length).put(bytes).putLong(crc.getValue()).array();
+    }
+
+    /** Return whether the file PATH exists and holds exactly BYTES. */
+    private static boolean sameContents(Path path, byte[] bytes) {
+        try {
+            return Files.size(path) == bytes.length
+                && Arrays.equals(Files.readAllBytes(path), bytes);
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Atomically replace the contents of the file PATH with BYTES. */
+    private static void replace(Path path, byte[] bytes) {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.write(temp, bytes);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s.", path.getFileName());
+        }
+    }
+
+    /** Sync the file or directory PATH to disk, if it exists.  Systems
+     *  that cannot sync a directory keep its entries some other way, so
+     *  a failure to sync one is ignored. */
+    private static void sync(Path path) {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!Files.isDirectory(path) && Files.exists(path)) {
+                throw Utils.error("Cannot sync %s.", path.getFileName());
+            }
+        }
+    }
+
+    /** Number of bytes past which the journal is checkpointed. */
+    static final long CHECKPOINT_BYTES = 1 << 20;
+
+    /** The journal file. */
+    private File _file;
+
+    /** Absolute path of the directory paths in records are relative to. */
+    private Path _dir;
+}
@@ -0,0 +1,482 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** A LineMerge merges two versions of a file, ours and theirs, made from
+ *  a common base, line by line in the manner of diff3.  Each version is
+ *  diffed against the base with the linear-space variant of Myers'
+ *  algorithm, and the lines all three versions share split the files
+ *  into chunks.  A chunk changed on one side only, or the same way on
+ *  both, is resolved by taking that change; a chunk changed differently
+ *  on both sides is a conflict, written between conflict markers.
+ *
+ *  Files are never held in memory.  They are read once to hash every
+ *  line, the diffs work on the hashes, and the result is written while
+ *  reading each file once more from start to end, so memory grows with
+ *  the number of lines but not with their length.  Lines are compared
+ *  by their 64-bit hashes.  A file holding a NUL byte is binary and is
+ *  not merged.
+ *  @author Wenhao Pan
+ */
+class LineMerge {
+
+    /** Something that opens a new stream over the content of a file. */
+    interface Source {
+        /** Return a new stream over the content of the file. */
+        InputStream open() throws IOException;
+    }
+
+    /** A LineMerge of OURS and THEIRS, both made from BASE. */
+    LineMerge(Source base, Source ours, Source theirs) throws IOException {
+        _sources = new Source[] {base, ours, theirs};
+        _sizes = new int[3];
+        long[][] lines = new long[3][];
+        for (int i = 0; i < 3; i += 1) {
+            lines[i] = hashLines(i);
+            if (lines[i] == null) {
+                _binary = true;
+                return;
+            }
+        }
+        int[] toOurs = match(lines[0], _sizes[0], lines[1], _sizes[1]);
+        int[] toTheirs = match(lines[0], _sizes[0], lines[2], _sizes[2]);
+        chunk(lines, toOurs, toTheirs);
+    }
+
+    /** Return whether a version is binary, in which case nothing is
+     *  merged. */
+    boolean isBinary() {
+        return _binary;
+    }
+
+    /** Return the number of conflicting chunks. */
+    int getConflicts() {
+        return _conflicts;
+    }
+
+    /** Write the merged file to OUT, with each conflicting chunk between
+     *  conflict markers. */
+    void write(OutputStream out) throws IOException {
+        if (_binary) {
+            throw new IllegalStateException("binary files are not merged");
+        }
+        LineReader[] in = new LineReader[3];
+        try {
+            for (int i = 0; i < 3; i += 1) {
+                in[i] = new LineReader(_sources[i].open());
+            }
+            for (int c = 0; c < _chunkCount; c += 1) {
+                int[] sizes = {_chunks[4 * c + 1], _chunks[4 * c + 2],
+                    _chunks[4 * c + 3]};
+                switch (_chunks[4 * c]) {
+                case STABLE:
+                case OURS:
+                    take(in, sizes, 1, out);
+                    break;
+                case THEIRS:
+                    take(in, sizes, 2, out);
+                    break;
+                default:
+                    out.write(marker("<<<<<<< HEAD"));
+                    in[1].copy(sizes[1], out);
+                    out.write(marker("======="));
+                    in[2].copy(sizes[2], out);
+                    out.write(marker(">>>>>>>"));
+                    in[0].copy(sizes[0], null);
+                }
+            }
+        } finally {
+            for (LineReader reader : in) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    /** Copy the next SIZES[SIDE] lines of IN[SIDE] to OUT, skipping the
+     *  next SIZES[I] lines of each other IN[I]. */
+    private static void take(LineReader[] in, int[] sizes, int side,
+                             OutputStream out) throws IOException {
+        for (int i = 0; i < 3; i += 1) {
+            in[i].copy(sizes[i], i == side ? out : null);
+        }
+    }
+
+    /** Return the bytes of the conflict marker line TEXT. */
+    private static byte[] marker(String text) {
+        return (text + System.lineSeparator())
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Split the versions, whose line hashes are LINES, into chunks given
+     *  that base line I is ours line TOOURS[I] and theirs line
+     *  TOTHEIRS[I], or -1 if it has no match there. */
+    private void chunk(long[][] lines, int[] toOurs, int[] toTheirs) {
+        _chunks = new int[4 * INITIAL_CHUNKS];
+        int base = 0;
+        int ours = 0;
+        int theirs = 0;
+        int n = _sizes[0];
+        while (base < n || ours < _sizes[1] || theirs < _sizes[2]) {
+            int stable = base;
+            while (stable < n && toOurs[stable] == ours + stable - base
+                   && toTheirs[stable] == theirs + stable - base) {
+                stable += 1;
+            }
+            if (stable > base) {
+                addChunk(STABLE, stable - base, stable - base,
+                        stable - base);
+                ours += stable - base;
+                theirs += stable - base;
+                base = stable;
+                continue;
+            }
+            int next = base;
+            while (next < n && (toOurs[next] < 0 || toTheirs[next] < 0)) {
+                next += 1;
+            }
+            int oursEnd = next < n ? toOurs[next] : _sizes[1];
+            int theirsEnd = next < n ? toTheirs[next] : _sizes[2];
+            int baseSize = next - base;
+            int oursSize = oursEnd - ours;
+            int theirsSize = theirsEnd - theirs;
+            int kind;
+            if (same(lines[0], base, lines[1], ours, baseSize, oursSize)) {
+                kind = THEIRS;
+            } else if (same(lines[0], base, lines[2], theirs, baseSize,
+                    theirsSize)
+                    || same(lines[1], ours, lines[2], theirs, oursSize,
+                    theirsSize)) {
+                kind = OURS;
+            } else {
+                kind = CONFLICT;
+                _conflicts += 1;
+            }
+            addChunk(kind, baseSize, oursSize, theirsSize);
+            base = next;
+            ours = oursEnd;
+            theirs = theirsEnd;
+        }
+    }
+
+    /** Append a chunk of the given KIND made of BASE, OURS and THEIRS
+     *  lines of each version, merging it into the previous chunk if that
+     *  is of the same kind and not a conflict. */
+    private void addChunk(int kind, int base, int ours, int theirs) {
+        int last = 4 * (_chunkCount - 1);
+        if (_chunkCount > 0 && _chunks[last] == kind && kind != CONFLICT) {
+            _chunks[last + 1] += base;
+            _chunks[last + 2] += ours;
+            _chunks[last + 3] += theirs;
+            return;
+        }
+        if (4 * _chunkCount == _chunks.length) {
+            _chunks = Arrays.copyOf(_chunks, 2 * _chunks.length);
+        }
+        _chunks[4 * _chunkCount] = kind;
+        _chunks[4 * _chunkCount + 1] = base;
+        _chunks[4 * _chunkCount + 2] = ours;
+        _chunks[4 * _chunkCount + 3] = theirs;
+        _chunkCount += 1;
+    }
+
+    /** Return whether the ASIZE lines of A from AFROM are the BSIZE lines
+     *  of B from BFROM. */
+    private static boolean same(long[] a, int aFrom, long[] b, int bFrom,
+                                int aSize, int bSize) {
+        return aSize == bSize && Arrays.equals(a, aFrom, aFrom + aSize,
+                b, bFrom, bFrom + bSize);
+    }
+
+    /** Return the hashes of the lines of VERSION, or null if it is
+     *  binary, recording their number in _sizes.  The array returned may
+     *  be longer than that.  A line ends after a newline or at the end of
+     *  the file. */
+    private long[] hashLines(int version) throws IOException {
+        long[] result = new long[INITIAL_LINES];
+        int count = 0;
+        try (InputStream in = _sources[version].open()) {
+            byte[] buffer = new byte[Blob.BUFFER_SIZE];
+            long hash = FNV_BASIS;
+            boolean open = false;
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                for (int i = 0; i < n; i += 1) {
+                    byte b = buffer[i];
+                    if (b == 0) {
+                        return null;
+                    }
+                    hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+                    open = true;
+                    if (b == '\n') {
+                        if (count == result.length) {
+                            result = Arrays.copyOf(result, 2 * count);
+                        }
+                        result[count] = hash;
+                        count += 1;
+                        hash = FNV_BASIS;
+                        open = false;
+                    }
+                }
+            }
+            if (open) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count + 1);
+                }
+                result[count] = hash;
+                count += 1;
+            }
+        }
+        _sizes[version] = count;
+        return result;
+    }
+
+    /** Return, for each of the first N lines of A, the index of the line
+     *  of the first M lines of B it is matched with by a shortest edit
+     *  script from one to the other, or -1. */
+    static int[] match(long[] a, int n, long[] b, int m) {
+        int[] result = new int[n];
+        Arrays.fill(result, -1);
+        diff(a, 0, n, b, 0, m, result);
+        return result;
+    }
+
+    /** Match the lines A[ALO .. AHI) with the lines B[BLO .. BHI) along a
+     *  shortest edit script, recording matches in RESULT. */
+    private static void diff(long[] a, int aLo, int aHi, long[] b, int bLo,
+                             int bHi, int[] result) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            result[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            result[aHi] = bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] split = bisect(a, aLo, aHi, b, bLo, bHi);
+        if (split == null) {
+            return;
+        }
+        diff(a, aLo, split[0], b, bLo, split[1], result);
+        diff(a, split[0], aHi, b, split[1], bHi, result);
+    }
+
+    /** Return the point {x, y} where a shortest edit script from
+     *  A[ALO .. AHI) to B[BLO .. BHI) crosses the middle snake, found by
+     *  searching forward from the start and backward from the end at
+     *  once in space linear in the number of edits, or null if the two
+     *  have no line in common.  Neither range is empty and their first
+     *  and last lines differ. */
+    private static int[] bisect(long[] a, int aLo, int aHi, long[] b,
+                                int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = Math.min(maxD, INITIAL_DIAGONALS);
+        int length = 2 * offset + 2;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean front = (delta & 1) != 0;
+        int k1Start = 0;
+        int k1End = 0;
+        int k2Start = 0;
+        int k2End = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            if (d > offset) {
+                int size = Math.min(2 * offset, maxD);
+                forward = widen(forward, offset, size);
+                backward = widen(backward, offset, size);
+                offset = size;
+                length = 2 * size + 2;
+            }
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d
+                        && forward[k1Offset - 1] < forward[k1Offset + 1])) {
+                    x1 = forward[k1Offset + 1];
+                } else {
+                    x1 = forward[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m
+                       && a[aLo + x1] == b[bLo + y1]) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > n) {
+                    k1End += 2;
+                } else if (y1 > m) {
+                    k1Start += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length
+                            && backward[k2Offset] != -1
+                            && x1 >= n - backward[k2Offset]) {
+                        return new int[] {aLo + x1, bLo + y1};
+                    }
+                }
+            }
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d
+                        && backward[k2Offset - 1]
+                        < backward[k2Offset + 1])) {
+                    x2 = backward[k2Offset + 1];
+                } else {
+                    x2 = backward[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m
+                       && a[aHi - 1 - x2] == b[bHi - 1 - y2]) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                backward[k2Offset] = x2;
+                if (x2 > n) {
+                    k2End += 2;
+                } else if (y2 > m) {
+                    k2Start += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length
+                            && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Return V, the furthest points reached on the diagonals around
+     *  diagonal 0 at index OFFSET, widened to put diagonal 0 at index
+     *  SIZE. */
+    private static int[] widen(int[] v, int offset, int size) {
+        int[] result = new int[2 * size + 2];
+        Arrays.fill(result, -1);
+        System.arraycopy(v, 0, result, size - offset, v.length);
+        return result;
+    }
+
+    /** A reader of the lines of a stream, each ending after a newline or
+     *  at the end of the stream. */
+    private static class LineReader {
+
+        /** A reader of the lines of IN. */
+        LineReader(InputStream in) {
+            _in = in;
+            _buffer = new byte[Blob.BUFFER_SIZE];
+        }
+
+        /** Copy the next COUNT lines to OUT, or skip them if OUT is
+         *  null. */
+        void copy(int count, OutputStream out) throws IOException {
+            while (count > 0) {
+                if (_pos == _end) {
+                    _pos = 0;
+                    _end = _in.read(_buffer);
+                    if (_end < 0) {
+                        _end = 0;
+                        return;
+                    }
+                }
+                int from = _pos;
+                while (_pos < _end && count > 0) {
+                    if (_buffer[_pos] == '\n') {
+                        count -= 1;
+                    }
+                    _pos += 1;
+                }
+                if (out != null) {
+                    out.write(_buffer, from, _pos - from);
+                }
+            }
+        }
+
+        /** Close the stream. */
+        void close() throws IOException {
+            _in.close();
+        }
+
+        /** The stream read. */
+        private InputStream _in;
+
+        /** Bytes read from _in and not consumed yet, from _pos to _end. */
+        private byte[] _buffer;
+
+        /** Position of the next byte of _buffer to consume. */
+        private int _pos;
+
+        /** End of the bytes read into _buffer. */
+        private int _end;
+    }
+
+    /** Kind of a chunk that is the same in all three versions. */
+    private static final int STABLE = 0;
+
+    /** Kind of a chunk taken from our version. */
+    private static final int OURS = 1;
+
+    /** Kind of a chunk taken from their version. */
+    private static final int THEIRS = 2;
+
+    /** Kind of a conflicting chunk. */
+    private static final int CONFLICT = 3;
+
+    /** Initial capacity of the arrays of line hashes. */
+    private static final int INITIAL_LINES = 1024;
+
+    /** Initial number of diagonals on either side of diagonal 0 searched
+     *  by bisect, which widens its arrays as the search goes on. */
+    private static final int INITIAL_DIAGONALS = 64;
+
+    /** Initial capacity of the array of chunks. */
+    private static final int INITIAL_CHUNKS = 64;
+
+    /** Initial value of the FNV-1a hash of a line. */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+
+    /** Multiplier of the FNV-1a hash of a line. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The base, our and their versions. */
+    private Source[] _sources;
+
+    /** Number of lines of each version. */
+    private int[] _sizes;
+
+    /** Whether a version is binary. */
+    private boolean _binary;
+
+    /** The kind and the number of lines of the base, our and their
+     *  versions of each chunk, four ints per chunk. */
+    private int[] _chunks;
+
+    /** Number of chunks. */
+    private int _chunkCount;
+
+    /** Number of conflicting chunks. */
+    private int _conflicts;
+}
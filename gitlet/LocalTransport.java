@@ -0,0 +1,185 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A LocalTransport reaches a remote that is the .gitlet directory of
+ *  another repository on this machine, reading and writing its object
+ *  store and configuration files directly.  It holds the locks on the
+ *  references and staging area of the remote from the moment it is
+ *  opened until it is closed, and saves the configuration files it
+ *  changes through the Journal of the remote, as a command on the remote
+ *  itself would.
+ *  @author Wenhao Pan
+ */
+public class LocalTransport implements Transport {
+
+    /** A LocalTransport to the repository directory DIR. */
+    public LocalTransport(File dir) {
+        if (!dir.exists()) {
+            throw new GitletException("Remote directory not found.");
+        }
+        _dir = dir;
+        _config = Utils.join(dir, "config");
+        _stage = Utils.join(_config, "stageArea");
+        _store = new ObjectStore(dir);
+        _locks = new Locks(dir);
+        try {
+            _locks.lock(Locks.REFS);
+            _locks.lock(Locks.STAGE);
+            _journal = new Journal(Utils.join(dir, "journal"));
+            _journal.recover();
+            _head = Utils.readObject(Utils.join(_config, "head"),
+                    String.class);
+            _currBranch = Utils.readObject(Utils.join(_config, "currBranch"),
+                    String.class);
+            _branches = Utils.readObject(Utils.join(_config, "branches"),
+                    HHHashMap.class);
+            _stageAdd = Utils.readObject(Utils.join(_stage, "stageAdd"),
+                    HHHashMap.class);
+            _stageRemove = Utils.readObject(Utils.join(_stage,
+                    "stageRemove"), AAArrayList.class);
+        } catch (GitletException | IllegalArgumentException excp) {
+            _locks.close();
+            throw excp;
+        }
+    }
+
+    /** Return the id of the head commit of the remote. */
+    @Override
+    public String head() {
+        return _head;
+    }
+
+    /** Return the heads of the branches of the remote, by name. */
+    @Override
+    public Map<String, String> branches() {
+        return _branches.getMap();
+    }
+
+    /** Negotiate with the commits HAVES and the shallow commits of INTO
+     *  which commits of the remote INTO lacks among WANT and its
+     *  ancestors, down to DEPTH, and send them, without their blobs if
+     *  BLOBLESS. */
+    @Override
+    public void fetch(String want, List<String> haves, ObjectStore into,
+                      int depth, boolean blobless) throws IOException {
+        Negotiation negotiation = new Negotiation(_store);
+        negotiation.setDepth(depth);
+        negotiation.want(want);
+        for (String id : haves) {
+            negotiation.have(id);
+        }
+        for (String id : into.shallow()) {
+            negotiation.haveShallow(id);
+        }
+        List<String> missing = negotiation.missing();
+        into.graft(negotiation.shallow());
+        File file = _store.bundle(missing, into::contains, blobless);
+        if (file != null) {
+            try {
+                into.receive(file);
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    /** Send the COMMITS of FROM the remote lacks, checking which of its
+     *  objects it has directly rather than from COMMON, then update the
+     *  remote to HEAD as of BRANCH. */
+    @Override
+    public void push(ObjectStore from, List<String> commits,
+                     List<String> common, String branch, String head)
+        throws IOException {
+        from.transferCommits(commits, _store);
+        update(branch, head);
+    }
+
+    /** Check out commit HEAD, which the remote must have, in the remote
+     *  as push does: if it descends from the head of BRANCH, write the
+     *  files it tracks over those of that head, make it the head of the
+     *  remote and of its current branch, clear the staging area and save
+     *  the configuration files. */
+    public void update(String branch, String head) {
+        String branchHead = _branches.get(branch);
+        if (branchHead == null) {
+            throw new GitletException("That remote does not have that "
+                    + "branch.");
+        } else if (!Negotiation.descends(_store, head, branchHead)) {
+            throw new GitletException("Please pull down remote"
+                    + " changes before pushing.");
+        }
+        Commit target = _store.readCommit(head);
+        Diff changes = Diff.commits(_store, _store.readCommit(branchHead),
+                target);
+        Commands.checkUntracked(changes, _dir);
+        Commands.removeTracked(changes, _dir);
+        for (String fileName: target.getBlobs().keySet()) {
+            _store.copyBlob(target.getBlobId(fileName),
+                    Utils.join(_dir, fileName));
+        }
+        _head = head;
+        _branches.replace(_currBranch, head);
+        _stageRemove.clear();
+        _stageAdd.clear();
+        LinkedHashMap<File, byte[]> configs = new LinkedHashMap<>();
+        configs.put(Utils.join(_config, "head"), Utils.serialize(_head));
+        configs.put(Utils.join(_config, "currBranch"),
+                Utils.serialize(_currBranch));
+        configs.put(Utils.join(_config, "branches"),
+                Utils.serialize(_branches));
+        configs.put(Utils.join(_stage, "stageAdd"),
+                Utils.serialize(_stageAdd));
+        configs.put(Utils.join(_stage, "stageRemove"),
+                Utils.serialize(_stageRemove));
+        _journal.commit(configs);
+    }
+
+    /** Return the object store of the remote. */
+    public ObjectStore store() {
+        return _store;
+    }
+
+    /** Release the locks on the remote. */
+    @Override
+    public void close() {
+        _locks.close();
+    }
+
+    /** The remote repository directory. */
+    private File _dir;
+
+    /** The configuration directory of the remote. */
+    private File _config;
+
+    /** The staging area directory of the remote. */
+    private File _stage;
+
+    /** The object store of the remote. */
+    private ObjectStore _store;
+
+    /** The locks held on the remote. */
+    private Locks _locks;
+
+    /** The journal through which configuration files are saved. */
+    private Journal _journal;
+
+    /** The id of the head commit of the remote. */
+    private String _head;
+
+    /** The current branch of the remote. */
+    private String _currBranch;
+
+    /** The heads of the branches of the remote, by name. */
+    private HHHashMap _branches;
+
+    /** The remote stage for addition. */
+    private HHHashMap _stageAdd;
+
+    /** The remote stage for removal. */
+    private AAArrayList _stageRemove;
+}
@@ -0,0 +1,79 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/** A Locks holds file locks on parts of one repository, so that gitlet
+ *  processes sharing it do not lose each other's changes.  The
+ *  references (head, branches, remotes) and the staging area each have a
+ *  lock, taken by every command that changes them and held until the
+ *  command ends; the object store has one taken only by commands that
+ *  move or delete objects, since objects are named by their contents and
+ *  writing one never conflicts with writing another.  Commands that
+ *  change nothing take no lock and read a snapshot through the Journal,
+ *  so they never wait.  Locks are taken in the order REFS, STAGE,
+ *  OBJECTS to avoid deadlock, and are released by the system if the
+ *  process dies.
+ *  @author Wenhao Pan
+ */
+public class Locks implements AutoCloseable {
+
+    /** Locks on parts of the repository directory GITLET. */
+    public Locks(File gitlet) {
+        _gitlet = gitlet;
+    }
+
+    /** Take the lock on the part NAME of the repository, waiting for any
+     *  other process holding it. */
+    public void lock(String name) {
+        File file = Utils.join(_gitlet, name + ".lock");
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            _held.add(channel.lock());
+        } catch (IOException excp) {
+            close(channel);
+            throw Utils.error("Cannot lock the %s of %s.", name, _gitlet);
+        }
+    }
+
+    /** Release every lock taken, last taken first. */
+    @Override
+    public void close() {
+        for (int i = _held.size() - 1; i >= 0; i -= 1) {
+            close(_held.get(i).channel());
+        }
+        _held.clear();
+    }
+
+    /** Close CHANNEL, if any, releasing its lock. */
+    private static void close(FileChannel channel) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException excp) {
+            /* The lock goes with the channel either way. */
+        }
+    }
+
+    /** Part of the repository holding the head, branches and remotes. */
+    static final String REFS = "refs";
+
+    /** Part of the repository holding the staging area. */
+    static final String STAGE = "stage";
+
+    /** Part of the repository holding the objects. */
+    static final String OBJECTS = "objects";
+
+    /** The repository directory. */
+    private File _gitlet;
+
+    /** The locks taken, in order. */
+    private ArrayList<FileLock> _held = new ArrayList<>();
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -18,25 +19,37 @@ public class Main {
             Arrays.asList("checkout", "merge", "init", "add", "rm", "log",
                     "global-log", "status", "branch", "rm-branch", "reset",
                     "commit", "find", "pull", "fetch", "push", "rm-remote",
-                    "add-remote"));
+                    "add-remote", "repack", "daemon", "diff", "serve",
+                    "gc"));
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> .... If a gitlet daemon serves the
+     *  repository, the command is run by the daemon. */
     public static void main(String... args) {
         try {
-            if (args.length == 0) {
-                throw new GitletException("Please enter a command.");
-            } else if (!ALLCOMMANDS.contains(args[0])) {
-                throw new GitletException("No command with that name exists.");
-            } else if (!args[0].equals("init") && !GITLET.exists()) {
-                throw new GitletException("Not in an initialized "
-                        + "Gitlet directory.");
+            if (args.length > 0 && !args[0].equals("init")
+                    && !args[0].equals("serve")
+                    && Daemon.send(GITLET, System.out, System.err, args)) {
+                return;
             }
-            Commands command = new Commands(args);
-            command.processCommand();
-        } catch (GitletException exception) {
+            run(args);
+        } catch (GitletException | IOException exception) {
             System.err.println(exception.getMessage());
             System.exit(0);
         }
     }
+
+    /** Check and run the command ARGS in this JVM. */
+    static void run(String... args) throws IOException {
+        if (args.length == 0) {
+            throw new GitletException("Please enter a command.");
+        } else if (!ALLCOMMANDS.contains(args[0])) {
+            throw new GitletException("No command with that name exists.");
+        } else if (!args[0].equals("init") && !GITLET.exists()) {
+            throw new GitletException("Not in an initialized "
+                    + "Gitlet directory.");
+        }
+        Commands command = new Commands(args);
+        command.run();
+    }
 }
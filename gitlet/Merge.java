@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** A Merge classifies, in one pass, every file changed since the split
+ *  point on either side of a three-way merge, using blob ids only.  The
+ *  files changed on each side are found by a Diff of the split point
+ *  against each branch head, so files that changed on neither side,
+ *  and whole directories that did, are never looked at.  A file changed
+ *  on the given side only is taken from it; a file changed on the
+ *  current side only, or the same way on both, is kept; a file changed
+ *  differently on both sides is a conflict.  No blob content is read:
+ *  the caller reads only the blobs of conflicting files.
+ *  @author Wenhao Pan
+ */
+class Merge {
+
+    /** A Merge of commit GIVEN into commit CURRENT, whose split point is
+     *  SPLIT, all read from STORE. */
+    Merge(ObjectStore store, Commit split, Commit current, Commit given) {
+        this(Diff.commits(store, split, current),
+             Diff.commits(store, split, given));
+    }
+
+    /** A Merge of the changes THEIRS into the changes OURS, both made to
+     *  the same split point. */
+    Merge(Diff ours, Diff theirs) {
+        _take = new TreeMap<>();
+        _conflicts = new TreeMap<>();
+        TreeSet<String> paths = new TreeSet<>(ours.getPaths());
+        paths.addAll(theirs.getPaths());
+        for (String path : paths) {
+            String base = ours.contains(path) ? ours.oldId(path)
+                : theirs.oldId(path);
+            String mine = ours.contains(path) ? ours.newId(path) : base;
+            String other = theirs.contains(path) ? theirs.newId(path) : base;
+            if (same(mine, other) || same(other, base)) {
+                continue;
+            } else if (same(mine, base)) {
+                _take.put(path, other);
+            } else {
+                _conflicts.put(path, new String[] {mine, other});
+            }
+        }
+    }
+
+    /** Return the files to take from the given side, by path, with the
+     *  id of their blob there, or null for a file to remove. */
+    SortedMap<String, String> getTaken() {
+        return Collections.unmodifiableSortedMap(_take);
+    }
+
+    /** Return the conflicting files, by path, with the ids of their blobs
+     *  on the current and given sides, either null if it is deleted. */
+    SortedMap<String, String[]> getConflicts() {
+        return Collections.unmodifiableSortedMap(_conflicts);
+    }
+
+    /** Return whether the blob ids A and B, either of which may be null,
+     *  are the same. */
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /** The files taken from the given side. */
+    private TreeMap<String, String> _take;
+
+    /** The conflicting files. */
+    private TreeMap<String, String[]> _conflicts;
+}
@@ -0,0 +1,179 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+/** A MergeBase finds the split point of two commits: the latest common
+ *  ancestor of both, choosing the one closest to the first commit when
+ *  there are several.  Both commits are walked together, newest first,
+ *  painting each commit with the side(s) it is reachable from.  A commit
+ *  painted by both sides is a candidate, and its ancestors are marked
+ *  stale since they cannot be later than it.  The walk stops as soon as
+ *  every commit left to visit is stale, so the search only touches the
+ *  commits between the two heads and their split points.  The parent
+ *  links of every commit are loaded from the Graph at most once.
+ *  @author Wenhao Pan
+ */
+public class MergeBase {
+
+    /** The parent links and ordering key of one commit. */
+    public static class Node {
+
+        /** A Node with the given PARENTS ids, first parent first, and
+         *  ORDER key, which must be larger than that of every parent. */
+        public Node(String[] parents, long order) {
+            _parents = parents;
+            _order = order;
+        }
+
+        /** Return _parents. */
+        public String[] getParents() {
+            return _parents;
+        }
+
+        /** Return _order. */
+        public long getOrder() {
+            return _order;
+        }
+
+        /** The ids of the parents. */
+        private String[] _parents;
+
+        /** The ordering key. */
+        private long _order;
+    }
+
+    /** A source of commit Nodes. */
+    public interface Graph {
+        /** Return the Node of the commit ID. */
+        Node node(String id);
+    }
+
+    /** A MergeBase over the commits of GRAPH. */
+    public MergeBase(Graph graph) {
+        _graph = graph;
+    }
+
+    /** Return the id of the split point of commits CURRENT and GIVEN. */
+    public String find(String current, String given) {
+        ArrayList<String> candidates = paint(current, given);
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        return closest(current, new HashSet<>(candidates));
+    }
+
+    /** Return the number of commits loaded so far. */
+    public int loaded() {
+        return _nodes.size();
+    }
+
+    /** Walk CURRENT and GIVEN together and return the ids of their latest
+     *  common ancestors. */
+    private ArrayList<String> paint(String current, String given) {
+        HashMap<String, Integer> flags = new HashMap<>();
+        PriorityQueue<String> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = Long.compare(node(b).getOrder(), node(a).getOrder());
+            return cmp != 0 ? cmp : a.compareTo(b);
+        });
+        HashSet<String> queued = new HashSet<>();
+        ArrayList<String> result = new ArrayList<>();
+        flags.put(current, CURRENT);
+        flags.merge(given, GIVEN, (x, y) -> x | y);
+        for (String head : new String[] {current, given}) {
+            if (queued.add(head)) {
+                queue.add(head);
+            }
+        }
+        int active = queued.size();
+        while (active > 0) {
+            String id = queue.poll();
+            queued.remove(id);
+            int paint = flags.get(id) & (BOTH | STALE);
+            if ((paint & STALE) == 0) {
+                active -= 1;
+            }
+            if (paint == BOTH) {
+                result.add(id);
+                paint |= STALE;
+            }
+            for (String parent : node(id).getParents()) {
+                int old = flags.getOrDefault(parent, 0);
+                int now = old | paint;
+                if (now == old) {
+                    continue;
+                }
+                flags.put(parent, now);
+                if (queued.add(parent)) {
+                    queue.add(parent);
+                    if ((now & STALE) == 0) {
+                        active += 1;
+                    }
+                } else if ((old & STALE) == 0 && (now & STALE) != 0) {
+                    active -= 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the id among CANDIDATES with the fewest parent links from
+     *  CURRENT, breaking ties by id. */
+    private String closest(String current, HashSet<String> candidates) {
+        HashSet<String> seen = new HashSet<>();
+        ArrayDeque<String> layer = new ArrayDeque<>();
+        layer.add(current);
+        seen.add(current);
+        while (!layer.isEmpty()) {
+            String best = null;
+            ArrayDeque<String> next = new ArrayDeque<>();
+            for (String id : layer) {
+                if (candidates.contains(id)
+                        && (best == null || id.compareTo(best) < 0)) {
+                    best = id;
+                }
+                for (String parent : node(id).getParents()) {
+                    if (seen.add(parent)) {
+                        next.add(parent);
+                    }
+                }
+            }
+            if (best != null) {
+                return best;
+            }
+            layer = next;
+        }
+        throw new GitletException("No common ancestor.");
+    }
+
+    /** Return the Node of ID, loading it from the graph on first use. */
+    private Node node(String id) {
+        Node result = _nodes.get(id);
+        if (result == null) {
+            result = _graph.node(id);
+            _nodes.put(id, result);
+        }
+        return result;
+    }
+
+    /** Paint of commits reachable from the current commit. */
+    private static final int CURRENT = 1;
+
+    /** Paint of commits reachable from the given commit. */
+    private static final int GIVEN = 2;
+
+    /** Paint of commits reachable from both commits. */
+    private static final int BOTH = CURRENT | GIVEN;
+
+    /** Paint of commits that are ancestors of a common ancestor. */
+    private static final int STALE = 4;
+
+    /** The source of commit Nodes. */
+    private Graph _graph;
+
+    /** The Nodes loaded so far, by commit id. */
+    private HashMap<String, Node> _nodes = new HashMap<>();
+}
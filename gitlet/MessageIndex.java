@@ -0,0 +1,129 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/** A MessageIndex is a sidecar of the commits of one ObjectStore that
+ *  maps log messages to the ids of the commits that have them, so that
+ *  find reads only the commits whose message it prints.  It is a
+ *  SortedIndex whose records are a key and an id, sorted by key and id.
+ *  The key of a message is the first 64 bits of its SHA1, so the
+ *  messages of the commits found are compared with the one asked for.  A
+ *  missing file is built by reading every stored commit.
+ *  @author Wenhao Pan
+ */
+public class MessageIndex extends SortedIndex {
+
+    /** A MessageIndex kept in FILE for the commits of STORE. */
+    public MessageIndex(File file, ObjectStore store) {
+        super(file, "message index", MAGIC, VERSION, HEADER_BYTES,
+                RECORD_BYTES);
+        _store = store;
+    }
+
+    /** Return the ids of all stored commits whose log message is MESSAGE,
+     *  in sorted order. */
+    public synchronized List<String> find(String message) {
+        load();
+        ArrayList<String> result = new ArrayList<>();
+        for (String id : candidates(key(message))) {
+            if (_store.readCommit(id).getMessage().equals(message)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Record that COMMIT was stored. */
+    public synchronized void add(Commit commit) {
+        long key = key(commit.getMessage());
+        load();
+        if (!candidates(key).contains(commit.getId())) {
+            append(record(key, commit.getId()));
+        }
+    }
+
+    @Override
+    List<byte[]> build() {
+        ArrayList<byte[]> result = new ArrayList<>();
+        for (String id : _store.commitIds()) {
+            if (id.length() == Utils.UID_LENGTH) {
+                result.add(record(key(_store.readCommit(id).getMessage()),
+                        id));
+            }
+        }
+        return result;
+    }
+
+    /** Return the ids of the commits in the index whose message has the
+     *  given KEY. */
+    private TreeSet<String> candidates(long key) {
+        TreeSet<String> result = new TreeSet<>();
+        int lo = 0;
+        int hi = sorted();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Long.compareUnsigned(record(mid).getLong(0), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int pos = lo; pos < sorted(); pos += 1) {
+            ByteBuffer record = record(pos);
+            if (record.getLong(0) != key) {
+                break;
+            }
+            result.add(idOf(record));
+        }
+        for (byte[] raw : tail()) {
+            ByteBuffer record = ByteBuffer.wrap(raw);
+            if (record.getLong(0) == key) {
+                result.add(idOf(record));
+            }
+        }
+        return result;
+    }
+
+    /** Return the key of MESSAGE. */
+    private static long key(String message) {
+        return Long.parseUnsignedLong(Utils.sha1(message).substring(0, 16),
+                16);
+    }
+
+    /** Return the record of the commit ID whose message has the given
+     *  KEY. */
+    private static byte[] record(long key, String id) {
+        return ByteBuffer.allocate(RECORD_BYTES).putLong(key)
+            .put(Pack.toBytes(id)).array();
+    }
+
+    /** Return the hex id of RECORD. */
+    private static String idOf(ByteBuffer record) {
+        byte[] raw = new byte[ID_BYTES];
+        record.get(Long.BYTES, raw);
+        return Pack.toHex(raw);
+    }
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x474d5347;
+
+    /** Version of the file format: 2 since keys are sorted unsigned. */
+    private static final int VERSION = 2;
+
+    /** Number of bytes in the header: magic, version and the number of
+     *  sorted records. */
+    private static final int HEADER_BYTES = 12;
+
+    /** Number of raw bytes in a SHA1 id. */
+    private static final int ID_BYTES = 20;
+
+    /** Number of bytes in a record: key and id. */
+    private static final int RECORD_BYTES = Long.BYTES + ID_BYTES;
+
+    /** The store holding the commits. */
+    private ObjectStore _store;
+}
@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** A Negotiation finds the commits one repository must send another so
+ *  that the receiver has every ancestor of the commits it wants.  The
+ *  receiver advertises the commits it has, the heads of its branches;
+ *  those the sender also has are common, and so are all their ancestors.
+ *  Like MergeBase, the sender then walks the wanted and common commits
+ *  together over the parent links of its CommitGraph, first and second
+ *  parents alike, newest generation first, painting each commit with the
+ *  side(s) it is reachable from.  A commit painted only as wanted is
+ *  missing.  The walk stops as soon as every commit left to visit is
+ *  common, so it touches only the commits above the split points of the
+ *  two sides, however long the history below them.
+ *
+ *  A shallow fetch limits the missing commits to those at most a given
+ *  number of commits below a wanted one; those at the limit become
+ *  shallow on the receiver, which takes them to have no parents.  A
+ *  commit that is shallow on the receiver is common, but its parents are
+ *  not, so a fetch without a limit fills in the history below it; the
+ *  walk goes on until every such commit is visited.
+ *  @author Wenhao Pan
+ */
+public class Negotiation {
+
+    /** A Negotiation sending commits from STORE. */
+    public Negotiation(ObjectStore store) {
+        _store = store;
+        _graph = store.graph();
+    }
+
+    /** Record that the receiver wants commit ID and its ancestors, which
+     *  the sender must have. */
+    public void want(String id) {
+        int pos = _graph.locate(id);
+        paint(pos, WANTED);
+        _depths.put(pos, 1);
+    }
+
+    /** Record that the receiver has commit ID and its ancestors.  A
+     *  commit the sender does not have tells it nothing and is ignored. */
+    public void have(String id) {
+        if (_store.hasCommit(id)) {
+            paint(_graph.locate(id), COMMON);
+        }
+    }
+
+    /** Record that the receiver has commit ID but none of its ancestors,
+     *  as it has a shallow commit. */
+    public void haveShallow(String id) {
+        if (_store.hasCommit(id)) {
+            int pos = _graph.locate(id);
+            if (_cut.add(pos)) {
+                paint(pos, COMMON);
+                _cutsQueued += 1;
+            }
+        }
+    }
+
+    /** Send only the wanted commits at most DEPTH commits below one the
+     *  receiver wants, or all of them if DEPTH is 0. */
+    public void setDepth(int depth) {
+        _depth = depth;
+    }
+
+    /** Return the ids of the wanted commits the receiver does not have,
+     *  parents before children, so that sending them in order never
+     *  leaves a commit without its parents. */
+    public List<String> missing() {
+        ArrayList<String> result = new ArrayList<>();
+        while (_active > 0 || _cutsQueued > 0) {
+            int pos = _queue.poll();
+            int paint = _flags.get(pos);
+            Integer depth = _depths.get(pos);
+            _visited += 1;
+            if ((paint & COMMON) == 0) {
+                _active -= 1;
+                if (_depth > 0 && depth != null && depth > _depth) {
+                    continue;
+                }
+                _missing.add(pos);
+                result.add(_graph.id(pos));
+                if (depth != null && depth == _depth
+                        || _store.shallow().contains(_graph.id(pos))) {
+                    _shallow.add(_graph.id(pos));
+                }
+            }
+            if (_cut.contains(pos)) {
+                _cutsQueued -= 1;
+                paint &= ~COMMON;
+            }
+            for (int parent : _graph.parents(pos)) {
+                if (paint != 0) {
+                    paint(parent, paint);
+                }
+                if (depth != null) {
+                    _depths.merge(parent, depth + 1, Math::min);
+                }
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /** Return the ids of the commits the receiver has that are parents
+     *  of the commits missing found, whose files the receiver therefore
+     *  has too. */
+    public List<String> common() {
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayList<String> result = new ArrayList<>();
+        for (int pos : _missing) {
+            for (int parent : _graph.parents(pos)) {
+                if ((_flags.get(parent) & COMMON) != 0 && seen.add(parent)) {
+                    result.add(_graph.id(parent));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the ids of the commits missing found whose parents are not
+     *  sent: those at the depth limit, and those shallow on the
+     *  sender. */
+    public List<String> shallow() {
+        return _shallow;
+    }
+
+    /** Return the number of commits visited by missing. */
+    public int visited() {
+        return _visited;
+    }
+
+    /** Return whether commit ANCESTOR of STORE is commit HEAD or one of
+     *  its ancestors, visiting only the ancestors of HEAD whose generation
+     *  is at least that of ANCESTOR. */
+    public static boolean descends(ObjectStore store, String head,
+                                   String ancestor) {
+        if (!store.hasCommit(ancestor)) {
+            return false;
+        }
+        CommitGraph graph = store.graph();
+        int target = graph.locate(ancestor);
+        int floor = graph.generation(target);
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayList<Integer> stack = new ArrayList<>();
+        stack.add(graph.locate(head));
+        while (!stack.isEmpty()) {
+            int pos = stack.remove(stack.size() - 1);
+            if (pos == target) {
+                return true;
+            }
+            if (graph.generation(pos) > floor && seen.add(pos)) {
+                for (int parent : graph.parents(pos)) {
+                    stack.add(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Add PAINT to the commit at position POS of the graph, queueing it
+     *  to be visited if it is new, and keep _active up to date. */
+    private void paint(int pos, int paint) {
+        Integer old = _flags.get(pos);
+        int now = (old == null ? 0 : old) | paint;
+        if (old != null && now == old) {
+            return;
+        }
+        _flags.put(pos, now);
+        if (old == null) {
+            _queue.add(pos);
+            if ((now & COMMON) == 0) {
+                _active += 1;
+            }
+        } else if ((old & COMMON) == 0 && (now & COMMON) != 0) {
+            _active -= 1;
+        }
+    }
+
+    /** Paint of commits reachable from a wanted commit. */
+    private static final int WANTED = 1;
+
+    /** Paint of commits reachable from a commit the receiver has. */
+    private static final int COMMON = 2;
+
+    /** The store sending commits. */
+    private ObjectStore _store;
+
+    /** The graph of _store. */
+    private CommitGraph _graph;
+
+    /** Paint of every commit reached, by position in the graph. */
+    private HashMap<Integer, Integer> _flags = new HashMap<>();
+
+    /** Positions of the commits reached but not visited, highest
+     *  generation first. */
+    private PriorityQueue<Integer> _queue = new PriorityQueue<>((a, b) -> {
+        int cmp = Integer.compare(_graph.generation(b),
+                _graph.generation(a));
+        return cmp != 0 ? cmp : Integer.compare(b, a);
+    });
+
+    /** Number of commits queued that are not painted common. */
+    private int _active;
+
+    /** Number of commits visited. */
+    private int _visited;
+
+    /** Positions of the missing commits found so far. */
+    private ArrayList<Integer> _missing = new ArrayList<>();
+
+    /** Least number of commits from a wanted commit down to each commit
+     *  reached, counting both, by position. */
+    private HashMap<Integer, Integer> _depths = new HashMap<>();
+
+    /** Greatest depth of the commits sent, or 0 for no limit. */
+    private int _depth;
+
+    /** Positions of the commits shallow on the receiver. */
+    private HashSet<Integer> _cut = new HashSet<>();
+
+    /** Number of commits shallow on the receiver not visited yet, below
+     *  which the walk must go on even if all else is common. */
+    private int _cutsQueued;
+
+    /** Ids of the commits sent without their parents. */
+    private ArrayList<String> _shallow = new ArrayList<>();
+}
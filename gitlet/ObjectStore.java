@@ -0,0 +1,1472 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** An ObjectStore resolves the Blobs, Trees and Commits of one .gitlet
+ *  repository.  New objects are written loose, one file per object in
+ *  blobsData, treesData or committedData.  A stored blob is a short
+ *  header naming the Codec that encoded it, Deflate unless the
+ *  gitlet.codec property says otherwise, followed by the encoded bytes
+ *  of the file, and is always streamed rather than read whole.  A blob
+ *  may also be a Delta against an earlier version of its file, or, for
+ *  large files, a manifest of chunks kept in chunksData and shared by
+ *  every blob that contains them.  The repack
+ *  command moves loose objects into a Pack in the packs directory, after
+ *  which each of them is found with a binary search in the pack index and
+ *  a single seek in the pack.  Every commit written is also added to the
+ *  CommitGraph of the store.  Objects are only ever deleted by the
+ *  GarbageCollector of the gc command.
+ *  @author Wenhao Pan
+ */
+public class ObjectStore {
+
+    /** An ObjectStore over the repository directory GITLET. */
+    public ObjectStore(File gitlet) {
+        _gitlet = gitlet;
+        _dirs = new File[] {Utils.join(gitlet, "blobsData"),
+            Utils.join(gitlet, "committedData"),
+            Utils.join(gitlet, "chunksData"),
+            Utils.join(gitlet, "treesData")};
+        _packDir = Utils.join(gitlet, "packs");
+    }
+
+    /** Return the ObjectStore of the repository in the working directory. */
+    public static ObjectStore local() {
+        if (_local == null) {
+            _local = new ObjectStore(Utils.join(CWD, ".gitlet"));
+        }
+        return _local;
+    }
+
+    /** Return a stream over the content of the Blob with the given ID. */
+    public InputStream openBlob(String id) {
+        byte[] cached = cached(id);
+        if (cached != null) {
+            return new ByteArrayInputStream(cached);
+        }
+        InputStream stored = openStored(id, BLOB);
+        try {
+            return decode(id, stored);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read blob %s.", id);
+        }
+    }
+
+    /** Write the content of the Blob with the given ID to TARGET,
+     *  creating or overwriting it, and creating the directories above it
+     *  that are missing. */
+    public void copyBlob(String id, File target) {
+        target.getParentFile().mkdirs();
+        try (InputStream in = openBlob(id)) {
+            Files.copy(in, target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the Commit with the given ID, which callers must not
+     *  modify, since recently read commits are shared. */
+    public Commit readCommit(String id) {
+        Commit result;
+        synchronized (_commits) {
+            result = _commits.get(id);
+        }
+        if (result != null) {
+            return result;
+        }
+        try {
+            result = Commit.decode(id, readStored(id, COMMIT));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read commit %s.", id);
+        }
+        result.setStore(this);
+        synchronized (_commits) {
+            _commits.put(id, result);
+        }
+        return result;
+    }
+
+    /** Return the Tree with the given ID, which callers must not modify,
+     *  since recently read trees are shared. */
+    public Tree readTree(String id) {
+        Tree result;
+        synchronized (_trees) {
+            result = _trees.get(id);
+        }
+        if (result != null) {
+            return result;
+        }
+        try {
+            result = Tree.decode(id, readStored(id, TREE));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read tree %s.", id);
+        }
+        synchronized (_trees) {
+            _trees.put(id, result);
+        }
+        return result;
+    }
+
+    /** Store TREE as a loose object unless it is already stored. */
+    public void writeTree(Tree tree) throws IOException {
+        if (!contains(tree.getId(), TREE)) {
+            byte[] content = tree.encode();
+            writeLoose(tree.getId(), TREE, out -> out.write(content));
+        }
+    }
+
+    /** Return whether the Blob with the given ID is stored. */
+    public boolean hasBlob(String id) {
+        return contains(id, BLOB);
+    }
+
+    /** Return whether the Commit with the given ID is stored. */
+    public boolean hasCommit(String id) {
+        return contains(id, COMMIT);
+    }
+
+    /** Store the content of BLOB as a loose object unless it is already
+     *  stored, streaming it from the working file of BLOB through the
+     *  codec of this store.  Files smaller than MIN_ENCODED_BYTES, or whose
+     *  first bytes do not shrink by at least a tenth when encoded, are
+     *  stored raw. */
+    public void writeBlob(Blob blob) throws IOException {
+        writeBlob(blob, null);
+    }
+
+    /** Store the content of BLOB as writeBlob(BLOB) does, unless BASE, the
+     *  id of a previous version of the same file or null, is stored and
+     *  a delta against it is less than half the size of BLOB.  The delta
+     *  is then stored instead, as long as the chain of deltas to a full
+     *  blob stays within the maximum delta depth of this store. */
+    public void writeBlob(Blob blob, String base) throws IOException {
+        if (hasBlob(blob.getId())) {
+            return;
+        } else if (blob.isChunked()) {
+            writeChunked(blob);
+            return;
+        } else if (base != null && writeDelta(blob, base)) {
+            return;
+        } else if (blob.getWorkingFile().length() <= Blob.BUFFER_SIZE) {
+            byte[] content =
+                Files.readAllBytes(blob.getWorkingFile().toPath());
+            writeSmall(blob.getId(), BLOB, content,
+                out -> out.writeInt(BLOB_MAGIC));
+            return;
+        }
+        try (InputStream file = new BufferedInputStream(
+                new FileInputStream(blob.getWorkingFile()),
+                Blob.BUFFER_SIZE)) {
+            Codec codec = chooseCodec(file);
+            writeLoose(blob.getId(), BLOB, out -> {
+                out.writeInt(BLOB_MAGIC);
+                out.writeByte(codec.encoding());
+                codec.encode(file, out);
+            });
+        }
+    }
+
+    /** Set the maximum number of deltas between a blob and the full blob
+     *  it is rebuilt from to DEPTH; 0 turns delta storage off. */
+    public void setMaxDeltaDepth(int depth) {
+        _maxDeltaDepth = depth;
+    }
+
+    /** Set the codec used to encode the blobs written to this store. */
+    public void setCodec(Codec codec) {
+        _codec = codec;
+    }
+
+    /** Return the codec used to encode the blobs written to this store. */
+    public Codec getCodec() {
+        return _codec;
+    }
+
+    /** Store BLOB as a manifest listing the ids and lengths of the
+     *  content-defined chunks of its file, storing each chunk that is not
+     *  stored yet as an object of its own. */
+    private void writeChunked(Blob blob) throws IOException {
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        DataOutputStream manifest = new DataOutputStream(list);
+        int count = 0;
+        try (InputStream file = new FileInputStream(blob.getWorkingFile())) {
+            Chunker chunker = new Chunker(file);
+            for (byte[] chunk = chunker.next(); chunk != null;
+                 chunk = chunker.next()) {
+                String id = Blob.hash(new ByteArrayInputStream(chunk));
+                if (!contains(id, CHUNK)) {
+                    ByteArrayInputStream in = new ByteArrayInputStream(chunk);
+                    Codec codec = chooseCodec(in);
+                    writeLoose(id, CHUNK, out -> {
+                        out.writeInt(BLOB_MAGIC);
+                        out.writeByte(codec.encoding());
+                        codec.encode(in, out);
+                    });
+                }
+                manifest.write(Pack.toBytes(id));
+                manifest.writeInt(chunk.length);
+                count += 1;
+            }
+        }
+        int chunks = count;
+        writeLoose(blob.getId(), BLOB, out -> {
+            out.writeInt(BLOB_MAGIC);
+            out.writeByte(MANIFEST);
+            out.writeInt(chunks);
+            list.writeTo(out);
+        });
+    }
+
+    /** Return the ids of the chunks of stored blob ID in order, or null
+     *  if it is not a manifest. */
+    private String[] chunks(String id) throws IOException {
+        try (DataInputStream in = openAs(id, MANIFEST)) {
+            return in == null ? null : readManifest(in);
+        }
+    }
+
+    /** Return the objects, besides itself, that stored blob ID is read
+     *  from, reading it once: its base if it is a delta, its chunks if
+     *  it is a manifest, and otherwise none. */
+    List<Pack.Entry> parts(String id) throws IOException {
+        ArrayList<Pack.Entry> result = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(openStored(id, BLOB))) {
+            if (in.readInt() != BLOB_MAGIC) {
+                return result;
+            }
+            int encoding = in.readByte();
+            if (encoding == DELTA) {
+                String base = Pack.toHex(in.readNBytes(Pack.ID_BYTES));
+                result.add(new Pack.Entry(base, BLOB, null));
+            } else if (encoding == MANIFEST) {
+                for (String chunk : readManifest(in)) {
+                    result.add(new Pack.Entry(chunk, CHUNK, null));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the chunk ids of the manifest read from IN. */
+    private static String[] readManifest(DataInputStream in)
+        throws IOException {
+        String[] result = new String[in.readInt()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = Pack.toHex(in.readNBytes(Pack.ID_BYTES));
+            in.readInt();
+        }
+        return result;
+    }
+
+    /** Return a stream over the concatenated contents of the chunks with
+     *  the given IDS, opening each only when the previous one is done. */
+    private InputStream openChunks(String[] ids) {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return _next < ids.length;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                DataInputStream in =
+                    new DataInputStream(openStored(ids[_next], CHUNK));
+                _next += 1;
+                try {
+                    if (in.readInt() != BLOB_MAGIC) {
+                        throw Utils.error("Corrupted chunk.");
+                    }
+                    Codec codec = Codec.forEncoding(in.readByte());
+                    if (codec == null) {
+                        throw Utils.error("Unknown chunk encoding.");
+                    }
+                    return codec.decode(in);
+                } catch (IOException excp) {
+                    throw Utils.error("Cannot read chunk %s.", ids[_next - 1]);
+                }
+            }
+
+            /** Index of the next chunk to open. */
+            private int _next;
+        });
+    }
+
+    /** Store BLOB as a delta against the stored blob BASE and return
+     *  true, or return false if that is not worthwhile or not allowed. */
+    private boolean writeDelta(Blob blob, String base) throws IOException {
+        long length = blob.getWorkingFile().length();
+        if (length < MIN_ENCODED_BYTES || !hasBlob(base)) {
+            return false;
+        }
+        int depth = deltaDepth(base) + 1;
+        if (depth > _maxDeltaDepth) {
+            return false;
+        }
+        byte[] source = content(base);
+        if (source == null) {
+            return false;
+        }
+        byte[] target = Files.readAllBytes(blob.getWorkingFile().toPath());
+        byte[] delta = Delta.create(source, target);
+        if (delta.length * 2L > target.length) {
+            return false;
+        }
+        writeSmall(blob.getId(), BLOB, delta, out -> {
+            out.writeInt(BLOB_MAGIC);
+            out.writeByte(DELTA);
+            out.write(Pack.toBytes(base));
+            out.writeByte(depth);
+        });
+        cache(blob.getId(), target);
+        return true;
+    }
+
+    /** Return the content of blob ID, or null if it is longer than
+     *  MAX_DELTA_BYTES, caching it as the base of later deltas. */
+    private byte[] content(String id) throws IOException {
+        byte[] result = cached(id);
+        if (result == null) {
+            try (InputStream in = openBlob(id)) {
+                result = in.readNBytes(MAX_DELTA_BYTES + 1);
+            }
+            if (result.length > MAX_DELTA_BYTES) {
+                return null;
+            }
+            cache(id, result);
+        }
+        return result;
+    }
+
+    /** Return the cached content of blob ID, or null. */
+    private synchronized byte[] cached(String id) {
+        return _cache.get(id);
+    }
+
+    /** Remember CONTENT as the content of blob ID, forgetting the least
+     *  recently used contents beyond CACHE_BYTES. */
+    private synchronized void cache(String id, byte[] content) {
+        if (_cache.put(id, content) == null) {
+            _cachedBytes += content.length;
+        }
+        Iterator<byte[]> oldest = _cache.values().iterator();
+        while (_cachedBytes > CACHE_BYTES && oldest.hasNext()) {
+            _cachedBytes -= oldest.next().length;
+            oldest.remove();
+        }
+    }
+
+    /** Return the number of deltas between stored blob ID and the full
+     *  blob it is rebuilt from. */
+    private int deltaDepth(String id) throws IOException {
+        try (DataInputStream in = openAs(id, DELTA)) {
+            if (in == null) {
+                return 0;
+            }
+            in.skipNBytes(Pack.ID_BYTES);
+            return in.readUnsignedByte();
+        }
+    }
+
+    /** Return the id of the base of stored blob ID, or null if it is not
+     *  a delta. */
+    private String deltaBase(String id) throws IOException {
+        try (DataInputStream in = openAs(id, DELTA)) {
+            return in == null ? null
+                : Pack.toHex(in.readNBytes(Pack.ID_BYTES));
+        }
+    }
+
+    /** Return the stored bytes of blob ID positioned after its encoding
+     *  byte if it has the given ENCODING, and otherwise null. */
+    private DataInputStream openAs(String id, int encoding)
+        throws IOException {
+        DataInputStream in = new DataInputStream(openStored(id, BLOB));
+        if (in.readInt() == BLOB_MAGIC && in.readByte() == encoding) {
+            return in;
+        }
+        in.close();
+        return null;
+    }
+
+    /** Write the loose object ID of the given KIND as the bytes written by
+     *  HEADER, the encoding of CONTENT and the encoded CONTENT.  CONTENT is
+     *  encoded with the codec of this store if that makes it at least a
+     *  tenth smaller, and is otherwise stored raw. */
+    private void writeSmall(String id, int kind, byte[] content,
+                            Writer header) throws IOException {
+        Codec codec = Codec.RAW;
+        byte[] body = content;
+        if (_codec != Codec.RAW && content.length >= MIN_ENCODED_BYTES) {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            _codec.encode(new ByteArrayInputStream(content), encoded);
+            if (encoded.size() * 10L <= content.length * 9L) {
+                codec = _codec;
+                body = encoded.toByteArray();
+            }
+        }
+        int encoding = codec.encoding();
+        byte[] stored = body;
+        writeLoose(id, kind, out -> {
+            header.write(out);
+            out.writeByte(encoding);
+            out.write(stored);
+        });
+    }
+
+    /** Return the codec to store the file read from IN with, looking at
+     *  no more than its first Blob.BUFFER_SIZE bytes and leaving IN at its
+     *  start.  IN must support mark. */
+    private Codec chooseCodec(InputStream in) throws IOException {
+        if (_codec == Codec.RAW) {
+            return Codec.RAW;
+        }
+        in.mark(Blob.BUFFER_SIZE);
+        byte[] sample = in.readNBytes(Blob.BUFFER_SIZE);
+        in.reset();
+        if (sample.length < MIN_ENCODED_BYTES) {
+            return Codec.RAW;
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        _codec.encode(new ByteArrayInputStream(sample), encoded);
+        if (encoded.size() * 10L > sample.length * 9L) {
+            return Codec.RAW;
+        }
+        return _codec;
+    }
+
+    /** Copy the stored Blob with the given ID into TARGET unless TARGET
+     *  already has it, along with the bases it is a delta of or the
+     *  chunks it lists that TARGET does not have yet. */
+    public void transferBlob(String id, ObjectStore target)
+        throws IOException {
+        if (target.hasBlob(id)) {
+            return;
+        }
+        String base = deltaBase(id);
+        if (base != null) {
+            transferBlob(base, target);
+        }
+        String[] chunks = chunks(id);
+        if (chunks != null) {
+            for (String chunk : chunks) {
+                if (!target.contains(chunk, CHUNK)) {
+                    try (InputStream in = openStored(chunk, CHUNK)) {
+                        target.writeLoose(chunk, CHUNK,
+                            out -> in.transferTo(out));
+                    }
+                }
+            }
+        }
+        try (InputStream in = openStored(id, BLOB)) {
+            target.writeLoose(id, BLOB, out -> in.transferTo(out));
+        }
+    }
+
+    /** Copy the stored Tree with the given ID into TARGET unless TARGET
+     *  already has it, along with the trees and blobs below it that TARGET
+     *  does not have yet.  A directory that did not change since a commit
+     *  TARGET has is therefore skipped as a whole. */
+    public void transferTree(String id, ObjectStore target)
+        throws IOException {
+        if (target.contains(id, TREE)) {
+            return;
+        }
+        Tree tree = readTree(id);
+        for (String blob : tree.getBlobs().values()) {
+            transferBlob(blob, target);
+        }
+        for (String sub : tree.getTrees().values()) {
+            transferTree(sub, target);
+        }
+        target.writeTree(tree);
+    }
+
+    /** Copy COMMIT, read from this store, into TARGET together with the
+     *  files it tracks that TARGET does not have yet. */
+    public void transferCommit(Commit commit, ObjectStore target)
+        throws IOException {
+        if (commit.getTree() != null) {
+            transferTree(commit.getTree(), target);
+        } else {
+            for (String id : commit.getBlobs().values()) {
+                transferBlob(id, target);
+            }
+        }
+        target.writeCommit(commit);
+    }
+
+    /** Copy the commits with the given IDS, parents first, into TARGET
+     *  together with every object they need that TARGET does not have
+     *  yet, as one Bundle that TARGET adds as a new pack. */
+    public void transferCommits(List<String> ids, ObjectStore target)
+        throws IOException {
+        File file = bundle(ids, target::contains);
+        if (file != null) {
+            try {
+                target.receive(file);
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    /** Return a new temporary file of this store holding a Bundle of the
+     *  commits with the given IDS, parents first, with every object they
+     *  need that is not PRESENT on the receiver, or null if there is no
+     *  such object.  The caller deletes the file. */
+    public File bundle(List<String> ids, Bundle.Lookup present)
+        throws IOException {
+        return bundle(ids, present, false);
+    }
+
+    /** Return a new temporary file holding a Bundle of the commits with
+     *  the given IDS as bundle does, leaving their blobs out if
+     *  BLOBLESS. */
+    public File bundle(List<String> ids, Bundle.Lookup present,
+                       boolean blobless) throws IOException {
+        Bundle bundle = new Bundle(this, present);
+        bundle.setBlobless(blobless);
+        for (String id : ids) {
+            bundle.addCommit(id);
+        }
+        return write(bundle);
+    }
+
+    /** Return a new temporary file holding a Bundle of the blobs with the
+     *  given IDS that this store has and that are not PRESENT on the
+     *  receiver, or null if there is none. */
+    public File bundleBlobs(List<String> ids, Bundle.Lookup present)
+        throws IOException {
+        Bundle bundle = new Bundle(this, present);
+        for (String id : ids) {
+            if (hasBlob(id)) {
+                bundle.addBlob(id);
+            }
+        }
+        return write(bundle);
+    }
+
+    /** Write BUNDLE to a new temporary file of this store and return it,
+     *  or null if BUNDLE is empty. */
+    private File write(Bundle bundle) throws IOException {
+        if (bundle.size() == 0) {
+            return null;
+        }
+        File result = File.createTempFile("bundle-", null, _gitlet);
+        try {
+            bundle.write(result, _bundleCodec);
+        } catch (IOException | GitletException excp) {
+            result.delete();
+            throw excp;
+        }
+        return result;
+    }
+
+    /** Add the objects of the Bundle of LENGTH bytes read from IN to
+     *  this store, as for receive. */
+    public void receive(InputStream in, long length) throws IOException {
+        File file = spool(in, length);
+        try {
+            receive(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /** Return a new temporary file of this store holding the LENGTH bytes
+     *  of a Bundle read from IN, to be received later.  The caller deletes
+     *  the file. */
+    public File spool(InputStream in, long length) throws IOException {
+        File result = File.createTempFile("bundle-", null, _gitlet);
+        try (OutputStream out = new FileOutputStream(result)) {
+            byte[] buffer = new byte[Blob.BUFFER_SIZE];
+            for (long left = length; left > 0;) {
+                int n = in.read(buffer, 0,
+                        (int) Math.min(buffer.length, left));
+                if (n < 0) {
+                    throw Utils.error("Corrupted bundle.");
+                }
+                out.write(buffer, 0, n);
+                left -= n;
+            }
+        } catch (IOException | GitletException excp) {
+            result.delete();
+            throw excp;
+        }
+        return result;
+    }
+
+    /** Add the objects of the Bundle FILE to this store as a new pack,
+     *  and index the commits among them not stored before, parents
+     *  first.  The pack is unpacked into a directory of its own and
+     *  moved into place only once every object in it is found to have
+     *  the id it is listed under, so no other process reads an object
+     *  that was not checked. */
+    public void receive(File file) throws IOException {
+        List<Pack> packs = packs();
+        ArrayList<String> commits = new ArrayList<>();
+        _packDir.mkdirs();
+        File incoming = Files.createTempDirectory(_packDir.toPath(),
+                "incoming-").toFile();
+        Pack pack;
+        try {
+            pack = Bundle.unpack(file, incoming, commits);
+            synchronized (this) {
+                packs.add(pack);
+            }
+            try {
+                verify(pack);
+            } finally {
+                synchronized (this) {
+                    packs.remove(pack);
+                }
+            }
+            if (Utils.join(_packDir, pack.getIndexFile().getName())
+                    .exists()) {
+                pack = null;
+            } else {
+                pack = pack.moveTo(_packDir);
+            }
+        } finally {
+            String[] left = incoming.list();
+            for (String name : left == null ? new String[0] : left) {
+                Utils.join(incoming, name).delete();
+            }
+            incoming.delete();
+        }
+        commits.removeIf(this::hasCommit);
+        if (pack != null) {
+            synchronized (this) {
+                packs.add(pack);
+            }
+        }
+        for (String id : commits) {
+            indexCommit(readCommit(id));
+        }
+        unshallow();
+    }
+
+    /** Fail unless every object of PACK hashes to its id, reading blobs
+     *  through this store, which holds PACK, so that deltas against and
+     *  chunks in other packs are found. */
+    private void verify(Pack pack) throws IOException {
+        try {
+            for (String id : pack.ids(COMMIT)) {
+                if (!Commit.hasId(id, readPacked(pack, id, COMMIT))) {
+                    throw Utils.error("Corrupted bundle.");
+                }
+            }
+            for (String id : pack.ids(TREE)) {
+                if (!id.equals(Utils.sha1(readPacked(pack, id, TREE)))) {
+                    throw Utils.error("Corrupted bundle.");
+                }
+            }
+            for (String id : pack.ids(BLOB)) {
+                try (InputStream in = openBlob(id)) {
+                    if (!id.equals(Blob.hash(in))) {
+                        throw Utils.error("Corrupted bundle.");
+                    }
+                }
+            }
+            for (String id : pack.ids(CHUNK)) {
+                try (InputStream in = openChunks(new String[] {id})) {
+                    if (!id.equals(Blob.hash(in))) {
+                        throw Utils.error("Corrupted bundle.");
+                    }
+                }
+            }
+        } catch (IllegalArgumentException | IOException excp) {
+            throw Utils.error("Corrupted bundle.");
+        }
+    }
+
+    /** Return the stored bytes of the object ID of the given KIND in
+     *  PACK. */
+    private static byte[] readPacked(Pack pack, String id, int kind)
+        throws IOException {
+        try (InputStream in = pack.open(id, kind)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /** Return the ids of the shallow commits of this store: commits
+     *  fetched without their parents, which are taken to have none. */
+    public synchronized Set<String> shallow() {
+        if (_shallow == null) {
+            _shallow = new LinkedHashSet<>(readLines(SHALLOW));
+        }
+        return _shallow;
+    }
+
+    /** Record that the commits with the given IDS are shallow, before
+     *  they are received. */
+    public synchronized void graft(Collection<String> ids) {
+        if (shallow().addAll(ids)) {
+            writeLines(SHALLOW, _shallow);
+        }
+    }
+
+    /** Return the ids of the parents of COMMIT of this store, none for a
+     *  shallow commit. */
+    String[] parents(Commit commit) {
+        if (shallow().contains(commit.getId())) {
+            return new String[0];
+        }
+        return commit.getParents();
+    }
+
+    /** Forget the shallow commits whose parents are now all stored, and
+     *  rebuild the commit graph, whose records gave them none, when next
+     *  used. */
+    private synchronized void unshallow() {
+        boolean changed = shallow().removeIf(id -> {
+            for (String parent : readCommit(id).getParents()) {
+                if (!hasCommit(parent)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        if (changed) {
+            writeLines(SHALLOW, _shallow);
+            graph().delete();
+            _graph = null;
+        }
+    }
+
+    /** Return the addresses of the remotes that hold the blobs missing
+     *  from this store, as given to add-remote. */
+    public List<String> promisors() {
+        return readLines(PROMISORS);
+    }
+
+    /** Record that the remote at ADDRESS holds the blobs of the commits
+     *  fetched from it without their blobs. */
+    public void addPromisor(String address) {
+        LinkedHashSet<String> promisors = new LinkedHashSet<>(promisors());
+        if (promisors.add(address)) {
+            writeLines(PROMISORS, promisors);
+        }
+    }
+
+    /** Fetch the blobs with the given IDS that this store lacks from the
+     *  remotes holding the blobs it was fetched without, as one Bundle
+     *  from each remote asked, and keep them.  Blobs no remote has are
+     *  left missing. */
+    public void prefetch(Collection<String> ids) {
+        List<String> promisors = promisors();
+        if (promisors.isEmpty()) {
+            return;
+        }
+        ArrayList<String> missing = new ArrayList<>(new TreeSet<>(ids));
+        missing.removeIf(id -> id == null || hasBlob(id));
+        for (String address : promisors) {
+            if (missing.isEmpty()) {
+                return;
+            }
+            try {
+                Transport.fetchBlobs(new File(address), missing, this);
+            } catch (IOException | GitletException excp) {
+                continue;
+            }
+            missing.removeIf(this::hasBlob);
+        }
+    }
+
+    /** Return the lines of the file NAME of this store, none if it does
+     *  not exist. */
+    private List<String> readLines(String name) {
+        File file = Utils.join(_gitlet, name);
+        if (!file.isFile()) {
+            return new ArrayList<>();
+        }
+        ArrayList<String> result = new ArrayList<>();
+        for (String line : Utils.readContentsAsString(file).split("\n")) {
+            if (!line.isEmpty()) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    /** Replace the file NAME of this store by LINES, atomically. */
+    private void writeLines(String name, Collection<String> lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        _gitlet.mkdirs();
+        try {
+            File temp = File.createTempFile("tmp-", null, _gitlet);
+            Utils.writeContents(temp, text.toString());
+            Files.move(temp.toPath(), Utils.join(_gitlet, name).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s.", name);
+        }
+    }
+
+    /** Store COMMIT as a loose object unless it is already stored, and
+     *  add it to the commit graph. */
+    public void writeCommit(Commit commit) throws IOException {
+        if (!hasCommit(commit.getId())) {
+            byte[] content = commit.encode();
+            writeLoose(commit.getId(), COMMIT, out -> out.write(content));
+            indexCommit(commit);
+        } else {
+            graph().add(commit);
+        }
+    }
+
+    /** Add COMMIT, newly stored, to the commit index, the message index
+     *  and the commit graph. */
+    private void indexCommit(Commit commit) {
+        commitIndex().add(commit.getId());
+        messageIndex().add(commit);
+        graph().add(commit);
+    }
+
+    /** Set the codec compressing the Bundles this store sends to
+     *  CODEC. */
+    public void setBundleCodec(Codec codec) {
+        _bundleCodec = codec;
+    }
+
+    /** Read again what another process may have changed since this
+     *  store last read it: records appended to the commit graph, a
+     *  commit index or message index whose file changed, the shallow
+     *  commits, and the packs if packs were added or removed.  Objects
+     *  themselves are named by their contents and never change.  A
+     *  store kept between commands, as the Daemon keeps it, calls this
+     *  before each command. */
+    public synchronized void refresh() {
+        if (_graph != null) {
+            _graph.refresh();
+        }
+        if (_commitIndex != null && _commitIndex.changed()) {
+            _commitIndex = null;
+        }
+        if (_messageIndex != null && _messageIndex.changed()) {
+            _messageIndex = null;
+        }
+        _shallow = null;
+        if (_packs != null) {
+            HashSet<String> loaded = new HashSet<>();
+            for (Pack pack : _packs) {
+                loaded.add(pack.getIndexFile().getName());
+            }
+            HashSet<String> stored = new HashSet<>();
+            List<String> files = Utils.plainFilenamesIn(_packDir);
+            if (files != null) {
+                for (String name : files) {
+                    if (name.endsWith(".idx")) {
+                        stored.add(name);
+                    }
+                }
+            }
+            if (!loaded.equals(stored)) {
+                _packs = null;
+            }
+        }
+    }
+
+    /** Return the commit graph of this store. */
+    public CommitGraph graph() {
+        if (_graph == null) {
+            _graph = new CommitGraph(Utils.join(_gitlet, "commit-graph"),
+                    this);
+        }
+        return _graph;
+    }
+
+    /** Add every stored commit missing from the commit graph to it, if
+     *  the commit index lists more commits than the graph holds. */
+    void completeGraph() {
+        if (graph().size() < commitIndex().size()) {
+            for (String id : commitIds()) {
+                graph().index(id);
+            }
+        }
+    }
+
+    /** Return the ids of at most LIMIT stored commits that start with
+     *  PREFIX, in sorted order, found through the commit index. */
+    public List<String> findCommits(String prefix, int limit) {
+        return commitIndex().find(prefix, limit);
+    }
+
+    /** Return the ids of all stored commits whose log message is
+     *  MESSAGE, in sorted order, found through the message index. */
+    public List<String> findMessage(String message) {
+        return messageIndex().find(message);
+    }
+
+    /** Return the message index of this store. */
+    private MessageIndex messageIndex() {
+        if (_messageIndex == null) {
+            _messageIndex = new MessageIndex(Utils.join(_gitlet, "messages"),
+                    this);
+        }
+        return _messageIndex;
+    }
+
+    /** Return the commit index of this store. */
+    private CommitIndex commitIndex() {
+        if (_commitIndex == null) {
+            _commitIndex = new CommitIndex(Utils.join(_gitlet, "commit-ids"),
+                    this);
+        }
+        return _commitIndex;
+    }
+
+    /** Return the ids of all stored commits in sorted order. */
+    public List<String> commitIds() {
+        TreeSet<String> result = new TreeSet<>();
+        List<String> loose = Utils.plainFilenamesIn(_dirs[COMMIT]);
+        if (loose != null) {
+            result.addAll(loose);
+        }
+        for (Pack pack : packs()) {
+            result.addAll(pack.ids(COMMIT));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Move every loose object into a new pack and return the number of
+     *  objects moved.  Loose commits stored with Java serialization are
+     *  rewritten in the encoding of Commit first. */
+    public int repack() throws IOException {
+        migrateCommits();
+        ArrayList<Pack.Entry> entries = new ArrayList<>();
+        for (int kind = 0; kind < _dirs.length; kind += 1) {
+            List<String> loose = Utils.plainFilenamesIn(_dirs[kind]);
+            if (loose == null) {
+                continue;
+            }
+            for (String id : loose) {
+                if (id.length() == Utils.UID_LENGTH && !inPacks(id, kind)) {
+                    entries.add(new Pack.Entry(id, kind,
+                            Utils.join(_dirs[kind], id)));
+                }
+            }
+        }
+        if (!entries.isEmpty()) {
+            _packDir.mkdir();
+            packs().add(Pack.write(_packDir, entries));
+        }
+        for (Pack.Entry entry : entries) {
+            entry.getSource().delete();
+        }
+        return entries.size();
+    }
+
+    /** Move the objects of this store that are LIVE, or were written at
+     *  or after CUTOFF, a time in milliseconds, into a single new pack
+     *  replacing every existing one, delete every other object, and
+     *  return the number of objects deleted.  Loose objects that are not
+     *  LIVE but were written after CUTOFF stay loose, as do temporary
+     *  files written after CUTOFF.  If a commit is deleted, the commit
+     *  index, message index and commit graph are rebuilt when next
+     *  used. */
+    int prune(Bundle.Lookup live, long cutoff) throws IOException {
+        migrateCommits();
+        ArrayList<Pack.Entry> entries = new ArrayList<>();
+        HashSet<String> kept = new HashSet<>();
+        HashSet<String> dropped = new HashSet<>();
+        ArrayList<File> consumed = new ArrayList<>();
+        for (int kind = 0; kind < _dirs.length; kind += 1) {
+            List<String> loose = Utils.plainFilenamesIn(_dirs[kind]);
+            if (loose == null) {
+                continue;
+            }
+            for (String name : loose) {
+                File file = Utils.join(_dirs[kind], name);
+                if (name.length() != Utils.UID_LENGTH) {
+                    if (name.startsWith("tmp-")
+                            && file.lastModified() < cutoff) {
+                        file.delete();
+                    }
+                } else if (live.has(name, kind)) {
+                    kept.add(kind + name);
+                    entries.add(new Pack.Entry(name, kind, null));
+                    consumed.add(file);
+                } else if (file.lastModified() >= cutoff) {
+                    kept.add(kind + name);
+                } else {
+                    dropped.add(kind + name);
+                    consumed.add(file);
+                }
+            }
+        }
+        List<Pack> old = new ArrayList<>(packs());
+        for (Pack pack : old) {
+            boolean young = pack.getPackFile().lastModified() >= cutoff;
+            for (int kind = 0; kind < _dirs.length; kind += 1) {
+                for (String id : pack.ids(kind)) {
+                    if (!young && !live.has(id, kind)) {
+                        dropped.add(kind + id);
+                    } else if (kept.add(kind + id)) {
+                        entries.add(new Pack.Entry(id, kind, null));
+                    }
+                }
+            }
+        }
+        File replacement = entries.isEmpty() ? null
+            : writePack(entries).getPackFile();
+        for (Pack pack : old) {
+            if (!pack.getPackFile().equals(replacement)) {
+                pack.getIndexFile().delete();
+                pack.getPackFile().delete();
+            }
+        }
+        for (File file : consumed) {
+            file.delete();
+        }
+        String[] temps = _packDir.list();
+        if (temps != null) {
+            for (String name : temps) {
+                File file = Utils.join(_packDir, name);
+                if (name.endsWith(".tmp") && file.lastModified() < cutoff) {
+                    file.delete();
+                }
+            }
+        }
+        dropped.removeAll(kept);
+        forget(dropped);
+        return dropped.size();
+    }
+
+    /** Forget every pack and cached object after a prune that deleted
+     *  the objects with the kind and id keys DROPPED, and the commit
+     *  index, message index, commit graph and shallow commits too if
+     *  commits are among them. */
+    private synchronized void forget(Set<String> dropped) {
+        _packs = null;
+        _cache.clear();
+        _cachedBytes = 0;
+        synchronized (_commits) {
+            _commits.clear();
+        }
+        synchronized (_trees) {
+            _trees.clear();
+        }
+        if (dropped.stream().anyMatch(key -> key.startsWith("" + COMMIT))) {
+            graph().delete();
+            Utils.join(_gitlet, "commit-ids").delete();
+            Utils.join(_gitlet, "messages").delete();
+            _graph = null;
+            _commitIndex = null;
+            _messageIndex = null;
+            if (shallow().removeIf(id -> dropped.contains(COMMIT + id))) {
+                writeLines(SHALLOW, _shallow);
+            }
+        }
+    }
+
+    /** Write a new pack holding the objects of ENTRIES, streamed from
+     *  where this store holds them now, and return it. */
+    private Pack writePack(List<Pack.Entry> entries) throws IOException {
+        _packDir.mkdirs();
+        File packFile = File.createTempFile("pack-", ".tmp", _packDir);
+        long[] offsets = new long[entries.size()];
+        try (FileOutputStream raw = new FileOutputStream(packFile);
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(raw, Blob.BUFFER_SIZE))) {
+            Pack.writeHeader(out);
+            long offset = Pack.PACK_HEADER_BYTES;
+            for (int i = 0; i < entries.size(); i += 1) {
+                String id = entries.get(i).getId();
+                int kind = entries.get(i).getKind();
+                long length = storedLength(id, kind);
+                offsets[i] = offset;
+                out.writeByte(kind);
+                out.writeLong(length);
+                try (InputStream in = openStored(id, kind)) {
+                    if (in.transferTo(out) != length) {
+                        throw Utils.error("Cannot read object %s.", id);
+                    }
+                }
+                offset += Pack.ENTRY_HEADER_BYTES + length;
+            }
+            out.flush();
+            raw.getFD().sync();
+        } catch (IOException | GitletException excp) {
+            packFile.delete();
+            throw excp;
+        }
+        return Pack.install(_packDir, packFile, entries, offsets);
+    }
+
+    /** Return the number of bytes the objects and packs of this store
+     *  take on disk. */
+    long diskBytes() {
+        long result = 0;
+        ArrayList<File> dirs = new ArrayList<>(List.of(_dirs));
+        dirs.add(_packDir);
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    result += file.length();
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Rewrite every loose commit stored with Java serialization in the
+     *  encoding of Commit, under the same id, and return the number of
+     *  commits rewritten. */
+    int migrateCommits() throws IOException {
+        List<String> loose = Utils.plainFilenamesIn(_dirs[COMMIT]);
+        int result = 0;
+        if (loose == null) {
+            return result;
+        }
+        for (String id : loose) {
+            if (id.length() != Utils.UID_LENGTH) {
+                continue;
+            }
+            byte[] stored = readStored(id, COMMIT);
+            if (stored.length >= Short.BYTES && ByteBuffer.wrap(stored)
+                    .getShort() == ObjectStreamConstants.STREAM_MAGIC) {
+                byte[] content = Commit.decode(id, stored).encode();
+                writeLoose(id, COMMIT, out -> out.write(content));
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return a stream over the stored bytes of the object ID of the
+     *  given KIND. */
+    InputStream openStored(String id, int kind) {
+        File loose = Utils.join(_dirs[kind], id);
+        if (loose.isFile()) {
+            try {
+                return new BufferedInputStream(new FileInputStream(loose),
+                        Blob.BUFFER_SIZE);
+            } catch (FileNotFoundException excp) {
+                /* Packed since it was found; read it from its pack. */
+            }
+        }
+        for (int attempt = 0; attempt < 2; attempt += 1) {
+            for (Pack pack : packs()) {
+                InputStream result = pack.open(id, kind);
+                if (result != null) {
+                    return result;
+                }
+            }
+            synchronized (this) {
+                _packs = null;
+            }
+        }
+        if (kind == BLOB && !promisors().isEmpty()) {
+            prefetch(List.of(id));
+            if (!hasBlob(id)) {
+                throw Utils.error("Cannot fetch blob %s from a remote.", id);
+            }
+            return openStored(id, kind);
+        }
+        throw Utils.error("No object %s in %s.", id, _gitlet);
+    }
+
+    /** Return the number of stored bytes of the object ID of the given
+     *  KIND. */
+    long storedLength(String id, int kind) {
+        try {
+            return Files.size(Utils.join(_dirs[kind], id).toPath());
+        } catch (IOException excp) {
+            /* Not loose, or packed since; find it in its pack. */
+        }
+        for (int attempt = 0; attempt < 2; attempt += 1) {
+            for (Pack pack : packs()) {
+                long result = pack.length(id, kind);
+                if (result >= 0) {
+                    return result;
+                }
+            }
+            synchronized (this) {
+                _packs = null;
+            }
+        }
+        throw Utils.error("No object %s in %s.", id, _gitlet);
+    }
+
+    /** Return the stored bytes of the small object ID of the given
+     *  KIND. */
+    private byte[] readStored(String id, int kind) throws IOException {
+        File loose = Utils.join(_dirs[kind], id);
+        if (loose.isFile()) {
+            try {
+                return Files.readAllBytes(loose.toPath());
+            } catch (NoSuchFileException excp) {
+                /* Packed since it was found; read it from its pack. */
+            }
+        }
+        try (InputStream in = openStored(id, kind)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /** Return a stream over the content of blob ID whose stored bytes are
+     *  read from STORED, which may also hold a serialized Blob written
+     *  before blobs were streamed.  A delta is applied to the content of
+     *  its base, and the result is cached. */
+    private InputStream decode(String id, InputStream stored)
+        throws IOException {
+        DataInputStream in = new DataInputStream(stored);
+        in.mark(HEADER_BYTES);
+        int magic = in.readInt();
+        if (magic == BLOB_MAGIC) {
+            int encoding = in.readByte();
+            if (encoding == DELTA) {
+                String base = Pack.toHex(in.readNBytes(Pack.ID_BYTES));
+                in.readUnsignedByte();
+                Codec codec = Codec.forEncoding(in.readByte());
+                if (codec == null) {
+                    throw Utils.error("Unknown blob encoding.");
+                }
+                byte[] result;
+                try (InputStream delta = codec.decode(in)) {
+                    result = Delta.apply(content(base), delta);
+                }
+                cache(id, result);
+                return new ByteArrayInputStream(result);
+            } else if (encoding == MANIFEST) {
+                InputStream result = openChunks(readManifest(in));
+                in.close();
+                return result;
+            }
+            Codec codec = Codec.forEncoding(encoding);
+            if (codec == null) {
+                throw Utils.error("Unknown blob encoding %d.", encoding);
+            }
+            return codec.decode(in);
+        }
+        in.reset();
+        Blob legacy = Utils.deserialize(in.readAllBytes(), Blob.class,
+                Blob.SERIALIZED);
+        in.close();
+        return new ByteArrayInputStream(legacy.getLegacyContent());
+    }
+
+    /** Write the loose object ID of the given KIND with the bytes produced
+     *  by WRITER.  The object is written to a temporary file first and
+     *  renamed into place, so readers never see a partial object. */
+    private void writeLoose(String id, int kind, Writer writer)
+        throws IOException {
+        if (!_dirs[kind].exists()) {
+            _dirs[kind].mkdirs();
+        }
+        File temp = File.createTempFile("tmp-", null, _dirs[kind]);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp),
+                        Blob.BUFFER_SIZE))) {
+            writer.write(out);
+        } catch (IOException excp) {
+            temp.delete();
+            throw excp;
+        }
+        Files.move(temp.toPath(), Utils.join(_dirs[kind], id).toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Something that writes the bytes of an object. */
+    private interface Writer {
+        /** Write the bytes of an object to OUT. */
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** Return whether the object ID of the given KIND is stored. */
+    boolean contains(String id, int kind) {
+        return Utils.join(_dirs[kind], id).isFile() || inPacks(id, kind);
+    }
+
+    /** Return whether the object ID of the given KIND is in a pack. */
+    private boolean inPacks(String id, int kind) {
+        for (Pack pack : packs()) {
+            if (pack.contains(id, kind)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return all packs of this store, loading their list on first use. */
+    private synchronized List<Pack> packs() {
+        if (_packs == null) {
+            _packs = new ArrayList<>();
+            List<String> files = Utils.plainFilenamesIn(_packDir);
+            if (files != null) {
+                for (String name : files) {
+                    if (name.endsWith(".idx")) {
+                        String base = name.substring(0, name.length() - 4);
+                        _packs.add(new Pack(Utils.join(_packDir,
+                                base + ".pack"), Utils.join(_packDir, name)));
+                    }
+                }
+            }
+        }
+        return _packs;
+    }
+
+    /** Magic number at the start of a stored blob. */
+    private static final int BLOB_MAGIC = 0x47424c42;
+
+    /** Number of bytes in the header of a stored blob. */
+    private static final int HEADER_BYTES = 5;
+
+    /** Files with fewer bytes than this are always stored raw. */
+    static final int MIN_ENCODED_BYTES = 512;
+
+    /** Encoding of a blob stored as a delta against another blob. */
+    private static final int DELTA = 2;
+
+    /** Encoding of a blob stored as a manifest of chunks. */
+    private static final int MANIFEST = 3;
+
+    /** Blobs with more bytes than this are never the base of a delta. */
+    static final int MAX_DELTA_BYTES = 1 << 24;
+
+    /** Default maximum number of deltas between a blob and the full blob
+     *  it is rebuilt from. */
+    static final int MAX_DELTA_DEPTH = 16;
+
+    /** Number of recently read commits kept in memory. */
+    private static final int CACHED_COMMITS = 4096;
+
+    /** Number of recently read trees kept in memory. */
+    private static final int CACHED_TREES = 1 << 14;
+
+    /** Number of bytes of blob contents kept in the cache of bases. */
+    private static final long CACHE_BYTES = 1 << 26;
+
+    /** Name of the system property choosing the codec of new blobs. */
+    static final String CODEC_PROPERTY = "gitlet.codec";
+
+    /** Name of the system property choosing the codec of Bundles sent. */
+    static final String BUNDLE_CODEC_PROPERTY = "gitlet.bundleCodec";
+
+    /** Name of the file listing the shallow commits. */
+    private static final String SHALLOW = "shallow";
+
+    /** Name of the file listing the remotes that hold missing blobs. */
+    private static final String PROMISORS = "promisors";
+
+    /** The kind of Blob objects. */
+    static final int BLOB = 0;
+
+    /** The kind of Commit objects. */
+    static final int COMMIT = 1;
+
+    /** The kind of the chunks of large blobs. */
+    static final int CHUNK = 2;
+
+    /** The kind of Tree objects. */
+    static final int TREE = 3;
+
+    /** The working directory. */
+    private static final File CWD = new File(System.getProperty("user.dir"));
+
+    /** The ObjectStore of the working directory, or null before first use. */
+    private static ObjectStore _local;
+
+    /** The repository directory of this store. */
+    private File _gitlet;
+
+    /** The directories of loose objects, indexed by kind. */
+    private File[] _dirs;
+
+    /** The directory of packs. */
+    private File _packDir;
+
+    /** The commit graph of this store, or null before first use. */
+    private CommitGraph _graph;
+
+    /** The commit index of this store, or null before first use. */
+    private CommitIndex _commitIndex;
+
+    /** The message index of this store, or null before first use. */
+    private MessageIndex _messageIndex;
+
+    /** The ids of the shallow commits, or null before first use. */
+    private Set<String> _shallow;
+
+    /** The packs of this store, or null before first use. */
+    private List<Pack> _packs;
+
+    /** Recently rebuilt or written blob contents, by id, least recently
+     *  used first. */
+    private LinkedHashMap<String, byte[]> _cache =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Recently read commits, by id, least recently used first, guarded
+     *  by the map itself. */
+    private LinkedHashMap<String, Commit> _commits =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Commit> eldest) {
+                return size() > CACHED_COMMITS;
+            }
+        };
+
+    /** Recently read trees, by id, least recently used first, guarded by
+     *  the map itself. */
+    private LinkedHashMap<String, Tree> _trees =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Tree> eldest) {
+                return size() > CACHED_TREES;
+            }
+        };
+
+    /** Number of bytes of contents in _cache. */
+    private long _cachedBytes;
+
+    /** Maximum number of deltas between a new blob and a full blob. */
+    private int _maxDeltaDepth = MAX_DELTA_DEPTH;
+
+    /** The codec used to encode new blobs. */
+    private Codec _codec =
+        Codec.forName(System.getProperty(CODEC_PROPERTY, "deflate"));
+
+    /** The codec compressing the Bundles this store sends.  Blobs are
+     *  already encoded, so bundles are sent raw unless asked. */
+    private Codec _bundleCodec =
+        Codec.forName(System.getProperty(BUNDLE_CODEC_PROPERTY, "raw"));
+}
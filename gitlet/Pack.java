@@ -0,0 +1,431 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+
+/** A Pack is an append-only file of objects together with a sorted index
+ *  of their SHA1 ids.  The pack file holds, for each object, its kind, its
+ *  length and its bytes.  The index holds a 256-entry fan-out table on the
+ *  first byte of the id followed by fixed-size records of (id, kind, offset)
+ *  sorted by id, so that finding an object is a binary search in the
+ *  memory-mapped index and a single seek in the pack.
+ *  @author Wenhao Pan
+ */
+public class Pack {
+
+    /** A Pack whose pack file is PACKFILE and whose index is INDEXFILE. */
+    public Pack(File packFile, File indexFile) {
+        _packFile = packFile;
+        _indexFile = indexFile;
+    }
+
+    /** Return the offset of the object ID of the given KIND in the pack,
+     *  or -1 if this pack does not contain it.  Objects of different kinds
+     *  may share an id, in which case their records are adjacent. */
+    public long find(String id, int kind) {
+        int pos = position(id);
+        if (pos < 0) {
+            return -1;
+        }
+        while (pos > 0 && idAt(pos - 1).equals(id)) {
+            pos -= 1;
+        }
+        for (; pos < size() && idAt(pos).equals(id); pos += 1) {
+            if (index().getInt(recordAt(pos) + ID_BYTES) == kind) {
+                return index().getLong(recordAt(pos) + ID_BYTES + 4);
+            }
+        }
+        return -1;
+    }
+
+    /** Return whether this pack contains the object ID of the given KIND. */
+    public boolean contains(String id, int kind) {
+        return find(id, kind) >= 0;
+    }
+
+    /** Return a stream over the bytes of the object ID of the given KIND,
+     *  or null if this pack does not contain it or was removed since. */
+    public InputStream open(String id, int kind) {
+        long offset = find(id, kind);
+        if (offset < 0) {
+            return null;
+        }
+        try {
+            RandomAccessFile pack = new RandomAccessFile(_packFile, "r");
+            pack.seek(offset + 1);
+            long length = pack.readLong();
+            return new BufferedInputStream(new EntryStream(pack, length),
+                    Blob.BUFFER_SIZE);
+        } catch (FileNotFoundException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read pack %s.", _packFile.getName());
+        }
+    }
+
+    /** Return the number of stored bytes of the object ID of the given
+     *  KIND, or -1 if this pack does not contain it or was removed
+     *  since. */
+    public long length(String id, int kind) {
+        long offset = find(id, kind);
+        if (offset < 0) {
+            return -1;
+        }
+        try (RandomAccessFile pack = new RandomAccessFile(_packFile, "r")) {
+            pack.seek(offset + 1);
+            return pack.readLong();
+        } catch (FileNotFoundException excp) {
+            return -1;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read pack %s.", _packFile.getName());
+        }
+    }
+
+    /** Return the ids of all objects of the given KIND in this pack,
+     *  in sorted order. */
+    public List<String> ids(int kind) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int pos = 0; pos < size(); pos += 1) {
+            if (index().getInt(recordAt(pos) + ID_BYTES) == kind) {
+                result.add(idAt(pos));
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of objects in this pack. */
+    public int size() {
+        return index().getInt(HEADER_BYTES - 4);
+    }
+
+    /** Return the pack file. */
+    public File getPackFile() {
+        return _packFile;
+    }
+
+    /** Return the index file. */
+    public File getIndexFile() {
+        return _indexFile;
+    }
+
+    /** Move this pack and then its index into DIR, so that readers never
+     *  see the index without the pack, and return the moved pack. */
+    Pack moveTo(File dir) throws IOException {
+        File packFile = Utils.join(dir, _packFile.getName());
+        File indexFile = Utils.join(dir, _indexFile.getName());
+        Files.move(_packFile.toPath(), packFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.move(_indexFile.toPath(), indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return new Pack(packFile, indexFile);
+    }
+
+    /** Return the record position of ID in the index, or -1. */
+    private int position(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] target = toBytes(id);
+        int first = target[0] & 0xff;
+        int lo = first == 0 ? 0 : index().getInt(FANOUT_START + 4 * first - 4);
+        int hi = index().getInt(FANOUT_START + 4 * first) - 1;
+        byte[] probe = new byte[ID_BYTES];
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            index().get(recordAt(mid), probe);
+            int cmp = Arrays.compareUnsigned(probe, target);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the hex id of the record at POS. */
+    private String idAt(int pos) {
+        byte[] raw = new byte[ID_BYTES];
+        index().get(recordAt(pos), raw);
+        return toHex(raw);
+    }
+
+    /** Return the byte offset of the index record at POS. */
+    private static int recordAt(int pos) {
+        return HEADER_BYTES + FANOUT_BYTES + pos * RECORD_BYTES;
+    }
+
+    /** Return the memory-mapped index, mapping it on first use.  The
+     *  index of a pack removed by gc since it was listed reads as empty,
+     *  so that its objects are looked for in the pack that replaced it. */
+    private ByteBuffer index() {
+        ByteBuffer result = _index;
+        if (result == null) {
+            try (RandomAccessFile idx = new RandomAccessFile(_indexFile, "r");
+                 FileChannel channel = idx.getChannel()) {
+                result = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } catch (FileNotFoundException excp) {
+                result = emptyIndex();
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read pack index %s.",
+                        _indexFile.getName());
+            }
+            if (result.getInt(0) != INDEX_MAGIC) {
+                throw Utils.error("Corrupted pack index %s.",
+                        _indexFile.getName());
+            }
+            _index = result;
+        }
+        return result;
+    }
+
+    /** Return an index holding no object. */
+    private static ByteBuffer emptyIndex() {
+        ByteBuffer result = ByteBuffer.allocate(HEADER_BYTES + FANOUT_BYTES);
+        result.putInt(0, INDEX_MAGIC);
+        result.putInt(4, VERSION);
+        return result;
+    }
+
+    /** Write a new pack holding the ENTRIES into DIR, and return it.
+     *  The bytes of each entry are streamed from its source file. */
+    public static Pack write(File dir, List<Entry> entries)
+        throws IOException {
+        Collections.sort(entries);
+        File packFile = File.createTempFile("pack-", ".tmp", dir);
+        long[] offsets = new long[entries.size()];
+        try (FileOutputStream raw = new FileOutputStream(packFile);
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(raw))) {
+            writeHeader(out);
+            long offset = PACK_HEADER_BYTES;
+            for (int i = 0; i < entries.size(); i += 1) {
+                File source = entries.get(i).getSource();
+                offsets[i] = offset;
+                out.writeByte(entries.get(i).getKind());
+                out.writeLong(source.length());
+                Files.copy(source.toPath(), out);
+                offset += ENTRY_HEADER_BYTES + source.length();
+            }
+            out.flush();
+            raw.getFD().sync();
+        }
+        return install(dir, packFile, entries, offsets);
+    }
+
+    /** Move the complete pack file PACKFILE, which holds the ENTRIES at
+     *  the given OFFSETS in any order, into DIR under its name, write its
+     *  index beside it, and return it.  The index is written last and
+     *  renamed into place, so readers never see a pack without its
+     *  objects. */
+    static Pack install(File dir, File packFile, List<Entry> entries,
+                        long[] offsets) throws IOException {
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> entries.get(a).compareTo(entries.get(b)));
+        StringBuilder ids = new StringBuilder();
+        int[] fanout = new int[FANOUT];
+        for (int i : order) {
+            ids.append(entries.get(i).getId());
+            fanout[toBytes(entries.get(i).getId())[0] & 0xff] += 1;
+        }
+        for (int i = 1; i < FANOUT; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+        String name = "pack-" + Utils.sha1(ids.toString());
+        File target = Utils.join(dir, name + ".pack");
+        File indexFile = Utils.join(dir, name + ".idx");
+        Files.move(packFile.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        File temp = File.createTempFile("idx-", ".tmp", dir);
+        try (FileOutputStream raw = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(raw))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (int count : fanout) {
+                out.writeInt(count);
+            }
+            for (int i : order) {
+                out.write(toBytes(entries.get(i).getId()));
+                out.writeInt(entries.get(i).getKind());
+                out.writeLong(offsets[i]);
+            }
+            out.flush();
+            raw.getFD().sync();
+        }
+        Files.move(temp.toPath(), indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return new Pack(target, indexFile);
+    }
+
+    /** Write the header of a pack file to OUT. */
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(PACK_MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /** Return the 20 raw bytes of the hex ID. */
+    static byte[] toBytes(String id) {
+        return HexFormat.of().parseHex(id, 0, 2 * ID_BYTES);
+    }
+
+    /** Return the hex id of the raw bytes RAW. */
+    static String toHex(byte[] raw) {
+        return HexFormat.of().formatHex(raw);
+    }
+
+    /** A stream over the bytes of one entry of a pack. */
+    private static class EntryStream extends InputStream {
+
+        /** A stream over the next LENGTH bytes of PACK. */
+        EntryStream(RandomAccessFile pack, long length) {
+            _pack = pack;
+            _remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (_remaining <= 0) {
+                return -1;
+            }
+            _remaining -= 1;
+            return _pack.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (_remaining <= 0) {
+                return -1;
+            }
+            int n = _pack.read(buffer, off, (int) Math.min(len, _remaining));
+            if (n > 0) {
+                _remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _pack.close();
+        }
+
+        /** The pack being read. */
+        private RandomAccessFile _pack;
+
+        /** Number of bytes of the entry not read yet. */
+        private long _remaining;
+    }
+
+    /** An object to be written into a pack. */
+    public static class Entry implements Comparable<Entry> {
+
+        /** An Entry for the object ID of the given KIND whose bytes
+         *  are in the file SOURCE. */
+        public Entry(String id, int kind, File source) {
+            _id = id;
+            _kind = kind;
+            _source = source;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = _id.compareTo(other._id);
+            return result != 0 ? result : Integer.compare(_kind, other._kind);
+        }
+
+        /** Return _id. */
+        public String getId() {
+            return _id;
+        }
+
+        /** Return _kind. */
+        public int getKind() {
+            return _kind;
+        }
+
+        /** Return _source. */
+        public File getSource() {
+            return _source;
+        }
+
+        /** The SHA1 id of the object. */
+        private String _id;
+
+        /** The kind of the object. */
+        private int _kind;
+
+        /** The file holding the stored bytes of the object. */
+        private File _source;
+    }
+
+    /** Magic number at the start of a pack file. */
+    private static final int PACK_MAGIC = 0x47504b31;
+
+    /** Number of bytes in the header of a pack file. */
+    static final int PACK_HEADER_BYTES = 8;
+
+    /** Number of bytes before the bytes of each object in a pack file:
+     *  its kind and its length. */
+    static final int ENTRY_HEADER_BYTES = 1 + 8;
+
+    /** Magic number at the start of an index file. */
+    private static final int INDEX_MAGIC = 0x47494431;
+
+    /** Version of the pack format. */
+    private static final int VERSION = 1;
+
+    /** Number of raw bytes in a SHA1 id. */
+    static final int ID_BYTES = 20;
+
+    /** Number of buckets in the fan-out table. */
+    private static final int FANOUT = 256;
+
+    /** Number of bytes in the index header. */
+    private static final int HEADER_BYTES = 12;
+
+    /** Offset of the fan-out table in the index. */
+    private static final int FANOUT_START = HEADER_BYTES;
+
+    /** Number of bytes in the fan-out table. */
+    private static final int FANOUT_BYTES = 4 * FANOUT;
+
+    /** Number of bytes in each index record. */
+    private static final int RECORD_BYTES = ID_BYTES + 4 + 8;
+
+    /** The pack file. */
+    private File _packFile;
+
+    /** The index file. */
+    private File _indexFile;
+
+    /** The memory-mapped index, or null if not mapped yet.  Threads that
+     *  find it null at once may each map it; any of the mappings will
+     *  do. */
+    private volatile ByteBuffer _index;
+}
@@ -0,0 +1,297 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** A Server answers the requests of SocketTransports for one repository,
+ *  as "gitlet serve ADDRESS" does, listening at a TCP address
+ *  tcp://HOST:PORT or a Unix-domain socket unix:PATH.  Each connection
+ *  is served by its own thread, which answers its requests in order
+ *  until the client closes it or a request fails.  Every request that
+ *  reads or changes the repository does so through a LocalTransport,
+ *  holding the locks of the repository only while it runs, and one at
+ *  a time within the server; Bundles are read from and written to the
+ *  socket outside of that, so a slow client holds up no other.
+ *  @author Wenhao Pan
+ */
+public class Server implements AutoCloseable {
+
+    /** A Server for the repository directory GITLET, listening at the
+     *  socket address ADDRESS.  Port 0 of a TCP address picks a free
+     *  port. */
+    public Server(File gitlet, String address) throws IOException {
+        SocketAddress socket = Transport.socketAddress(address);
+        if (socket == null) {
+            throw Utils.error("Not a socket address: %s.", address);
+        }
+        _gitlet = gitlet;
+        if (socket instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(
+                    ((UnixDomainSocketAddress) socket).getPath());
+            _server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            _server = ServerSocketChannel.open();
+        }
+        try {
+            _server.bind(socket);
+        } catch (IOException excp) {
+            _server.close();
+            throw Utils.error("Cannot listen at %s.", address);
+        }
+    }
+
+    /** Return the address the server listens at. */
+    public String address() throws IOException {
+        return Transport.name(_server.getLocalAddress());
+    }
+
+    /** Accept connections until the server is closed. */
+    public void serve() throws IOException {
+        while (_server.isOpen()) {
+            SocketChannel client;
+            try {
+                client = _server.accept();
+            } catch (AsynchronousCloseException excp) {
+                break;
+            }
+            Thread handler = new Thread(() -> handle(client));
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    /** Stop accepting connections, removing the socket file of a
+     *  Unix-domain address. */
+    @Override
+    public void close() throws IOException {
+        SocketAddress address = _server.getLocalAddress();
+        _server.close();
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(
+                    ((UnixDomainSocketAddress) address).getPath());
+        }
+    }
+
+    /** Answer the requests of CLIENT in order until it closes the
+     *  connection or one of them fails.  A request that fails is answered
+     *  with the message of whatever it threw, or its name if it has no
+     *  message, so the client reports that rather than a lost
+     *  connection. */
+    private void handle(SocketChannel client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(client), Blob.BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(client),
+                        Blob.BUFFER_SIZE));
+            while (true) {
+                String op;
+                try {
+                    op = in.readUTF();
+                } catch (EOFException excp) {
+                    return;
+                }
+                try {
+                    answer(op, in, out, client);
+                } catch (RuntimeException excp) {
+                    out.writeByte(SocketTransport.ERROR);
+                    out.writeUTF(excp.getMessage() != null
+                            ? excp.getMessage() : excp.toString());
+                    out.flush();
+                    return;
+                }
+                out.flush();
+            }
+        } catch (IOException excp) {
+            /* The client went away; there is nobody to tell. */
+        }
+    }
+
+    /** Answer the request for operation OP, whose operands are read from
+     *  IN, writing the reply to OUT over the connection CLIENT. */
+    private void answer(String op, DataInputStream in, DataOutputStream out,
+                        SocketChannel client) throws IOException {
+        switch (op) {
+        case SocketTransport.REFS:
+            refs(out);
+            break;
+        case SocketTransport.FETCH:
+            fetch(in, out, client);
+            break;
+        case SocketTransport.BLOBS:
+            blobs(in, out, client);
+            break;
+        case SocketTransport.PUSH:
+            push(in, out);
+            break;
+        case SocketTransport.UPDATE:
+            update(in, out);
+            break;
+        default:
+            throw Utils.error("Unknown request %s.", op);
+        }
+    }
+
+    /** Write the head and branches of the repository to OUT. */
+    private void refs(DataOutputStream out) throws IOException {
+        String head;
+        Map<String, String> branches;
+        synchronized (this) {
+            try (LocalTransport repo = new LocalTransport(_gitlet)) {
+                head = repo.head();
+                branches = repo.branches();
+            }
+        }
+        out.writeByte(SocketTransport.OK);
+        out.writeUTF(head);
+        out.writeInt(branches.size());
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            out.writeUTF(branch.getKey());
+            out.writeUTF(branch.getValue());
+        }
+    }
+
+    /** Read the commit wanted, the commits had, the shallow commits of
+     *  the client, the depth and whether to leave blobs out from IN, and
+     *  write to OUT the commits sent without their parents, then stream
+     *  the Bundle of the commits missing to CLIENT. */
+    private void fetch(DataInputStream in, DataOutputStream out,
+                       SocketChannel client) throws IOException {
+        String want = in.readUTF();
+        List<String> haves = readIds(in);
+        List<String> shallow = readIds(in);
+        int depth = in.readInt();
+        boolean blobless = in.readBoolean();
+        File bundle;
+        List<String> cut;
+        synchronized (this) {
+            try (LocalTransport repo = new LocalTransport(_gitlet)) {
+                ObjectStore store = repo.store();
+                if (!store.hasCommit(want)) {
+                    throw Utils.error("No commit with that id exists.");
+                }
+                Negotiation negotiation = new Negotiation(store);
+                negotiation.setDepth(depth);
+                negotiation.want(want);
+                for (String id : haves) {
+                    negotiation.have(id);
+                }
+                for (String id : shallow) {
+                    negotiation.haveShallow(id);
+                }
+                List<String> missing = negotiation.missing();
+                cut = negotiation.shallow();
+                bundle = store.bundle(missing,
+                        Bundle.within(store, negotiation.common()), blobless);
+            }
+        }
+        out.writeByte(SocketTransport.OK);
+        out.writeInt(cut.size());
+        for (String id : cut) {
+            out.writeUTF(id);
+        }
+        send(bundle, out, client);
+    }
+
+    /** Read the ids of blobs from IN, and stream the Bundle of those the
+     *  repository has to CLIENT after the status, written to OUT.  Objects
+     *  never change, so this takes no lock. */
+    private void blobs(DataInputStream in, DataOutputStream out,
+                       SocketChannel client) throws IOException {
+        List<String> ids = readIds(in);
+        File bundle = new ObjectStore(_gitlet).bundleBlobs(ids,
+                (id, kind) -> false);
+        out.writeByte(SocketTransport.OK);
+        send(bundle, out, client);
+    }
+
+    /** Return the ids read from IN after their number. */
+    private static List<String> readIds(DataInputStream in)
+        throws IOException {
+        ArrayList<String> result = new ArrayList<>();
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            result.add(in.readUTF());
+        }
+        return result;
+    }
+
+    /** Write the length of BUNDLE to OUT and stream BUNDLE, if any, to
+     *  CLIENT, deleting it afterwards. */
+    private static void send(File bundle, DataOutputStream out,
+                             SocketChannel client) throws IOException {
+        if (bundle == null) {
+            out.writeLong(0);
+            return;
+        }
+        try (FileChannel file = FileChannel.open(bundle.toPath(),
+                StandardOpenOption.READ)) {
+            long length = file.size();
+            out.writeLong(length);
+            out.flush();
+            for (long done = 0; done < length;) {
+                done += file.transferTo(done, length - done, client);
+            }
+        } finally {
+            bundle.delete();
+        }
+    }
+
+    /** Read a Bundle from IN into the repository, writing the status to
+     *  OUT once its objects are stored. */
+    private void push(DataInputStream in, DataOutputStream out)
+        throws IOException {
+        long length = in.readLong();
+        if (length > 0) {
+            ObjectStore store = new ObjectStore(_gitlet);
+            File bundle = store.spool(in, length);
+            try {
+                synchronized (this) {
+                    try (LocalTransport repo = new LocalTransport(_gitlet)) {
+                        repo.store().receive(bundle);
+                    }
+                }
+            } finally {
+                bundle.delete();
+            }
+        }
+        out.writeByte(SocketTransport.OK);
+    }
+
+    /** Read a branch and a commit from IN and check the commit out in
+     *  the repository as of the branch, writing the status to OUT. */
+    private void update(DataInputStream in, DataOutputStream out)
+        throws IOException {
+        String branch = in.readUTF();
+        String head = in.readUTF();
+        synchronized (this) {
+            try (LocalTransport repo = new LocalTransport(_gitlet)) {
+                repo.update(branch, head);
+            }
+        }
+        out.writeByte(SocketTransport.OK);
+    }
+
+    /** The repository directory served. */
+    private File _gitlet;
+
+    /** The socket connections are accepted on. */
+    private ServerSocketChannel _server;
+}
@@ -0,0 +1,237 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A SocketTransport reaches a remote served by "gitlet serve" over a
+ *  TCP or Unix-domain socket.  Requests are pipelined: each is written
+ *  as soon as it is known, without waiting for the replies to those
+ *  before it, which the Server answers in order on the same connection.
+ *  A request is the name of an operation followed by its operands; a
+ *  reply is a status byte, followed by the results if it is OK or by an
+ *  error message, which this throws as a GitletException, if not.
+ *  Objects travel as one Bundle streamed from file to socket and back.
+ *
+ *  The operations, with their operands and results, are
+ *    refs:              the head and every branch with its head;
+ *    fetch WANT HAVES SHALLOW DEPTH BLOBLESS:
+ *                       the commits sent without their parents, and a
+ *                       Bundle of the commits the client lacks;
+ *    blobs IDS:         a Bundle of the blobs asked for;
+ *    push BUNDLE:       nothing, once the objects are stored;
+ *    update BRANCH ID:  nothing, once the remote is checked out at ID.
+ *  @author Wenhao Pan
+ */
+public class SocketTransport implements Transport {
+
+    /** A SocketTransport to the Server listening at ADDRESS.  The
+     *  references of the remote are asked for at once. */
+    public SocketTransport(SocketAddress address) throws IOException {
+        _name = Transport.name(address);
+        try {
+            _channel = SocketChannel.open(address);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot reach remote %s.", _name);
+        }
+        _in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(_channel), Blob.BUFFER_SIZE));
+        _out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(_channel), Blob.BUFFER_SIZE));
+        _out.writeUTF(REFS);
+        _out.flush();
+    }
+
+    /** Return the id of the head commit of the remote. */
+    @Override
+    public String head() throws IOException {
+        readRefs();
+        return _head;
+    }
+
+    /** Return the heads of the branches of the remote, by name. */
+    @Override
+    public Map<String, String> branches() throws IOException {
+        readRefs();
+        return _branches;
+    }
+
+    /** Ask the remote for WANT and its ancestors that are not among
+     *  HAVES or below the shallow commits of INTO, down to DEPTH and
+     *  without blobs if BLOBLESS, and receive into INTO the Bundle it
+     *  streams back. */
+    @Override
+    public void fetch(String want, List<String> haves, ObjectStore into,
+                      int depth, boolean blobless) throws IOException {
+        readRefs();
+        _out.writeUTF(FETCH);
+        _out.writeUTF(want);
+        writeIds(haves);
+        writeIds(List.copyOf(into.shallow()));
+        _out.writeInt(depth);
+        _out.writeBoolean(blobless);
+        _out.flush();
+        readStatus();
+        into.graft(readIds());
+        readBundle(into);
+    }
+
+    /** Ask the remote for the blobs with the given IDS, and receive into
+     *  INTO the Bundle it streams back. */
+    public void fetchBlobs(List<String> ids, ObjectStore into)
+        throws IOException {
+        _out.writeUTF(BLOBS);
+        writeIds(ids);
+        _out.flush();
+        readRefs();
+        readStatus();
+        readBundle(into);
+    }
+
+    /** Stream to the remote a Bundle of the COMMITS of FROM, leaving out
+     *  the objects of the COMMON commits, and ask it to update to HEAD as
+     *  of BRANCH in the same breath. */
+    @Override
+    public void push(ObjectStore from, List<String> commits,
+                     List<String> common, String branch, String head)
+        throws IOException {
+        readRefs();
+        File bundle = from.bundle(commits, Bundle.within(from, common));
+        try {
+            _out.writeUTF(PUSH);
+            if (bundle == null) {
+                _out.writeLong(0);
+                _out.flush();
+            } else {
+                try (FileChannel file = FileChannel.open(bundle.toPath(),
+                        StandardOpenOption.READ)) {
+                    long length = file.size();
+                    _out.writeLong(length);
+                    _out.flush();
+                    for (long done = 0; done < length;) {
+                        done += file.transferTo(done, length - done,
+                                _channel);
+                    }
+                }
+            }
+        } finally {
+            if (bundle != null) {
+                bundle.delete();
+            }
+        }
+        _out.writeUTF(UPDATE);
+        _out.writeUTF(branch);
+        _out.writeUTF(head);
+        _out.flush();
+        readStatus();
+        readStatus();
+    }
+
+    /** Close the connection. */
+    @Override
+    public void close() throws IOException {
+        _channel.close();
+    }
+
+    /** Read the reply to the request for references, if not read yet. */
+    private void readRefs() throws IOException {
+        if (_branches != null) {
+            return;
+        }
+        readStatus();
+        _head = _in.readUTF();
+        LinkedHashMap<String, String> branches = new LinkedHashMap<>();
+        for (int n = _in.readInt(); n > 0; n -= 1) {
+            String name = _in.readUTF();
+            branches.put(name, _in.readUTF());
+        }
+        _branches = branches;
+    }
+
+    /** Write the number of IDS, then each of them. */
+    private void writeIds(List<String> ids) throws IOException {
+        _out.writeInt(ids.size());
+        for (String id : ids) {
+            _out.writeUTF(id);
+        }
+    }
+
+    /** Return the ids read after their number. */
+    private List<String> readIds() throws IOException {
+        ArrayList<String> result = new ArrayList<>();
+        for (int n = _in.readInt(); n > 0; n -= 1) {
+            result.add(_in.readUTF());
+        }
+        return result;
+    }
+
+    /** Read the length of a Bundle and the Bundle, if any, into INTO. */
+    private void readBundle(ObjectStore into) throws IOException {
+        long length = _in.readLong();
+        if (length > 0) {
+            into.receive(_in, length);
+        }
+    }
+
+    /** Read the status of a reply, throwing the error it carries if it
+     *  is not OK. */
+    private void readStatus() throws IOException {
+        int status = _in.read();
+        if (status == ERROR) {
+            throw new GitletException(_in.readUTF());
+        } else if (status != OK) {
+            throw Utils.error("Lost connection to remote %s.", _name);
+        }
+    }
+
+    /** Operation asking for the head and branches. */
+    static final String REFS = "refs";
+
+    /** Operation asking for the commits the client lacks. */
+    static final String FETCH = "fetch";
+
+    /** Operation asking for blobs. */
+    static final String BLOBS = "blobs";
+
+    /** Operation sending a Bundle. */
+    static final String PUSH = "push";
+
+    /** Operation checking out a commit in the remote. */
+    static final String UPDATE = "update";
+
+    /** Status of a reply that succeeded. */
+    static final int OK = 0;
+
+    /** Status of a reply that carries an error message. */
+    static final int ERROR = 1;
+
+    /** The name of the address of the remote. */
+    private String _name;
+
+    /** The connection to the remote. */
+    private SocketChannel _channel;
+
+    /** Replies from the remote. */
+    private DataInputStream _in;
+
+    /** Requests to the remote. */
+    private DataOutputStream _out;
+
+    /** The id of the head commit of the remote, once read. */
+    private String _head;
+
+    /** The heads of the branches of the remote, by name, once read. */
+    private Map<String, String> _branches;
+}
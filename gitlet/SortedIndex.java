@@ -0,0 +1,268 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A SortedIndex is a sidecar of the commits of one ObjectStore holding
+ *  fixed-size records sorted as unsigned bytes, so that the records with
+ *  a given prefix are found by a binary search.  The file is a header of
+ *  magic number, version and number of sorted records, followed by any
+ *  header fields of the subclass, then the sorted records, then the
+ *  records of commits stored since, unsorted, in the order they were
+ *  added.  It is memory-mapped when read.  Once the unsorted tail grows
+ *  past MAX_TAIL records the file is rewritten with all of them sorted.
+ *
+ *  Commands that only read the repository build a missing or corrupt
+ *  file, so it is written to a temporary file of its own and renamed into
+ *  place, and a header is only trusted if its number of sorted records
+ *  fits in the file.  If the file cannot be written, for instance in a
+ *  repository the user may only read, the records are kept in memory
+ *  instead, as an unsorted tail.
+ *  @author Wenhao Pan
+ */
+abstract class SortedIndex {
+
+    /** A SortedIndex kept in FILE, called WHAT in error messages, whose
+     *  header starts with MAGIC and VERSION and is HEADERBYTES long, and
+     *  whose records are RECORDBYTES long. */
+    SortedIndex(File file, String what, int magic, int version,
+                int headerBytes, int recordBytes) {
+        _file = file;
+        _what = what;
+        _magic = magic;
+        _version = version;
+        _headerBytes = headerBytes;
+        _recordBytes = recordBytes;
+    }
+
+    /** Return the records of every stored commit, read from the store to
+     *  build the file. */
+    abstract List<byte[]> build();
+
+    /** Write to OUT the header fields that follow the number of sorted
+     *  records, for the records SORTED.  There are none by default. */
+    void writeHeader(DataOutputStream out, List<byte[]> sorted)
+        throws IOException {
+    }
+
+    /** Map the file on first use, building it from the store if it is
+     *  missing or corrupt, and read its unsorted tail. */
+    void load() {
+        if (_tail == null && !read()) {
+            rebuild(build());
+        }
+    }
+
+    /** Add RECORD to the unsorted tail of the file, or rewrite the file
+     *  sorted if the tail is full. */
+    void append(byte[] record) {
+        load();
+        if (_map == null || _tail.size() >= MAX_TAIL) {
+            ArrayList<byte[]> records = all();
+            records.add(record);
+            if (!rebuild(records)) {
+                throw Utils.error("Cannot write %s.", _what);
+            }
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(_file, true)) {
+            out.write(record);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s.", _what);
+        }
+        _tail.add(record);
+        _modified = _file.lastModified();
+        _length = _file.length();
+    }
+
+    /** Rewrite the file with the RECORDS, sorted, without duplicates and
+     *  with no tail, and return whether it was written.  If it was not,
+     *  the records are kept in memory as the tail. */
+    boolean rebuild(List<byte[]> records) {
+        byte[][] all = records.toArray(new byte[0][]);
+        Arrays.sort(all, Arrays::compareUnsigned);
+        ArrayList<byte[]> sorted = new ArrayList<>();
+        byte[] last = null;
+        for (byte[] record : all) {
+            if (!Arrays.equals(record, last)) {
+                sorted.add(record);
+            }
+            last = record;
+        }
+        File temp = null;
+        boolean result = false;
+        try {
+            temp = File.createTempFile(_file.getName() + "-", ".tmp",
+                    _file.getParentFile());
+            try (FileOutputStream raw = new FileOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(raw))) {
+                out.writeInt(_magic);
+                out.writeInt(_version);
+                out.writeInt(sorted.size());
+                writeHeader(out, sorted);
+                for (byte[] record : sorted) {
+                    out.write(record);
+                }
+            }
+            Files.move(temp.toPath(), _file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            result = read();
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+        if (!result) {
+            _map = null;
+            _sorted = 0;
+            _tail = sorted;
+        }
+        _fromFile = false;
+        return result;
+    }
+
+    /** Return the number of sorted records. */
+    int sorted() {
+        return _sorted;
+    }
+
+    /** Return the sorted record at position POS. */
+    ByteBuffer record(int pos) {
+        return _map.slice(recordAt(pos), _recordBytes);
+    }
+
+    /** Return the int at byte OFFSET of the header. */
+    int headerInt(int offset) {
+        return _map.getInt(offset);
+    }
+
+    /** Return the records of the unsorted tail, in the order they were
+     *  added. */
+    List<byte[]> tail() {
+        return _tail;
+    }
+
+    /** Return whether another process changed the file since it was last
+     *  read or written here. */
+    boolean changed() {
+        return _tail != null && (_file.lastModified() != _modified
+                                 || _file.length() != _length);
+    }
+
+    /** Return whether the records were read from an existing file rather
+     *  than just built from the store, so that they may be stale. */
+    boolean fromFile() {
+        return _fromFile;
+    }
+
+    /** Map the file and read its unsorted tail, and return whether it
+     *  holds an index whose header fits in it.  The file is read again
+     *  even just after it was written, since another process may have
+     *  replaced it since. */
+    private boolean read() {
+        long modified = _file.lastModified();
+        MappedByteBuffer map;
+        try (RandomAccessFile raf = new RandomAccessFile(_file, "r");
+             FileChannel channel = raf.getChannel()) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            return false;
+        }
+        if (map.capacity() < _headerBytes || map.getInt(0) != _magic
+                || map.getInt(4) != _version) {
+            return false;
+        }
+        int end = (map.capacity() - _headerBytes) / _recordBytes;
+        int sorted = map.getInt(8);
+        if (sorted < 0 || sorted > end) {
+            return false;
+        }
+        _map = map;
+        _modified = modified;
+        _length = map.capacity();
+        _sorted = sorted;
+        _tail = new ArrayList<>();
+        for (int pos = sorted; pos < end; pos += 1) {
+            byte[] record = new byte[_recordBytes];
+            map.get(recordAt(pos), record);
+            _tail.add(record);
+        }
+        _fromFile = true;
+        return true;
+    }
+
+    /** Return all records, sorted ones first. */
+    private ArrayList<byte[]> all() {
+        ArrayList<byte[]> result = new ArrayList<>();
+        for (int pos = 0; pos < _sorted; pos += 1) {
+            byte[] record = new byte[_recordBytes];
+            _map.get(recordAt(pos), record);
+            result.add(record);
+        }
+        result.addAll(_tail);
+        return result;
+    }
+
+    /** Return the byte offset of the record at POS. */
+    private int recordAt(int pos) {
+        return _headerBytes + pos * _recordBytes;
+    }
+
+    /** Largest number of unsorted records kept at the end of the file. */
+    static final int MAX_TAIL = 1024;
+
+    /** The file holding the index. */
+    private File _file;
+
+    /** What the index is called in error messages. */
+    private String _what;
+
+    /** Magic number at the start of the file. */
+    private int _magic;
+
+    /** Version of the file format. */
+    private int _version;
+
+    /** Number of bytes in the header. */
+    private int _headerBytes;
+
+    /** Number of bytes in a record. */
+    private int _recordBytes;
+
+    /** The mapped file, or null before loading or if the records are
+     *  kept in memory. */
+    private MappedByteBuffer _map;
+
+    /** Number of sorted records in the file. */
+    private int _sorted;
+
+    /** Records added since the file was last sorted, or null before
+     *  loading. */
+    private ArrayList<byte[]> _tail;
+
+    /** Modification time of the file in milliseconds when it was last
+     *  read or written here. */
+    private long _modified;
+
+    /** Length of the file in bytes when it was last read or written
+     *  here. */
+    private long _length;
+
+    /** Whether the records were read from an existing file. */
+    private boolean _fromFile;
+}
@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** A Transport connects a repository to one of its remotes for push,
+ *  fetch and pull.  A remote is either the .gitlet directory of another
+ *  repository on this machine, reached through a LocalTransport, or a
+ *  repository served by "gitlet serve" at the socket address
+ *  tcp://HOST:PORT or unix:PATH, reached through a SocketTransport.
+ *  A Transport holds whatever it needs of the remote, locks or a
+ *  connection, until it is closed.
+ *  @author Wenhao Pan
+ */
+public interface Transport extends AutoCloseable {
+
+    /** Return the id of the head commit of the remote. */
+    String head() throws IOException;
+
+    /** Return the ids of the heads of the branches of the remote, by
+     *  branch name. */
+    Map<String, String> branches() throws IOException;
+
+    /** Add to INTO the commits of the remote that are WANT or its
+     *  ancestors and are not among HAVES, commits INTO has, or their
+     *  ancestors, with every object they need that INTO lacks.  Only the
+     *  commits at most DEPTH commits below WANT are sent, unless DEPTH is
+     *  0, and those at the limit become shallow in INTO.  The shallow
+     *  commits of INTO get their parents, if they are in reach.  Blobs
+     *  are left out if BLOBLESS. */
+    void fetch(String want, List<String> haves, ObjectStore into, int depth,
+               boolean blobless) throws IOException;
+
+    /** Send the COMMITS of FROM, parents first, with every object they
+     *  need that the remote lacks, and make commit HEAD the head of the
+     *  remote, as push does, if it still descends from the head of its
+     *  BRANCH.  COMMON are the commits the remote has among the parents
+     *  of COMMITS. */
+    void push(ObjectStore from, List<String> commits, List<String> common,
+              String branch, String head) throws IOException;
+
+    /** Release whatever this holds of the remote. */
+    @Override
+    void close() throws IOException;
+
+    /** Return a Transport to the remote at ADDRESS, as given to
+     *  add-remote. */
+    static Transport open(File address) throws IOException {
+        SocketAddress socket = socketAddress(address.getPath());
+        if (socket != null) {
+            return new SocketTransport(socket);
+        }
+        return new LocalTransport(address);
+    }
+
+    /** Add to INTO the blobs with the given IDS that the remote at
+     *  ADDRESS, as given to add-remote, has and INTO lacks.  Objects are
+     *  never changed, so this takes no lock on the remote. */
+    static void fetchBlobs(File address, List<String> ids, ObjectStore into)
+        throws IOException {
+        SocketAddress socket = socketAddress(address.getPath());
+        if (socket != null) {
+            try (SocketTransport remote = new SocketTransport(socket)) {
+                remote.fetchBlobs(ids, into);
+            }
+        } else if (address.isDirectory()) {
+            File file = new ObjectStore(address).bundleBlobs(ids,
+                    into::contains);
+            if (file != null) {
+                try {
+                    into.receive(file);
+                } finally {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** Return the socket address named by ADDRESS, tcp://HOST:PORT or
+     *  unix:PATH, or null if it names none.  The slashes after tcp: may
+     *  be collapsed, as they are in a File.  Fails if the port is out of
+     *  range. */
+    static SocketAddress socketAddress(String address) {
+        Matcher tcp = TCP.matcher(address);
+        if (tcp.matches()) {
+            int port = Integer.parseInt(tcp.group(2));
+            if (port > MAX_PORT) {
+                throw Utils.error("Port out of range: %s.", address);
+            }
+            return new InetSocketAddress(tcp.group(1), port);
+        } else if (address.startsWith(UNIX)) {
+            return UnixDomainSocketAddress.of(
+                    address.substring(UNIX.length()));
+        }
+        return null;
+    }
+
+    /** Return the name of the socket address ADDRESS, as socketAddress
+     *  reads it. */
+    static String name(SocketAddress address) {
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inet = (InetSocketAddress) address;
+            return "tcp://" + inet.getHostString() + ":" + inet.getPort();
+        }
+        return UNIX + ((UnixDomainSocketAddress) address).getPath();
+    }
+
+    /** Pattern of TCP socket addresses. */
+    Pattern TCP = Pattern.compile("tcp:/+([^/:]+):(\\d{1,5})/?");
+
+    /** Largest TCP port. */
+    int MAX_PORT = 0xffff;
+
+    /** Prefix of Unix-domain socket addresses. */
+    String UNIX = "unix:";
+}
@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** A Tree lists one directory of a commit: the id of the blob of each
+ *  file in it and the id of the Tree of each directory in it.  A Tree is
+ *  stored under the SHA1 id of its bytes, so a directory whose content
+ *  did not change between two commits is the same Tree in both, stored
+ *  once, and two commits can be compared by comparing the ids of their
+ *  trees before looking inside them.  Paths of files in a commit are
+ *  relative to the working directory, with / between directory names.
+ *  @author Wenhao Pan
+ */
+public class Tree {
+
+    /** An empty Tree. */
+    Tree() {
+        _blobs = new TreeMap<>();
+        _trees = new TreeMap<>();
+    }
+
+    /** Return the Tree with the given ID whose stored bytes are BYTES. */
+    static Tree decode(String id, byte[] bytes) throws IOException {
+        Tree result = new Tree();
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != TREE_MAGIC) {
+            throw Utils.error("Corrupted tree.");
+        }
+        for (TreeMap<String, String> entries
+                 : List.of(result._blobs, result._trees)) {
+            for (int count = in.readInt(); count > 0; count -= 1) {
+                String name = in.readUTF();
+                entries.put(name, Pack.toHex(in.readNBytes(Pack.ID_BYTES)));
+            }
+        }
+        result._bytes = bytes;
+        result._id = id;
+        return result;
+    }
+
+    /** Return the bytes this Tree is stored as. */
+    byte[] encode() {
+        if (_bytes == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(TREE_MAGIC);
+                for (TreeMap<String, String> entries
+                         : List.of(_blobs, _trees)) {
+                    out.writeInt(entries.size());
+                    for (Map.Entry<String, String> entry
+                             : entries.entrySet()) {
+                        out.writeUTF(entry.getKey());
+                        out.write(Pack.toBytes(entry.getValue()));
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            _bytes = bytes.toByteArray();
+        }
+        return _bytes;
+    }
+
+    /** Return the SHA1 id of this Tree. */
+    public String getId() {
+        if (_id == null) {
+            _id = Utils.sha1(encode());
+        }
+        return _id;
+    }
+
+    /** Return the blob ids of the files of this directory by name. */
+    public SortedMap<String, String> getBlobs() {
+        return Collections.unmodifiableSortedMap(_blobs);
+    }
+
+    /** Return the tree ids of the directories of this directory by
+     *  name. */
+    public SortedMap<String, String> getTrees() {
+        return Collections.unmodifiableSortedMap(_trees);
+    }
+
+    /** Store the Trees of the directories holding FILES, which maps the
+     *  path of each file to its blob id, into STORE and return the id of
+     *  the Tree of the top directory. */
+    static String write(ObjectStore store, Map<String, String> files)
+        throws IOException {
+        return update(store, null, files);
+    }
+
+    /** Store into STORE the Trees of the directory whose Tree is BASE, or
+     *  of an empty directory if BASE is null, with the CHANGES made to it,
+     *  and return the id of the Tree of the result.  CHANGES maps the path
+     *  of each changed file to its new blob id, or to null if the file was
+     *  removed.  Only the Trees of directories holding changed files are
+     *  read and written: every other directory keeps its Tree. */
+    static String update(ObjectStore store, String base,
+                         Map<String, String> changes) throws IOException {
+        String result = updateDir(store, base, changes);
+        if (result == null) {
+            Tree empty = new Tree();
+            store.writeTree(empty);
+            result = empty.getId();
+        }
+        return result;
+    }
+
+    /** Return the id of the Tree of the directory whose Tree is BASE, or
+     *  null, with CHANGES made to it as for update, or null if no file is
+     *  left in it. */
+    private static String updateDir(ObjectStore store, String base,
+                                    Map<String, String> changes)
+        throws IOException {
+        Tree tree = new Tree();
+        if (base != null) {
+            Tree old = store.readTree(base);
+            tree._blobs.putAll(old._blobs);
+            tree._trees.putAll(old._trees);
+        }
+        TreeMap<String, Map<String, String>> dirs = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                dirs.computeIfAbsent(path.substring(0, slash),
+                    k -> new HashMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                tree._blobs.remove(path);
+            } else {
+                tree._blobs.put(path, change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> dir : dirs.entrySet()) {
+            String sub = updateDir(store, tree._trees.get(dir.getKey()),
+                    dir.getValue());
+            if (sub == null) {
+                tree._trees.remove(dir.getKey());
+            } else {
+                tree._trees.put(dir.getKey(), sub);
+            }
+        }
+        if (tree._blobs.isEmpty() && tree._trees.isEmpty()) {
+            return null;
+        }
+        store.writeTree(tree);
+        return tree.getId();
+    }
+
+    /** Add to FILES the blob id of every file below the Tree ID in
+     *  STORE, by its path preceded by PREFIX. */
+    static void flatten(ObjectStore store, String id, String prefix,
+                        Map<String, String> files) {
+        Tree tree = store.readTree(id);
+        for (Map.Entry<String, String> blob : tree._blobs.entrySet()) {
+            files.put(prefix + blob.getKey(), blob.getValue());
+        }
+        for (Map.Entry<String, String> sub : tree._trees.entrySet()) {
+            flatten(store, sub.getValue(), prefix + sub.getKey() + "/",
+                    files);
+        }
+    }
+
+    /** Return the blob id of the file PATH below the Tree ID in STORE, or
+     *  null if there is none, reading only the Trees on its path. */
+    static String find(ObjectStore store, String id, String path) {
+        Tree tree = directory(store, id, path);
+        return tree == null ? null : tree._blobs.get(name(path));
+    }
+
+    /** Return the blob id of the file PATH or the Tree id of the
+     *  directory PATH below the Tree ID in STORE, or null if there is
+     *  neither, reading only the Trees on its path.  Since Trees are named
+     *  by their content, the id changes exactly when something below the
+     *  directory does. */
+    static String entry(ObjectStore store, String id, String path) {
+        Tree tree = directory(store, id, path);
+        if (tree == null) {
+            return null;
+        }
+        String blob = tree._blobs.get(name(path));
+        return blob != null ? blob : tree._trees.get(name(path));
+    }
+
+    /** Return the Tree of the directory holding PATH below the Tree ID in
+     *  STORE, or null if there is none. */
+    private static Tree directory(ObjectStore store, String id,
+                                  String path) {
+        Tree tree = store.readTree(id);
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            String sub = tree._trees.get(path.substring(0, slash));
+            if (sub == null) {
+                return null;
+            }
+            tree = store.readTree(sub);
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        return tree;
+    }
+
+    /** Return the last component of PATH. */
+    private static String name(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /** Magic number at the start of a stored tree. */
+    private static final int TREE_MAGIC = 0x47545245;
+
+    /** Blob ids of the files of this directory by name. */
+    private TreeMap<String, String> _blobs;
+
+    /** Tree ids of the directories of this directory by name. */
+    private TreeMap<String, String> _trees;
+
+    /** The stored bytes of this Tree, or null until they are needed. */
+    private byte[] _bytes;
+
+    /** The SHA1 id of this Tree, or null until it is needed. */
+    private String _id;
+}
@@ -1,5 +1,24 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import ucb.junit.textui;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -22,8 +41,1116 @@ public class UnitTest {
 
     @Test
     public void checkSplitPoint() {
+        HashMap<String, MergeBase.Node> graph = new HashMap<>();
+        graph.put("a", new MergeBase.Node(new String[] {}, 0));
+        graph.put("b", new MergeBase.Node(new String[] {"a"}, 1));
+        graph.put("c", new MergeBase.Node(new String[] {"a"}, 2));
+        graph.put("d", new MergeBase.Node(new String[] {"b", "c"}, 3));
+        graph.put("e", new MergeBase.Node(new String[] {"c", "b"}, 4));
+        graph.put("f", new MergeBase.Node(new String[] {"d"}, 5));
+        graph.put("g", new MergeBase.Node(new String[] {"e"}, 6));
+        MergeBase base = new MergeBase(graph::get);
+        assertEquals("a", base.find("b", "c"));
+        assertEquals("c", base.find("f", "c"));
+        assertEquals("f", base.find("f", "f"));
+        assertEquals("b", base.find("d", "e"));
+        assertEquals("b", base.find("f", "g"));
+        assertEquals(7, base.loaded());
     }
 
-}
+    /** Check the parents and generation numbers of the commit graph, that
+     *  shallow commits have no parents, and that graphs sharing a file
+     *  read each other's records instead of appending them again. */
+    @Test
+    public void checkCommitGraph() throws Exception {
+        withDir("gitlet-graph", dir -> {
+            ObjectStore store = new ObjectStore(dir);
+            String tree = Tree.write(store, new HashMap<>());
+            Commit c0 = new Commit("c0", tree, null, null, new Date(0));
+            Commit c1 = new Commit("c1", tree, c0.getId(), null,
+                    new Date(1000));
+            Commit side = new Commit("side", tree, c0.getId(), null,
+                    new Date(2000));
+            Commit merge = new Commit("merge", tree, c1.getId(),
+                    side.getId(), new Date(3000));
+            Commit cut = new Commit("cut", tree, Utils.sha1("gone"), null,
+                    new Date(4000));
+            store.graft(List.of(cut.getId()));
+            for (Commit commit : new Commit[] {c0, c1, side, merge, cut}) {
+                store.writeCommit(commit);
+            }
+            CommitGraph graph = store.graph();
+            int pos = graph.index(merge.getId());
+            assertEquals(3, graph.generation(pos));
+            assertEquals(3000, graph.time(pos));
+            int[] parents = graph.parents(pos);
+            assertEquals(c1.getId(), graph.id(parents[0]));
+            assertEquals(side.getId(), graph.id(parents[1]));
+            assertEquals(2, graph.generation(parents[1]));
+            assertEquals(1, graph.generation(graph.index(c0.getId())));
+            pos = graph.index(cut.getId());
+            assertEquals(0, graph.parents(pos).length);
+            assertEquals(1, graph.generation(pos));
+            assertEquals(-1, graph.firstParent(pos));
+
+            ObjectStore other = new ObjectStore(dir);
+            assertEquals(5, other.graph().size());
+            Commit next = new Commit("next", tree, merge.getId(), null,
+                    new Date(5000));
+            store.writeCommit(next);
+            pos = other.graph().index(next.getId());
+            assertEquals(4, other.graph().generation(pos));
+            assertEquals(6, other.graph().size());
+            assertEquals(6, new ObjectStore(dir).graph().size());
+
+            Utils.join(dir, "commit-graph").delete();
+            ArrayList<Thread> readers = new ArrayList<>();
+            for (int i = 0; i < 3; i += 1) {
+                readers.add(new Thread(() ->
+                        new ObjectStore(dir).graph().index(next.getId())));
+            }
+            for (Thread reader : readers) {
+                reader.start();
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            assertEquals(5, new ObjectStore(dir).graph().size());
+            Commit last = new Commit("last", tree, next.getId(), null,
+                    new Date(6000));
+            other.writeCommit(last);
+            CommitGraph reread = new ObjectStore(dir).graph();
+            assertEquals(6, reread.size());
+            assertEquals(5, reread.generation(reread.index(last.getId())));
+        });
+    }
+
+    /** Check that a file that is not UTF-8 comes back byte for byte
+     *  from add, commit and checkout, and that its id is the SHA1 of its
+     *  bytes. */
+    @Test
+    public void checkBinaryBlob() throws Exception {
+        withDir("gitlet-binary", dir -> {
+            byte[] bytes = new byte[3 * 256];
+            for (int i = 0; i < bytes.length; i += 1) {
+                bytes[i] = (byte) (i * 7);
+            }
+            bytes[0] = (byte) 0xc3;
+            bytes[1] = (byte) 0x28;
+            bytes[2] = (byte) 0xff;
+            assertEquals(Utils.sha1(bytes),
+                    Blob.hash(new ByteArrayInputStream(bytes)));
+            File file = Utils.join(dir, "bin.dat");
+            Utils.writeContents(file, bytes);
+            assertEquals("", gitlet(dir, "init"));
+            assertEquals("", gitlet(dir, "add", "bin.dat"));
+            assertEquals("", gitlet(dir, "commit", "binary"));
+            Utils.writeContents(file, "changed");
+            assertEquals("", gitlet(dir, "checkout", "--", "bin.dat"));
+            assertArrayEquals(bytes, Utils.readContents(file));
+            file.delete();
+            assertEquals("", gitlet(dir, "checkout", "--", "bin.dat"));
+            assertArrayEquals(bytes, Utils.readContents(file));
+        });
+    }
+
+    @Test
+    public void checkCodecs() throws IOException {
+        byte[] input = Benchmark.text(new Random(1), 100000);
+        for (String name : new String[] {"raw", "deflate", "deflate:1"}) {
+            Codec codec = Codec.forName(name);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            codec.encode(new ByteArrayInputStream(input), encoded);
+            Codec decoder = Codec.forEncoding(codec.encoding());
+            try (InputStream in = decoder.decode(
+                    new ByteArrayInputStream(encoded.toByteArray()))) {
+                assertArrayEquals(input, in.readAllBytes());
+            }
+        }
+        assertNull(Codec.forEncoding(99));
+    }
+
+    @Test
+    public void checkDelta() throws IOException {
+        byte[] source = Benchmark.text(new Random(2), 50000);
+        byte[] target = source.clone();
+        target[100] = 'x';
+        System.arraycopy(source, 40000, target, 20000, 5000);
+        byte[][] targets = {target, new byte[0], source, "short".getBytes()};
+        for (byte[] each : targets) {
+            byte[] delta = Delta.create(source, each);
+            assertArrayEquals(each,
+                    Delta.apply(source, new ByteArrayInputStream(delta)));
+        }
+        assertTrue(Delta.create(source, target).length < 1000);
+    }
+
+    @Test
+    public void checkChunks() throws Exception {
+        withDir("gitlet-chunks", dir -> {
+            File file = Utils.join(dir, "data.bin");
+            byte[] data = new byte[(int) Blob.CHUNKED_BYTES + 12345];
+            new Random(3).nextBytes(data);
+            Files.write(file.toPath(), data);
+            ObjectStore store = new ObjectStore(Utils.join(dir, "one"));
+            Blob first = new Blob(file);
+            store.writeBlob(first);
+            int chunks = Utils.join(dir, "one", "chunksData").list().length;
+            assertTrue(chunks > 1);
+            byte[] edited = new byte[data.length + 10];
+            System.arraycopy(data, 0, edited, 0, 1000000);
+            System.arraycopy(data, 1000000, edited, 1000010,
+                    data.length - 1000000);
+            Files.write(file.toPath(), edited);
+            Blob second = new Blob(file);
+            store.writeBlob(second);
+            int added = Utils.join(dir, "one", "chunksData").list().length
+                - chunks;
+            assertTrue(added >= 1 && added <= 3);
+            ObjectStore other = new ObjectStore(Utils.join(dir, "two"));
+            store.transferBlob(first.getId(), other);
+            try (InputStream in = other.openBlob(first.getId())) {
+                assertArrayEquals(data, in.readAllBytes());
+            }
+            store.repack();
+            try (InputStream in = store.openBlob(second.getId())) {
+                assertArrayEquals(edited, in.readAllBytes());
+            }
+        });
+    }
+
+    @Test
+    public void checkBundle() throws Exception {
+        withDir("gitlet-bundle", dir -> {
+            File file = Utils.join(dir, "data.bin");
+            byte[] data = new byte[(int) Blob.CHUNKED_BYTES + 12345];
+            new Random(5).nextBytes(data);
+            Files.write(file.toPath(), data);
+            ObjectStore store = new ObjectStore(Utils.join(dir, "one"));
+            Blob big = new Blob(file);
+            store.writeBlob(big);
+            HashMap<String, String> files = new HashMap<>();
+            files.put("data.bin", big.getId());
+            Commit first = new Commit("first", Tree.write(store, files), null,
+                    null, new Date(0));
+            store.writeCommit(first);
+            store.repack();
+            data[0] += 1;
+            Files.write(file.toPath(), data);
+            Blob edited = new Blob(file);
+            store.writeBlob(edited);
+            files.put("sub/data.bin", edited.getId());
+            Commit second = new Commit("second", Tree.write(store, files),
+                    first.getId(), null, new Date(1000));
+            store.writeCommit(second);
+            ObjectStore other = new ObjectStore(Utils.join(dir, "two"));
+            store.setBundleCodec(Codec.forName("deflate"));
+            store.transferCommits(List.of(first.getId()), other);
+            store.setBundleCodec(Codec.RAW);
+            store.transferCommits(List.of(first.getId(), second.getId()),
+                    other);
+            store.transferCommits(List.of(second.getId()), other);
+            assertEquals(4, Utils.join(dir, "two", "packs").list().length);
+            assertFalse(Utils.join(dir, "two", "blobsData").exists());
+            try (InputStream in = other.openBlob(edited.getId())) {
+                assertArrayEquals(data, in.readAllBytes());
+            }
+            assertEquals(List.of(second.getId()), other.findMessage("second"));
+            assertEquals(List.of(first.getId()), other.findCommits(
+                    first.getId().substring(0, 8), 2));
+            assertEquals(2, other.graph().generation(
+                    other.graph().index(second.getId())));
+            Bundle bundle = new Bundle(store, (id, kind) -> false);
+            bundle.addCommit(second.getId());
+            File good = Utils.join(dir, "good.bundle");
+            bundle.write(good, Codec.RAW);
+            byte[] bytes = Files.readAllBytes(good.toPath());
+            File bad = Utils.join(dir, "bad.bundle");
+            Files.write(bad.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+            assertCorrupted(bad, Utils.join(dir, "three"));
+            byte[] offset = bytes.clone();
+            offset[offset.length - 1] += 1;
+            Files.write(bad.toPath(), offset);
+            assertCorrupted(bad, Utils.join(dir, "three"));
+            assertEquals(0, Utils.join(dir, "three").list().length);
+            byte[] object = bytes.clone();
+            object[40] += 1;
+            Files.write(bad.toPath(), object);
+            ObjectStore four = new ObjectStore(Utils.join(dir, "four"));
+            try {
+                four.receive(bad);
+                fail("Received a tampered bundle.");
+            } catch (GitletException excp) {
+                assertEquals("Corrupted bundle.", excp.getMessage());
+            }
+            assertEquals(0, Utils.join(dir, "four", "packs").list().length);
+            assertFalse(four.hasCommit(second.getId()));
+            four.receive(good);
+            assertEquals(List.of(second.getId()), four.findMessage("second"));
+            ArrayList<String> commits = new ArrayList<>();
+            Bundle.unpack(good, Utils.join(dir, "three"), commits);
+            assertEquals(List.of(second.getId()), commits);
+        });
+    }
+
+    /** Assert that unpacking the bundle FILE into DIR fails as
+     *  corrupted. */
+    private static void assertCorrupted(File file, File dir)
+        throws IOException {
+        try {
+            Bundle.unpack(file, dir, new ArrayList<>());
+            fail("Unpacked a corrupted bundle.");
+        } catch (GitletException excp) {
+            assertEquals("Corrupted bundle.", excp.getMessage());
+        }
+    }
+
+    /** A test run in a temporary directory. */
+    private interface InDir {
+        /** Run the test in the temporary directory DIR. */
+        void run(File dir) throws Exception;
+    }
+
+    /** Run TEST in a new temporary directory named after PREFIX, and
+     *  delete the directory afterwards, whether TEST passes or not. */
+    private static void withDir(String prefix, InDir test)
+        throws Exception {
+        File dir = Files.createTempDirectory(prefix).toFile();
+        try {
+            test.run(dir);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Delete FILE and, if it is a directory, everything in it. */
+    private static void delete(File file) {
+        File[] inside = file.listFiles();
+        if (inside != null) {
+            for (File each : inside) {
+                delete(each);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void checkIndex() throws Exception {
+        withDir("gitlet-index", dir -> {
+            File file = Utils.join(dir, "a.txt");
+            Index index = new Index(Utils.join(dir, "index"));
+            Utils.writeContents(file, "first");
+            long old = System.currentTimeMillis() - 60000;
+            file.setLastModified(old);
+            String first = index.blobId("a.txt", file);
+            Utils.writeContents(file, "other");
+            file.setLastModified(old);
+            assertEquals(first, index.blobId("a.txt", file));
+            file.setLastModified(old + 1000);
+            String other = index.blobId("a.txt", file);
+            assertFalse(first.equals(other));
+            Utils.writeContents(file, "fresh");
+            long now = file.lastModified();
+            index.blobId("a.txt", file);
+            Utils.writeContents(file, "stale");
+            file.setLastModified(now);
+            assertEquals(new Blob(file).getId(), index.blobId("a.txt", file));
+            index.save(dir);
+            assertEquals(new Blob(file).getId(),
+                    new Index(Utils.join(dir, "index")).blobId("a.txt", file));
+        });
+    }
+
+    /** Check that a daemon sees the commits other processes push to its
+     *  repository between its commands. */
+    @Test
+    public void checkDaemon() throws Exception {
+        withDir("gitlet-daemon", dir -> withDir("gitlet-pusher", client -> {
+            File gitlet = Utils.join(dir, ".gitlet");
+            assertEquals("", gitlet(dir, "init"));
+            assertEquals("", gitlet(client, "init"));
+            assertEquals("", gitlet(client, "add-remote", "R",
+                    gitlet.getPath()));
+            Process daemon = start(dir, "daemon");
+            try {
+                File socket = Utils.join(gitlet, "daemon.sock");
+                for (int i = 0; i < 1000 && !socket.exists(); i += 1) {
+                    Thread.sleep(10);
+                }
+                assertTrue(socket.exists());
+                assertTrue(gitlet(dir, "log").contains("initial commit"));
+                assertEquals(1, gitlet(dir, "find", "initial commit")
+                        .split("\n").length);
+                for (String name : List.of("p1", "p2")) {
+                    commitFile(client, name);
+                }
+                assertEquals("", gitlet(client, "push", "R", "master"));
+                for (String name : List.of("s1", "s2")) {
+                    commitFile(dir, name);
+                }
+                List<String> history = List.of("s2", "s1", "p2", "p1",
+                        "initial commit");
+                assertEquals(history, logMessages(gitlet(dir, "log")));
+                List<String> all = logMessages(gitlet(dir, "global-log"));
+                assertEquals(history.size(), all.size());
+                assertTrue(all.containsAll(history));
+                assertEquals(new ObjectStore(gitlet).findMessage("p2"),
+                        List.of(gitlet(dir, "find", "p2").trim()));
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ByteArrayOutputStream err = new ByteArrayOutputStream();
+                assertTrue(Daemon.send(gitlet, out, err, "rm", "none.txt"));
+                assertEquals("", out.toString(StandardCharsets.UTF_8));
+                assertEquals("No reason to remove the file.",
+                        err.toString(StandardCharsets.UTF_8).trim());
+                err.reset();
+                assertTrue(Daemon.send(gitlet, out, err, "status"));
+                assertTrue(out.toString(StandardCharsets.UTF_8)
+                        .startsWith("=== Branches ==="));
+                assertEquals("", err.toString(StandardCharsets.UTF_8));
+                System.setProperty("gitlet.timing", "true");
+                try {
+                    assertFalse(Daemon.send(gitlet, out, err, "status"));
+                } finally {
+                    System.clearProperty("gitlet.timing");
+                }
+            } finally {
+                gitlet(dir, "daemon", "stop");
+                if (!daemon.waitFor(10, TimeUnit.SECONDS)) {
+                    daemon.destroyForcibly().waitFor();
+                }
+            }
+        }));
+    }
+
+    /** Return the messages of the commits LOG, printed by log or
+     *  global-log, shows, in order. */
+    private static List<String> logMessages(String log) {
+        ArrayList<String> result = new ArrayList<>();
+        String[] lines = log.split("\n");
+        for (int i = 0; i + 1 < lines.length; i += 1) {
+            if (lines[i].startsWith("Date: ")) {
+                result.add(lines[i + 1]);
+            }
+        }
+        return result;
+    }
+
+    /** Write the file NAME.txt in the directory DIR, holding NAME, and
+     *  add and commit it there with the message NAME. */
+    private static void commitFile(File dir, String name) {
+        Utils.writeContents(Utils.join(dir, name + ".txt"), name);
+        assertEquals("", gitlet(dir, "add", name + ".txt"));
+        assertEquals("", gitlet(dir, "commit", name));
+    }
+
+    @Test
+    public void checkTrees() throws Exception {
+        withDir("gitlet-tree", dir -> {
+            ObjectStore store = new ObjectStore(dir);
+            HashMap<String, String> files = new HashMap<>();
+            files.put("a.txt", Utils.sha1("a"));
+            files.put("src/b.txt", Utils.sha1("b"));
+            files.put("src/util/c.txt", Utils.sha1("c"));
+            files.put("doc/d.txt", Utils.sha1("d"));
+            String first = Tree.write(store, files);
+            assertEquals(Utils.sha1("c"),
+                    Tree.find(store, first, "src/util/c.txt"));
+            assertNull(Tree.find(store, first, "src/c.txt"));
+            assertNull(Tree.find(store, first, "lib/c.txt"));
+            files.put("doc/d.txt", Utils.sha1("e"));
+            String second = Tree.write(store, files);
+            Tree before = store.readTree(first);
+            Tree after = store.readTree(second);
+            assertEquals(before.getTrees().get("src"),
+                    after.getTrees().get("src"));
+            assertFalse(before.getTrees().get("doc")
+                    .equals(after.getTrees().get("doc")));
+            HashMap<String, String> flat = new HashMap<>();
+            Tree.flatten(new ObjectStore(dir), second, "", flat);
+            assertEquals(files, flat);
+            files.put("doc/d.txt", Utils.sha1("d"));
+            assertEquals(first, Tree.write(store, files));
+        });
+    }
+
+    @Test
+    public void checkCommitEncoding() throws Exception {
+        withDir("gitlet-commit", dir -> {
+            ObjectStore store = new ObjectStore(dir);
+            String tree = Tree.write(store, new HashMap<>());
+            Commit first = new Commit("first", tree, null, null, new Date(0));
+            Commit second = new Commit("caf\u00e9", tree, first.getId(), null,
+                    new Date(1000));
+            store.writeCommit(first);
+            store.writeCommit(second);
+            Commit read = new ObjectStore(dir).readCommit(second.getId());
+            assertEquals(first.getId(), read.getFirstParent());
+            assertNull(read.getSecondParent());
+            assertEquals(1000, read.getTime().getTime());
+            assertEquals("caf\u00e9", read.getMessage());
+            assertEquals(second.getId(), Utils.sha1(read.encode()));
+            assertTrue(Commit.hasId(second.getId(), second.encode()));
+            assertFalse(Commit.hasId(first.getId(), second.encode()));
+            try {
+                Commit.decode(first.getId(), Utils.serialize(new Random()));
+                fail("Read a commit of another class.");
+            } catch (IllegalArgumentException excp) {
+                assertTrue(excp.getMessage().contains("REJECTED"));
+            }
+            File legacy = Utils.join(dir, "committedData", first.getId());
+            Files.write(legacy.toPath(), Utils.serialize(first));
+            assertEquals("first",
+                    new ObjectStore(dir).readCommit(first.getId())
+                    .getMessage());
+            assertEquals(1, store.migrateCommits());
+            assertEquals(0, store.migrateCommits());
+            assertArrayEquals(first.encode(),
+                    Files.readAllBytes(legacy.toPath()));
+        });
+    }
+
+    @Test
+    public void checkCommitIndex() throws Exception {
+        withDir("gitlet-ids", dir -> {
+            File commits = Utils.join(dir, "committedData");
+            commits.mkdirs();
+            String[] ids = {Utils.sha1("a"), Utils.sha1("b"), Utils.sha1("c")};
+            for (String id : ids) {
+                Utils.join(commits, id).createNewFile();
+            }
+            ObjectStore store = new ObjectStore(dir);
+            for (String id : ids) {
+                assertEquals(List.of(id),
+                        store.findCommits(id.substring(0, 6), 2));
+            }
+            assertEquals(2, store.findCommits("", 2).size());
+            assertTrue(store.findCommits("g", 2).isEmpty());
+            assertTrue(store.findCommits(ids[0].toUpperCase(), 2).isEmpty());
+            String later = Utils.sha1("d");
+            Utils.join(commits, later).createNewFile();
+            assertEquals(List.of(later),
+                    new ObjectStore(dir).findCommits(later.substring(0, 6), 2));
+            CommitIndex index = new CommitIndex(Utils.join(dir, "commit-ids"),
+                    store);
+            for (int i = 0; i <= CommitIndex.MAX_TAIL; i += 1) {
+                index.add(Utils.sha1("added", Integer.toString(i)));
+            }
+            CommitIndex reread = new CommitIndex(Utils.join(dir, "commit-ids"),
+                    store);
+            for (int i = 0; i <= CommitIndex.MAX_TAIL; i += 1) {
+                String id = Utils.sha1("added", Integer.toString(i));
+                assertEquals(List.of(id), reread.find(id, 2));
+            }
+            assertEquals(List.of(ids[1]), reread.find(ids[1], 2));
 
+            File file = Utils.join(dir, "commit-ids");
+            byte[] bytes = Utils.readContents(file);
+            bytes[8] = 0x7f;
+            Utils.writeContents(file, bytes);
+            assertEquals(List.of(ids[2]),
+                    new ObjectStore(dir).findCommits(ids[2], 2));
+            file.delete();
+            List<String> errors = Collections.synchronizedList(
+                    new ArrayList<>());
+            ArrayList<Thread> finders = new ArrayList<>();
+            for (int i = 0; i < 4; i += 1) {
+                finders.add(new Thread(() -> {
+                    try {
+                        new ObjectStore(dir).findCommits(ids[0], 2);
+                    } catch (RuntimeException excp) {
+                        errors.add(excp.toString());
+                    }
+                }));
+            }
+            for (Thread finder : finders) {
+                finder.start();
+            }
+            for (Thread finder : finders) {
+                finder.join();
+            }
+            assertEquals(List.of(), errors);
+            CommitIndex unwritable = new CommitIndex(
+                    Utils.join(dir, "missing", "commit-ids"), store);
+            assertEquals(List.of(later), unwritable.find(later, 2));
+        });
+    }
+
+    @Test
+    public void checkMessageIndex() throws Exception {
+        withDir("gitlet-messages", dir -> {
+            ObjectStore store = new ObjectStore(dir);
+            String tree = Tree.write(store, new HashMap<>());
+            int[] counts = new int[3];
+            for (int i = 0; i <= MessageIndex.MAX_TAIL; i += 1) {
+                store.writeCommit(new Commit("message " + (i % 3), tree, null,
+                        null, new Date(i)));
+                counts[i % 3] += 1;
+            }
+            ObjectStore reread = new ObjectStore(dir);
+            for (int i = 0; i < 3; i += 1) {
+                List<String> found = reread.findMessage("message " + i);
+                assertEquals(counts[i], found.size());
+                assertEquals("message " + i,
+                        reread.readCommit(found.get(0)).getMessage());
+            }
+            assertTrue(reread.findMessage("message").isEmpty());
+            Utils.join(dir, "messages").delete();
+            assertEquals(counts[1],
+                    new ObjectStore(dir).findMessage("message 1").size());
+
+            File file = Utils.join(dir, "messages");
+            byte[] bytes = Utils.readContents(file);
+            bytes[8] = 0x7f;
+            Utils.writeContents(file, bytes);
+            assertEquals(counts[2],
+                    new ObjectStore(dir).findMessage("message 2").size());
+            file.delete();
+            List<String> errors = Collections.synchronizedList(
+                    new ArrayList<>());
+            ArrayList<Thread> finders = new ArrayList<>();
+            for (int i = 0; i < 4; i += 1) {
+                finders.add(new Thread(() -> {
+                    try {
+                        new ObjectStore(dir).findMessage("message 0");
+                    } catch (RuntimeException excp) {
+                        errors.add(excp.toString());
+                    }
+                }));
+            }
+            for (Thread finder : finders) {
+                finder.start();
+            }
+            for (Thread finder : finders) {
+                finder.join();
+            }
+            assertEquals(List.of(), errors);
+            MessageIndex unwritable = new MessageIndex(
+                    Utils.join(dir, "missing", "messages"), store);
+            assertEquals(counts[0], unwritable.find("message 0").size());
+        });
+    }
+
+    @Test
+    public void checkCommitWalk() throws Exception {
+        withDir("gitlet-walk", dir -> {
+            ObjectStore store = new ObjectStore(dir);
+            HashMap<String, String> files = new HashMap<>();
+            Commit c0 = new Commit("c0", Tree.write(store, files), null, null,
+                    new Date(0));
+            files.put("src/a.txt", Utils.sha1("a"));
+            Commit c1 = new Commit("c1", Tree.write(store, files), c0.getId(),
+                    null, new Date(1000));
+            files.put("b.txt", Utils.sha1("b"));
+            Commit c2 = new Commit("c2", Tree.write(store, files), c1.getId(),
+                    null, new Date(2000));
+            files.put("b.txt", Utils.sha1("c"));
+            Commit side = new Commit("side", Tree.write(store, files),
+                    c2.getId(), null, new Date(2500));
+            files.put("src/a.txt", Utils.sha1("d"));
+            Commit c3 = new Commit("c3", Tree.write(store, files), c2.getId(),
+                    side.getId(), new Date(3000));
+            for (Commit commit : new Commit[] {c0, c1, c2, side, c3}) {
+                store.writeCommit(commit);
+            }
+            String head = c3.getId();
+            assertEquals(List.of("c3", "c2", "c1", "c0"),
+                    messages(CommitWalk.firstParents(store, head)));
+            CommitWalk walk = CommitWalk.firstParents(new ObjectStore(dir),
+                    head);
+            walk.setLimit(2);
+            assertEquals(List.of("c3", "c2"), messages(walk));
+            walk = CommitWalk.firstParents(store, head);
+            walk.setSince(1500);
+            walk.setUntil(2500);
+            assertEquals(List.of("c2"), messages(walk));
+            walk = CommitWalk.firstParents(store, head);
+            walk.setPaths(List.of("src"));
+            assertEquals(List.of("c3", "c1"), messages(walk));
+            assertEquals(List.of("c3", "side", "c2", "c1", "c0"),
+                    messages(CommitWalk.all(store)));
+            walk = CommitWalk.all(store);
+            walk.setPaths(List.of("b.txt"));
+            assertEquals(List.of("c3", "side", "c2"), messages(walk));
+            Utils.join(dir, "commit-graph").delete();
+            assertEquals(5, messages(CommitWalk.all(new ObjectStore(dir)))
+                    .size());
+        });
+    }
+
+    /** Return the messages of the commits WALK produces, in order. */
+    private static List<String> messages(CommitWalk walk) {
+        ArrayList<String> result = new ArrayList<>();
+        while (walk.hasNext()) {
+            result.add(walk.next().getMessage());
+        }
+        return result;
+    }
+
+    @Test
+    public void checkNegotiation() throws Exception {
+        withDir("gitlet-send", dir -> withDir("gitlet-receive", other -> {
+            ObjectStore store = new ObjectStore(dir);
+            ObjectStore target = new ObjectStore(other);
+            HashMap<String, String> files = new HashMap<>();
+            Commit base = null;
+            for (int i = 0; i < 50; i += 1) {
+                base = new Commit("base" + i, Tree.write(store, files),
+                        base == null ? null : base.getId(), null, new Date(i));
+                store.writeCommit(base);
+                store.transferCommit(base, target);
+            }
+            File file = Utils.join(dir, "a.txt");
+            Utils.writeContents(file, "a");
+            Blob blob = new Blob(file);
+            store.writeBlob(blob);
+            files.put("a.txt", blob.getId());
+            Commit side = new Commit("side", Tree.write(store, files),
+                    base.getId(), null, new Date(100));
+            Commit main = new Commit("main", Tree.write(store, new HashMap<>()),
+                    base.getId(), null, new Date(200));
+            Commit merge = new Commit("merge", Tree.write(store, files),
+                    main.getId(), side.getId(), new Date(300));
+            for (Commit commit : new Commit[] {side, main, merge}) {
+                store.writeCommit(commit);
+            }
+            Negotiation negotiation = new Negotiation(store);
+            negotiation.want(merge.getId());
+            negotiation.have(base.getId());
+            negotiation.have(Utils.sha1("unknown"));
+            List<String> missing = negotiation.missing();
+            assertEquals(3, missing.size());
+            assertEquals(merge.getId(), missing.get(2));
+            assertTrue(missing.contains(side.getId()));
+            assertTrue(negotiation.visited() <= 5);
+            for (String id : missing) {
+                store.transferCommit(store.readCommit(id), target);
+            }
+            assertTrue(target.hasCommit(side.getId()));
+            assertTrue(target.hasBlob(blob.getId()));
+            negotiation = new Negotiation(store);
+            negotiation.want(merge.getId());
+            negotiation.have(merge.getId());
+            assertTrue(negotiation.missing().isEmpty());
+            HHHashMap branches = new HHHashMap(new HashMap<>());
+            branches.put("master", main.getId());
+            branches.put("side", side.getId());
+            negotiation = new Negotiation(store);
+            negotiation.want(merge.getId());
+            for (String id : Commands.advertised(main.getId(), branches)) {
+                negotiation.have(id);
+            }
+            assertEquals(List.of(merge.getId()), negotiation.missing());
+            assertTrue(Negotiation.descends(store, merge.getId(),
+                    side.getId()));
+            assertFalse(Negotiation.descends(store, main.getId(),
+                    side.getId()));
+        }));
+    }
+
+    @Test
+    public void checkJournal() throws Exception {
+        withDir("gitlet-journal", dir -> {
+            File journalFile = Utils.join(dir, "journal");
+            File head = Utils.join(dir, "head");
+            File branches = Utils.join(dir, "config", "branches");
+            branches.getParentFile().mkdir();
+            Journal journal = new Journal(journalFile);
+            HashMap<File, byte[]> updates = new HashMap<>();
+            updates.put(head, "one".getBytes(StandardCharsets.UTF_8));
+            updates.put(branches, "master".getBytes(StandardCharsets.UTF_8));
+            journal.commit(updates);
+            assertEquals("one", Utils.readContentsAsString(head));
+            long length = journalFile.length();
+            journal.commit(updates);
+            assertEquals(length, journalFile.length());
+            Utils.writeContents(head, "lost");
+            branches.delete();
+            new Journal(journalFile).recover();
+            assertEquals("one", Utils.readContentsAsString(head));
+            assertEquals("master", Utils.readContentsAsString(branches));
+            byte[] torn = Arrays.copyOf(Utils.readContents(journalFile),
+                    (int) length - 3);
+            updates.put(head, "two".getBytes(StandardCharsets.UTF_8));
+            journal.commit(updates);
+            long committed = journalFile.length();
+            Utils.writeContents(head, "one");
+            Files.write(journalFile.toPath(), torn,
+                    StandardOpenOption.APPEND);
+            new Journal(journalFile).recover();
+            assertEquals("two", Utils.readContentsAsString(head));
+            assertEquals(committed, journalFile.length());
+            byte[] big = new byte[(int) Journal.CHECKPOINT_BYTES];
+            updates.put(head, big);
+            journal.commit(updates);
+            assertEquals(0, journalFile.length());
+            assertArrayEquals(big, Utils.readContents(head));
+        });
+    }
+
+    @Test
+    public void checkConcurrentCommands() throws Exception {
+        withDir("gitlet-locks", dir -> {
+            assertEquals("", gitlet(dir, "init"));
+            List<String> errors = Collections.synchronizedList(
+                    new ArrayList<>());
+            ArrayList<String> names = new ArrayList<>();
+            ArrayList<Thread> writers = new ArrayList<>();
+            for (int worker = 0; worker < 3; worker += 1) {
+                ArrayList<String> mine = new ArrayList<>();
+                for (int round = 0; round < 3; round += 1) {
+                    mine.add("w" + worker + "r" + round);
+                }
+                names.addAll(mine);
+                writers.add(new Thread(() -> {
+                    for (String name : mine) {
+                        Utils.writeContents(Utils.join(dir, name + ".txt"),
+                                name);
+                        errors.add(gitlet(dir, "add", name + ".txt"));
+                        errors.add(gitlet(dir, "branch", name));
+                    }
+                }));
+            }
+            AtomicBoolean done = new AtomicBoolean();
+            Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    String status = gitlet(dir, "status");
+                    if (!status.startsWith("=== Branches ===")) {
+                        errors.add(status);
+                    }
+                    String log = gitlet(dir, "log");
+                    if (!log.startsWith("===")) {
+                        errors.add(log);
+                    }
+                }
+            });
+            reader.start();
+            try {
+                for (Thread writer : writers) {
+                    writer.start();
+                }
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+            } finally {
+                done.set(true);
+                reader.join();
+            }
+            errors.removeIf(String::isEmpty);
+            assertEquals(List.of(), errors);
+            List<String> status = Arrays.asList(gitlet(dir, "status")
+                    .split(System.lineSeparator()));
+            for (String name : names) {
+                assertTrue(status.contains(name));
+                assertTrue(status.contains(name + ".txt"));
+            }
+        });
+    }
+
+    /** Check that push, fetch and pull reach a repository served over
+     *  TCP and Unix-domain sockets, and that errors come back. */
+    @Test
+    public void checkSocketTransport() throws Exception {
+        assertEquals("tcp://127.0.0.1:65535", Transport.name(
+                Transport.socketAddress("tcp://127.0.0.1:65535")));
+        try {
+            Transport.socketAddress("tcp://127.0.0.1:65536");
+            fail("Accepted a port out of range.");
+        } catch (GitletException excp) {
+            assertEquals("Port out of range: tcp://127.0.0.1:65536.",
+                    excp.getMessage());
+        }
+        withDir("gitlet-served", served -> withDir("gitlet-client", client -> {
+            assertEquals("", gitlet(served, "init"));
+            assertEquals("", gitlet(client, "init"));
+            Utils.writeContents(Utils.join(served, "a.txt"), "a");
+            assertEquals("", gitlet(served, "add", "a.txt"));
+            assertEquals("", gitlet(served, "commit", "a"));
+            File gitlet = Utils.join(served, ".gitlet");
+            File socket = Utils.join(served, "serve.sock");
+            try (Server tcp = new Server(gitlet, "tcp://127.0.0.1:0");
+                 Server unix = new Server(gitlet, "unix:" + socket.getPath())) {
+                for (Server server : List.of(tcp, unix)) {
+                    Thread thread = new Thread(() -> {
+                        try {
+                            server.serve();
+                        } catch (IOException excp) {
+                            throw new IllegalStateException(excp);
+                        }
+                    });
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+                assertEquals("", gitlet(client, "add-remote", "R",
+                        tcp.address()));
+                assertEquals("", gitlet(client, "add-remote", "U",
+                        unix.address()));
+                assertEquals("That remote does not have that branch.\n",
+                        gitlet(client, "fetch", "R", "other"));
+                gitlet(client, "pull", "R", "master");
+                assertEquals("a", Utils.readContentsAsString(
+                        Utils.join(client, "a.txt")));
+                Utils.writeContents(Utils.join(client, "b.txt"), "b");
+                assertEquals("", gitlet(client, "add", "b.txt"));
+                assertEquals("", gitlet(client, "commit", "b"));
+                assertEquals("", gitlet(client, "push", "R", "master"));
+                assertTrue(gitlet(served, "log").contains("b\n"));
+                assertEquals("", gitlet(client, "fetch", "U", "master"));
+                assertTrue(gitlet(client, "status").contains("U/master\n"));
+                Utils.writeContents(Utils.join(served, "c.txt"), "c");
+                assertEquals("", gitlet(served, "add", "c.txt"));
+                assertEquals("", gitlet(served, "commit", "c"));
+                Utils.writeContents(Utils.join(client, "d.txt"), "d");
+                assertEquals("", gitlet(client, "add", "d.txt"));
+                assertEquals("", gitlet(client, "commit", "d"));
+                assertEquals("Please pull down remote changes before "
+                        + "pushing.\n", gitlet(client, "push", "U", "master"));
+                try (Locks held = new Locks(gitlet)) {
+                    held.lock(Locks.REFS);
+                    assertTrue(gitlet(client, "fetch", "R", "master")
+                            .contains("OverlappingFileLockException"));
+                }
+            }
+            assertFalse(socket.exists());
+            assertEquals("", gitlet(client, "add-remote", "X",
+                    "tcp://127.0.0.1:1"));
+            assertEquals("Cannot reach remote tcp://127.0.0.1:1.\n",
+                    gitlet(client, "fetch", "X", "master"));
+        }));
+    }
 
+    /** Check that a shallow, blob-less fetch brings only the commits and
+     *  trees asked for, that blobs are fetched when checked out, and that
+     *  a full fetch fills in the history, through both transports. */
+    @Test
+    public void checkShallowFetch() throws Exception {
+        withDir("gitlet-deep", served -> {
+            assertEquals("", gitlet(served, "init"));
+            for (int i = 1; i <= 5; i += 1) {
+                Utils.writeContents(Utils.join(served, "a.txt"), "a" + i);
+                assertEquals("", gitlet(served, "add", "a.txt"));
+                assertEquals("", gitlet(served, "commit", "a" + i));
+            }
+            File gitlet = Utils.join(served, ".gitlet");
+            try (Server server = new Server(gitlet, "tcp://127.0.0.1:0")) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        server.serve();
+                    } catch (IOException excp) {
+                        throw new IllegalStateException(excp);
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+                for (String address : List.of(gitlet.getPath(),
+                        server.address())) {
+                    withDir("gitlet-shallow", client -> {
+                        File clientGitlet = Utils.join(client, ".gitlet");
+                        assertEquals("", gitlet(client, "init"));
+                        assertEquals("", gitlet(client, "add-remote", "R",
+                                address));
+                        assertEquals("", gitlet(client, "fetch", "R", "master",
+                                "--depth", "2", "--blobless"));
+                        ObjectStore store = new ObjectStore(clientGitlet);
+                        String a5 = store.findMessage("a5").get(0);
+                        String blob = store.readCommit(a5).getBlobId("a.txt");
+                        assertFalse(store.hasBlob(blob));
+                        assertEquals(1, store.shallow().size());
+                        assertEquals(List.of(), store.findMessage("a3"));
+                        assertEquals("", gitlet(client, "checkout",
+                                "R/master"));
+                        assertEquals("a5", Utils.readContentsAsString(
+                                Utils.join(client, "a.txt")));
+                        assertTrue(new ObjectStore(clientGitlet).hasBlob(blob));
+                        String log = gitlet(client, "log");
+                        assertTrue(log.contains("a4\n")
+                            && !log.contains("a3\n"));
+                        assertEquals("", gitlet(client, "fetch", "R",
+                                "master"));
+                        assertTrue(new ObjectStore(clientGitlet).shallow()
+                            .isEmpty());
+                        assertTrue(gitlet(client, "log")
+                            .contains("initial commit"));
+                    });
+                }
+            }
+        });
+    }
+
+    /** Check that gc keeps everything within its grace period, and that
+     *  past it only the objects of branches and the staging area
+     *  survive, with the indexes of commits rebuilt without the rest. */
+    @Test
+    public void checkGc() throws Exception {
+        withDir("gitlet-gc", dir -> {
+            assertEquals("", gitlet(dir, "init"));
+            Utils.writeContents(Utils.join(dir, "a.txt"), "a1");
+            assertEquals("", gitlet(dir, "add", "a.txt"));
+            Utils.writeContents(Utils.join(dir, "a.txt"), "a2");
+            assertEquals("", gitlet(dir, "add", "a.txt"));
+            assertEquals("", gitlet(dir, "commit", "kept"));
+            assertEquals("", gitlet(dir, "branch", "tmp"));
+            assertEquals("", gitlet(dir, "checkout", "tmp"));
+            Utils.writeContents(Utils.join(dir, "b.txt"), "b");
+            assertEquals("", gitlet(dir, "add", "b.txt"));
+            assertEquals("", gitlet(dir, "commit", "dropped"));
+            assertEquals("", gitlet(dir, "checkout", "master"));
+            assertEquals("", gitlet(dir, "rm-branch", "tmp"));
+            assertTrue(gitlet(dir, "repack").startsWith("Packed"));
+            Utils.writeContents(Utils.join(dir, "c.txt"), "c");
+            assertEquals("", gitlet(dir, "add", "c.txt"));
+            String report = gitlet(dir, "gc");
+            assertTrue(report.startsWith("Marked 2 commits, 2 trees, 2 blobs"));
+            assertTrue(report.contains("Removed 0 objects"));
+
+            File gitlet = Utils.join(dir, ".gitlet");
+            ObjectStore store = new ObjectStore(gitlet);
+            String dropped = store.findMessage("dropped").get(0);
+            String b = store.readCommit(dropped).getBlobId("b.txt");
+            String kept = store.findMessage("kept").get(0);
+            String a = store.readCommit(kept).getBlobId("a.txt");
+            String c = Utils.readObject(Utils.join(gitlet, "config",
+                    "stageArea", "stageAdd"), HHHashMap.class).get("c.txt");
+            GarbageCollector collector = new GarbageCollector(store, 0, 2);
+            collector.mark(List.of(kept), List.of(c));
+            collector.sweep();
+            assertEquals(4, collector.removed());
+            assertTrue(collector.after() < collector.before());
+            store = new ObjectStore(gitlet);
+            assertFalse(store.hasCommit(dropped));
+            assertFalse(store.hasBlob(b));
+            assertTrue(store.hasBlob(a) && store.hasBlob(c));
+            assertEquals(List.of(), store.findMessage("dropped"));
+            assertEquals(List.of(kept), store.findMessage("kept"));
+            assertEquals(1, Utils.join(gitlet, "packs").list().length / 2);
+            assertEquals("Found no commit with that message.\n",
+                    gitlet(dir, "find", "dropped"));
+            assertEquals("", gitlet(dir, "checkout", kept, "--", "a.txt"));
+            assertEquals("a2", Utils.readContentsAsString(
+                    Utils.join(dir, "a.txt")));
+        });
+    }
+
+    /** Run gitlet with ARGS in a new process in the directory DIR, and
+     *  return everything it prints. */
+    private static String gitlet(File dir, String... args) {
+        try {
+            Process process = start(dir, args);
+            String result = new String(process.getInputStream()
+                    .readAllBytes(), StandardCharsets.UTF_8);
+            process.waitFor();
+            return result;
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Start gitlet with ARGS in a new process in the directory DIR, and
+     *  return the process, whose output includes its errors. */
+    private static Process start(File dir, String... args)
+        throws IOException {
+        ArrayList<String> command = new ArrayList<>(List.of(
+                Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString(), "-cp", System.getProperty("java.class.path"),
+                "gitlet.Main"));
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).directory(dir)
+            .redirectErrorStream(true).start();
+    }
+
+    @Test
+    public void checkDiff() throws Exception {
+        withDir("gitlet-diff", dir -> {
+            ObjectStore store = new ObjectStore(dir);
+            HashMap<String, String> files = new HashMap<>();
+            files.put("a.txt", Utils.sha1("a"));
+            files.put("src/b.txt", Utils.sha1("b"));
+            files.put("lib/c.txt", Utils.sha1("c"));
+            String first = Tree.write(store, files);
+            HashMap<String, String> changed = new HashMap<>(files);
+            changed.put("a.txt", Utils.sha1("e"));
+            changed.remove("src/b.txt");
+            changed.put("src/d/e.txt", Utils.sha1("d"));
+            String second = Tree.write(store, changed);
+            String lib = store.readTree(first).getTrees().get("lib");
+            Utils.join(dir, "treesData", lib).delete();
+            Diff diff = Diff.trees(new ObjectStore(dir), first, second);
+            assertEquals(List.of("src/d/e.txt"), diff.getAdded());
+            assertEquals(List.of("src/b.txt"), diff.getRemoved());
+            assertEquals(List.of("a.txt"), diff.getModified());
+            assertEquals(Utils.sha1("e"), diff.newId("a.txt"));
+            assertEquals(Utils.sha1("b"), diff.oldId("src/b.txt"));
+            assertEquals(diff.getPaths(), Diff.maps(files, changed).getPaths());
+            assertTrue(Diff.trees(store, second, second).isEmpty());
+        });
+    }
+
+    @Test
+    public void checkMerge() {
+        HashMap<String, String> split = new HashMap<>();
+        split.put("same.txt", "1");
+        split.put("ours.txt", "1");
+        split.put("theirs.txt", "1");
+        split.put("both.txt", "1");
+        split.put("gone.txt", "1");
+        split.put("clash.txt", "1");
+        HashMap<String, String> ours = new HashMap<>(split);
+        ours.put("ours.txt", "2");
+        ours.put("both.txt", "2");
+        ours.put("clash.txt", "2");
+        ours.put("new.txt", "2");
+        HashMap<String, String> theirs = new HashMap<>(split);
+        theirs.put("theirs.txt", "3");
+        theirs.put("both.txt", "2");
+        theirs.remove("gone.txt");
+        theirs.remove("clash.txt");
+        theirs.put("new.txt", "3");
+        Merge merge = new Merge(Diff.maps(split, ours),
+                Diff.maps(split, theirs));
+        assertEquals(List.of("gone.txt", "theirs.txt"),
+                List.copyOf(merge.getTaken().keySet()));
+        assertNull(merge.getTaken().get("gone.txt"));
+        assertEquals("3", merge.getTaken().get("theirs.txt"));
+        assertEquals(List.of("clash.txt", "new.txt"),
+                List.copyOf(merge.getConflicts().keySet()));
+        assertArrayEquals(new String[] {"2", null},
+                merge.getConflicts().get("clash.txt"));
+    }
+
+    /** Check that a line merge takes the lines changed on one side, and
+     *  marks only the lines changed differently on both. */
+    @Test
+    public void checkLineMerge() throws IOException {
+        String base = "a\nb\nc\nd\ne\n";
+        assertEquals("A\nb\nc\nd\nE\n",
+                lineMerge(base, "A\nb\nc\nd\ne\n", "a\nb\nc\nd\nE\n", 0));
+        assertEquals("a\nb\nx\nc\nd\n",
+                lineMerge(base, "a\nb\nx\nc\nd\ne\n", "a\nb\nc\nd\n", 0));
+        String n = System.lineSeparator();
+        assertEquals("a\n<<<<<<< HEAD" + n + "B\n=======" + n + "b2\n"
+                + ">>>>>>>" + n + "c\nd\nE\n",
+                lineMerge(base, "a\nB\nc\nd\ne\n", "a\nb2\nc\nd\nE\n", 1));
+        assertEquals("same\nb\nc\nd\ne",
+                lineMerge(base, "same\nb\nc\nd\ne", "same\nb\nc\nd\ne\n", 0));
+        assertTrue(new LineMerge(() -> stream("a\n"), () -> stream("\0"),
+                () -> stream("b\n")).isBinary());
+    }
+
+    /** Return the line merge of OURS and THEIRS made from BASE, checking
+     *  that it has CONFLICTS conflicting chunks. */
+    private static String lineMerge(String base, String ours, String theirs,
+                                    int conflicts) throws IOException {
+        LineMerge merge = new LineMerge(() -> stream(base),
+                () -> stream(ours), () -> stream(theirs));
+        assertEquals(conflicts, merge.getConflicts());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        merge.write(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Return a stream over the UTF-8 bytes of TEXT. */
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(
+                text.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
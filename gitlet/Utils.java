@@ -1,11 +1,13 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.ObjectInputFilter;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -15,7 +17,6 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -43,11 +44,7 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return Pack.toHex(md.digest());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -216,6 +213,36 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from the bytes CONTENTS,
+     *  casting it to EXPECTEDCLASS.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T deserialize(byte[] contents,
+                                                  Class<T> expectedClass) {
+        return deserialize(contents, expectedClass, null);
+    }
+
+    /** Return an object of type T deserialized from the bytes CONTENTS,
+     *  casting it to EXPECTEDCLASS, reading only the classes FILTER
+     *  allows unless it is null.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T deserialize(byte[] contents,
+                                                  Class<T> expectedClass,
+                                                  ObjectInputFilter filter) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(contents));
+            if (filter != null) {
+                in.setObjectInputFilter(filter);
+            }
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */